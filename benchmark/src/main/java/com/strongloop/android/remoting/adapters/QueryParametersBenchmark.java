@@ -0,0 +1,54 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+
+/**
+ * Measures how flattening nested query parameters scales with the size of
+ * a LoopBack filter. It lives in the adapters package to reach
+ * {@link RestAdapter#buildUrlQueryParameters(Map)}.
+ */
+public class QueryParametersBenchmark extends SimpleBenchmark {
+
+    @Param({"1", "5", "20"})
+    private int conditionCount;
+
+    private Map<String, Object> parameters;
+
+    @Override
+    protected void setUp() {
+        // { filter: { where: { p0: { gt: 0 }, ... }, order: "name ASC",
+        //             limit: 10, skip: 20 } }
+        Map<String, Object> where = new HashMap<String, Object>();
+        for (int i = 0; i < conditionCount; i++) {
+            Map<String, Object> condition = new HashMap<String, Object>();
+            condition.put("gt", i);
+            where.put("p" + i, condition);
+        }
+        Map<String, Object> filter = new HashMap<String, Object>();
+        filter.put("where", where);
+        filter.put("order", "name ASC");
+        filter.put("limit", 10);
+        filter.put("skip", 20);
+        parameters = new HashMap<String, Object>();
+        parameters.put("filter", filter);
+    }
+
+    public int timeBuildUrlQueryParameters(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += RestAdapter.buildUrlQueryParameters(parameters).size();
+        }
+        return dummy;
+    }
+
+    public static void main(String[] args) {
+        Runner.main(QueryParametersBenchmark.class, args);
+    }
+}
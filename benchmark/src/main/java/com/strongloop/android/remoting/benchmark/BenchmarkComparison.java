@@ -0,0 +1,135 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import com.google.caliper.MeasurementSet;
+import com.google.caliper.MeasurementType;
+import com.google.caliper.Result;
+import com.google.caliper.ResultsReader;
+import com.google.caliper.Scenario;
+import com.google.caliper.ScenarioResult;
+
+/**
+ * Compares the results saved by Caliper's <code>--saveResults</code>
+ * option with a baseline, and fails if any scenario got slower by more
+ * than a given ratio.
+ * <p>
+ * Usage: <code>BenchmarkComparison baselineDir resultsDir [maxRatio]</code>
+ * <br>
+ * Each <code>*.json</code> file in <code>resultsDir</code> is compared
+ * with the file of the same name in <code>baselineDir</code>.
+ * <code>maxRatio</code> defaults to 1.2, i.e. 20% slower.
+ * <p>
+ * Exits with 1 if a scenario regressed, and with 2 if a benchmark or a
+ * scenario has no baseline, since it could not be checked. Record one with
+ * <code>gradle :benchmark:updateBenchmarkBaseline</code>.
+ */
+public class BenchmarkComparison {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(
+                    "Usage: BenchmarkComparison baselineDir resultsDir " +
+                    "[maxRatio]");
+            System.exit(2);
+        }
+        File baselineDir = new File(args[0]);
+        File resultsDir = new File(args[1]);
+        double maxRatio = args.length > 2
+                ? Double.parseDouble(args[2]) : 1.2;
+
+        File[] files = resultsDir.listFiles();
+        if (files == null) {
+            System.err.println("No results in " + resultsDir);
+            System.exit(2);
+        }
+
+        int regressions = 0;
+        int missing = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".json")) {
+                continue;
+            }
+            File baselineFile = new File(baselineDir, file.getName());
+            if (!baselineFile.isFile()) {
+                System.out.println(file.getName() + ": NO BASELINE");
+                missing++;
+                continue;
+            }
+            int[] counts = compare(read(baselineFile), read(file), maxRatio);
+            regressions += counts[0];
+            missing += counts[1];
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " scenario(s) regressed by " +
+                    "more than " + Math.round((maxRatio - 1) * 100) + "%");
+            System.exit(1);
+        }
+        if (missing > 0) {
+            System.err.println(missing + " benchmark(s) or scenario(s) " +
+                    "have no baseline in " + baselineDir + ". Record it " +
+                    "on this machine with " +
+                    "'gradle :benchmark:updateBenchmarkBaseline', and " +
+                    "commit it.");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @return the number of scenarios that regressed, and the number of
+     * those without a baseline.
+     */
+    private static int[] compare(Result baseline, Result result,
+            double maxRatio) {
+        System.out.println(result.getRun().getBenchmarkName());
+        Map<Scenario, ScenarioResult> baselineMeasurements =
+                baseline.getRun().getMeasurements();
+        int regressions = 0;
+        int missing = 0;
+        for (Map.Entry<Scenario, ScenarioResult> entry :
+                result.getRun().getMeasurements().entrySet()) {
+            ScenarioResult baselineResult =
+                    baselineMeasurements.get(entry.getKey());
+            if (baselineResult == null) {
+                System.out.println("  " + entry.getKey().getVariables() +
+                        " NO BASELINE");
+                missing++;
+                continue;
+            }
+            double before = median(baselineResult);
+            double after = median(entry.getValue());
+            double ratio = after / before;
+            boolean regressed = ratio > maxRatio;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format("  %s %.0fns -> %.0fns (%+.0f%%)%s",
+                    entry.getKey().getVariables(), before, after,
+                    (ratio - 1) * 100, regressed ? " REGRESSION" : ""));
+        }
+        return new int[] { regressions, missing };
+    }
+
+    private static double median(ScenarioResult result) {
+        MeasurementSet measurements =
+                result.getMeasurementSet(MeasurementType.TIME);
+        return measurements.medianRaw();
+    }
+
+    private static Result read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return new ResultsReader().getResult(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import android.util.JsonReader;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.strongloop.android.remoting.JsonUtil;
+
+/**
+ * Measures JSON conversion of a typical "find" response: an array of
+ * models with nested objects, arrays and all kinds of values, and of a
+ * telemetry upload: an array of a hundred readings per model.
+ */
+public class JsonUtilBenchmark extends SimpleBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int modelCount;
+
+    private List<Object> models;
+    private String json;
+    private double[] readings;
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    @Override
+    protected void setUp() throws JSONException {
+        models = createModels(modelCount);
+        json = JsonUtil.toJson(models).toString();
+        readings = new double[modelCount * 100];
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = Math.sin(i) * 100;
+        }
+    }
+
+    static List<Object> createModels(int count) {
+        List<Object> models = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> geo = new HashMap<String, Object>();
+            geo.put("lat", 37.7749 + i / 1000.0);
+            geo.put("lng", -122.4194 - i / 1000.0);
+
+            Map<String, Object> address = new HashMap<String, Object>();
+            address.put("street", i + " Market Street");
+            address.put("city", "San Francisco");
+            address.put("zip", "94103");
+            address.put("geo", geo);
+
+            Map<String, Object> model = new HashMap<String, Object>();
+            model.put("id", i);
+            model.put("name", "Widget \"" + i + "\"");
+            model.put("price", 9.99 + i);
+            model.put("stock", 1000000000000L + i);
+            model.put("active", i % 2 == 0);
+            model.put("notes", null);
+            model.put("tags", Arrays.asList("red", "small", "sale"));
+            model.put("address", address);
+            models.add(model);
+        }
+        return models;
+    }
+
+    /**
+     * Converts the models to JSON text, as when sending a request.
+     */
+    public int timeToJson(int reps) throws JSONException {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += JsonUtil.toJson(models).toString().length();
+        }
+        return dummy;
+    }
+
+    /**
+     * Writes the models as JSON to a stream, as the request body does.
+     */
+    public long timeToJsonStream(int reps) throws IOException {
+        for (int i = 0; i < reps; i++) {
+            JsonUtil.toJson(models, out);
+        }
+        return out.count;
+    }
+
+    /**
+     * Converts the readings to JSON text.
+     */
+    public int timeReadingsToJson(int reps) throws JSONException {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += JsonUtil.toJson(readings).toString().length();
+        }
+        return dummy;
+    }
+
+    /**
+     * Writes the readings as JSON to a stream, without boxing them.
+     */
+    public long timeReadingsToJsonStream(int reps) throws IOException {
+        for (int i = 0; i < reps; i++) {
+            JsonUtil.toJson(readings, out);
+        }
+        return out.count;
+    }
+
+    /**
+     * Parses the response with org.json and converts it to Lists and Maps.
+     */
+    public int timeFromJsonTokener(int reps) throws JSONException {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            JSONArray array = (JSONArray)new JSONTokener(json).nextValue();
+            dummy += JsonUtil.fromJson(array).size();
+        }
+        return dummy;
+    }
+
+    /**
+     * Parses the response straight into Lists and Maps.
+     */
+    public int timeFromJsonReader(int reps) throws IOException {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            dummy += ((List<?>)JsonUtil.fromJson(reader)).size();
+        }
+        return dummy;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) {
+        Runner.main(JsonUtilBenchmark.class, args);
+    }
+}
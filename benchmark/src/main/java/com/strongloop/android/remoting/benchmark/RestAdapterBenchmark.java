@@ -0,0 +1,141 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.HttpTransport;
+import com.strongloop.android.remoting.adapters.LoopjTransport;
+import com.strongloop.android.remoting.adapters.MethodHandle;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.UrlConnectionTransport;
+
+/**
+ * Measures complete calls through {@link RestAdapter}, from building the
+ * request to delivering the response body, against a local
+ * {@link StubServer}. Each call waits for the previous one to finish.
+ */
+public class RestAdapterBenchmark extends SimpleBenchmark {
+
+    @Param({"loopj", "urlconnection"})
+    private String transport;
+
+    @Param({"1", "100"})
+    private int modelCount;
+
+    private StubServer server;
+    private RestAdapter adapter;
+    private MethodHandle find;
+    private Map<String, Object> parameters;
+
+    @Override
+    protected void setUp() throws Exception {
+        List<Object> models = JsonUtilBenchmark.createModels(modelCount);
+        server = new StubServer(JsonUtil.toJson(models).toString());
+
+        HttpTransport httpTransport = "loopj".equals(transport)
+                ? new LoopjTransport()
+                : new UrlConnectionTransport();
+        adapter = new RestAdapter(null, server.getUrl(), httpTransport);
+        adapter.getContract().addItem(
+                new RestContractItem("/widgets", "GET"), "widgets.find");
+        adapter.getContract().addItem(
+                new RestContractItem("/widgets", "POST"), "widgets.create");
+        find = adapter.bindStaticMethod("widgets.find");
+
+        parameters = new HashMap<String, Object>();
+        parameters.put("models", models);
+    }
+
+    @Override
+    protected void tearDown() {
+        server.stop();
+    }
+
+    public int timeGet(int reps) throws Throwable {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += call("widgets.find", null);
+        }
+        return dummy;
+    }
+
+    /**
+     * Like {@link #timeGet(int)}, through a bound method.
+     */
+    public int timeGetBound(int reps) throws Throwable {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += call(find, null);
+        }
+        return dummy;
+    }
+
+    /**
+     * Sends the models as the request body.
+     */
+    public int timePost(int reps) throws Throwable {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += call("widgets.create", parameters);
+        }
+        return dummy;
+    }
+
+    private int call(String method, Map<String, Object> parameters)
+            throws Throwable {
+        return call(null, method, parameters);
+    }
+
+    private int call(MethodHandle handle, Map<String, Object> parameters)
+            throws Throwable {
+        return call(handle, null, parameters);
+    }
+
+    /**
+     * Invokes the bound method, if any, or else the named one.
+     */
+    private int call(MethodHandle handle, String method,
+            Map<String, Object> parameters) throws Throwable {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        Adapter.Callback callback = new Adapter.Callback() {
+
+            @Override
+            public void onSuccess(String response, Object...data) {
+                result[0] = response;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result[0] = t;
+                done.countDown();
+            }
+        };
+        if (handle != null) {
+            handle.invoke(null, parameters, callback);
+        }
+        else {
+            adapter.invokeStaticMethod(method, parameters, callback);
+        }
+        done.await();
+        if (result[0] instanceof Throwable) {
+            throw (Throwable)result[0];
+        }
+        return ((String)result[0]).length();
+    }
+
+    public static void main(String[] args) {
+        Runner.main(RestAdapterBenchmark.class, args);
+    }
+}
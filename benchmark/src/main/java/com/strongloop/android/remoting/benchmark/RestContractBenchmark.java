@@ -0,0 +1,87 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.strongloop.android.remoting.adapters.RestContract;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+
+/**
+ * Measures how URL pattern expansion scales with the number of pattern
+ * parameters, up to the size of a typical filter route.
+ */
+public class RestContractBenchmark extends SimpleBenchmark {
+
+    private static final String METHOD = "widgets.filter";
+
+    @Param({"1", "5", "10", "30"})
+    private int parameterCount;
+
+    private String pattern;
+    private Map<String, Object> parameters;
+    private RestContract contract;
+
+    @Override
+    protected void setUp() {
+        // "/widgets/:p0/:p1/..." - the names share prefixes (p1, p10, ...)
+        // just like real routes do.
+        StringBuilder builder = new StringBuilder("/widgets");
+        parameters = new HashMap<String, Object>();
+        for (int i = 0; i < parameterCount; i++) {
+            builder.append("/:p").append(i);
+            parameters.put("p" + i, "value" + i);
+        }
+        pattern = builder.toString();
+
+        contract = new RestContract();
+        contract.addItem(new RestContractItem(pattern, "GET"), METHOD);
+    }
+
+    /**
+     * Expands the pattern of a contract item, parsed when it was added.
+     */
+    public int timeGetUrlForMethod(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += contract.getUrlForMethod(METHOD, parameters).length();
+        }
+        return dummy;
+    }
+
+    /**
+     * Parses and expands the pattern on every call.
+     */
+    public int timeGetUrl(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            dummy += contract.getUrl(pattern, parameters).length();
+        }
+        return dummy;
+    }
+
+    /**
+     * The previous implementation, one <code>String.replace</code> per
+     * parameter, kept as a baseline.
+     */
+    public int timeReplaceLoop(int reps) {
+        int dummy = 0;
+        for (int i = 0; i < reps; i++) {
+            String url = pattern;
+            for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+                url = url.replace(":" + entry.getKey(),
+                        String.valueOf(entry.getValue()));
+            }
+            dummy += url.length();
+        }
+        return dummy;
+    }
+
+    public static void main(String[] args) {
+        Runner.main(RestContractBenchmark.class, args);
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that answers every request with the same JSON body,
+ * so that end-to-end benchmarks measure the client rather than a remote
+ * server or the network.
+ */
+public class StubServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool();
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     * @param response The response body.
+     */
+    public StubServer(String response) throws IOException {
+        // Without TCP_NODELAY, delayed ACKs add ~40ms to every request.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        final byte[] body = response.getBytes("UTF-8");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Drain the request, as a real server would.
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Do nothing
+                }
+                in.close();
+
+                exchange.getResponseHeaders().set("Content-Type",
+                        "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the base URL of the server.
+     * @return the URL, e.g. <code>"http://127.0.0.1:12345"</code>.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package android.net;
+
+/**
+ * JVM stand-in for the Android class, covering what the adapters use:
+ * parsing a base URL and appending paths and query parameters to it.
+ */
+public final class Uri {
+
+    private static final String HEX = "0123456789ABCDEF";
+
+    private final String prefix;
+    private final String path;
+    private final String query;
+
+    private Uri(String prefix, String path, String query) {
+        this.prefix = prefix;
+        this.path = path;
+        this.query = query;
+    }
+
+    public static Uri parse(String uriString) {
+        String rest = uriString;
+        int hash = rest.indexOf('#');
+        if (hash >= 0) {
+            rest = rest.substring(0, hash);
+        }
+        String query = null;
+        int question = rest.indexOf('?');
+        if (question >= 0) {
+            query = rest.substring(question + 1);
+            rest = rest.substring(0, question);
+        }
+        int authority = rest.indexOf("://");
+        int slash = rest.indexOf('/', authority >= 0 ? authority + 3 : 0);
+        if (slash < 0) {
+            return new Uri(rest, "", query);
+        }
+        return new Uri(rest.substring(0, slash), rest.substring(slash),
+                query);
+    }
+
+    public static String encode(String s) {
+        StringBuilder encoded = new StringBuilder(s.length());
+        byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        }
+        catch (java.io.UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        for (byte b : bytes) {
+            char c = (char)(b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                    (c >= '0' && c <= '9') || "_-!.~'()*".indexOf(c) >= 0) {
+                encoded.append(c);
+            }
+            else {
+                encoded.append('%').append(HEX.charAt(c >> 4))
+                        .append(HEX.charAt(c & 0xf));
+            }
+        }
+        return encoded.toString();
+    }
+
+    public Builder buildUpon() {
+        Builder builder = new Builder();
+        builder.prefix = prefix;
+        builder.path.append(path);
+        if (query != null) {
+            builder.query.append(query);
+        }
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return query != null && query.length() > 0
+                ? prefix + path + "?" + query
+                : prefix + path;
+    }
+
+    public static final class Builder {
+
+        private String prefix = "";
+        private final StringBuilder path = new StringBuilder();
+        private final StringBuilder query = new StringBuilder();
+
+        public Builder appendEncodedPath(String newSegment) {
+            if (path.length() == 0 || path.charAt(path.length() - 1) != '/') {
+                path.append('/');
+            }
+            path.append(newSegment.startsWith("/")
+                    ? newSegment.substring(1) : newSegment);
+            return this;
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(encode(key)).append('=').append(encode(value));
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(prefix, path.toString(), query.toString());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package android.os;
+
+/**
+ * JVM stand-in for the Android class. No thread has a Looper, so adapters
+ * invoke callbacks on their worker threads.
+ */
+public final class Looper {
+
+    private Looper() {
+    }
+
+    public static Looper myLooper() {
+        return null;
+    }
+
+    public static Looper getMainLooper() {
+        throw new UnsupportedOperationException(
+                "There is no main thread on the JVM");
+    }
+}
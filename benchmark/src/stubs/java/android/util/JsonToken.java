@@ -0,0 +1,19 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package android.util;
+
+/**
+ * JVM stand-in for the Android class, see {@link JsonReader}.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
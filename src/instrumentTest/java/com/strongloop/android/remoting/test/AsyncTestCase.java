@@ -2,6 +2,7 @@ package com.strongloop.android.remoting.test;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONObject;
 
@@ -37,7 +38,17 @@ public class AsyncTestCase extends ActivityTestCase {
         }
 
         public JsonObjectCallback expectJsonResponse(String expectedData) {
-            return new ExpectedDataCallback(expectedData);
+            return new ExpectedDataCallback(expectedData, null);
+        }
+
+        /**
+         * Like {@link #expectJsonResponse(String)}, but the test finishes
+         * only when all the callbacks sharing <code>pending</code> have
+         * received their response.
+         */
+        public JsonObjectCallback expectJsonResponse(AtomicInteger pending,
+                String expectedData) {
+            return new ExpectedDataCallback(expectedData, pending);
         }
 
         /**
@@ -47,9 +58,12 @@ public class AsyncTestCase extends ActivityTestCase {
         public class ExpectedDataCallback extends JsonObjectCallback {
 
             private String expectedData;
+            private AtomicInteger pending;
 
-            public ExpectedDataCallback(String expectedData) {
+            public ExpectedDataCallback(String expectedData,
+                    AtomicInteger pending) {
                 this.expectedData = expectedData;
+                this.pending = pending;
             }
 
             @Override
@@ -62,7 +76,9 @@ public class AsyncTestCase extends ActivityTestCase {
                 assertNotNull("No value returned", response);
                 assertEquals("Incorrect value returned.", expectedData,
                         response.optString("data"));
-                notifyFinished();
+                if (pending == null || pending.decrementAndGet() == 0) {
+                    notifyFinished();
+                }
             }
         };
     }
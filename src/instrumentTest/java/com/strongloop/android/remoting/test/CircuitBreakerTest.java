@@ -0,0 +1,269 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.CircuitBreaker;
+import com.strongloop.android.remoting.adapters.CircuitBreakerPolicy;
+import com.strongloop.android.remoting.adapters.CircuitOpenException;
+import com.strongloop.android.remoting.adapters.HttpTransport;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+
+/**
+ * Drives circuit breakers with a clock that only moves when told to, and
+ * a transport that answers requests when told to.
+ */
+public class CircuitBreakerTest extends TestCase {
+
+    private ManualClock clock;
+    private HeldTransport transport;
+    private RestAdapter adapter;
+    private List<Object> outcomes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clock = new ManualClock();
+        transport = new HeldTransport();
+        adapter = new RestAdapter(null, "http://localhost", transport);
+        adapter.getContract().addItem(
+                new RestContractItem("/widgets", "POST"), "widgets.create");
+        adapter.setRetryPolicy(null);
+        // Opens once 2 of the last 4 requests failed, for 5 seconds.
+        adapter.setCircuitBreakerPolicy(
+                new CircuitBreakerPolicy(4, 0.5f, 1000, 5000, 0, clock));
+        outcomes = Collections.synchronizedList(new ArrayList<Object>());
+    }
+
+    public void testPolicy() {
+        assertSame(CircuitBreakerPolicy.Clock.SYSTEM,
+                CircuitBreakerPolicy.DEFAULT.getClock());
+        assertTrue(CircuitBreakerPolicy.DEFAULT.isFailure(503));
+        assertTrue(CircuitBreakerPolicy.DEFAULT.isFailure(429));
+        assertTrue(CircuitBreakerPolicy.DEFAULT.isFailure(408));
+        assertFalse(CircuitBreakerPolicy.DEFAULT.isFailure(404));
+        try {
+            new CircuitBreakerPolicy(4, 0.5f, 1000, 5000, 0, null);
+            fail("Accepted a null clock");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new CircuitBreakerPolicy(0, 0.5f, 1000, 5000, 0);
+            fail("Accepted an empty window");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testOpenHalfOpenClose() throws Exception {
+        CircuitBreaker breaker = adapter.getCircuitBreaker("widgets.create");
+        send(503);
+        send(200);
+        send(503);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        send(200);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Rejected without being sent.
+        invoke();
+        assertEquals(4, transport.size());
+        assertTrue(outcomes.get(4) instanceof CircuitOpenException);
+
+        clock.advance(4999);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        invoke();
+        assertEquals(4, transport.size());
+
+        clock.advance(1);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        invoke();
+        assertEquals(5, transport.size());
+        transport.respond(4, 200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // The failures before the circuit opened are forgotten.
+        send(503);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testFailedProbe() throws Exception {
+        CircuitBreaker breaker = adapter.getCircuitBreaker("widgets.create");
+        for (int i = 0; i < 4; i++) {
+            send(503);
+        }
+        clock.advance(5000);
+        send(500);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Open for the whole duration again, from the failed probe.
+        clock.advance(4999);
+        invoke();
+        assertEquals(5, transport.size());
+        clock.advance(1);
+        send(200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testSingleProbe() throws Exception {
+        CircuitBreaker breaker = adapter.getCircuitBreaker("widgets.create");
+        for (int i = 0; i < 4; i++) {
+            send(503);
+        }
+        clock.advance(5000);
+
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        invoke();
+                    }
+                    catch (InterruptedException e) {
+                        // Counted as missing below.
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // The probe is held by the transport, the others are rejected.
+        assertEquals(5, transport.size());
+        assertEquals(4 + threads - 1, outcomes.size());
+        for (Object outcome : outcomes.subList(4, outcomes.size())) {
+            assertTrue(outcome instanceof CircuitOpenException);
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1, breaker.getInFlightCount());
+
+        transport.respond(4, 200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getInFlightCount());
+    }
+
+    public void testSlowCall() throws Exception {
+        CircuitBreaker breaker = adapter.getCircuitBreaker("widgets.create");
+        for (int i = 0; i < 3; i++) {
+            invoke();
+            clock.advance(i == 0 ? 1000 : 1001);
+            transport.respond(i, 200);
+        }
+        // Only the last two took longer than the slow call duration.
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        send(200);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    /**
+     * Invokes the method, and answers it with the given status.
+     */
+    private void send(int status) throws Exception {
+        int index = transport.size();
+        invoke();
+        assertEquals("Not sent", index + 1, transport.size());
+        transport.respond(index, status);
+    }
+
+    /**
+     * Invokes the method, adding its outcome to {@link #outcomes} once it
+     * completes.
+     */
+    private void invoke() {
+        adapter.invokeStaticMethod("widgets.create", null,
+                new Adapter.Callback() {
+
+            @Override
+            public void onSuccess(String response, Object...data) {
+                outcomes.add(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                outcomes.add(t);
+            }
+        });
+    }
+
+    private static class ManualClock implements CircuitBreakerPolicy.Clock {
+
+        private final AtomicLong now = new AtomicLong(1000000);
+
+        @Override
+        public long currentTimeMillis() {
+            return now.get();
+        }
+
+        public void advance(long millis) {
+            now.addAndGet(millis);
+        }
+    }
+
+    /**
+     * Keeps the requests it is given until {@link #respond(int, int)}.
+     */
+    private static class HeldTransport implements HttpTransport {
+
+        private final List<HttpTransport.ResponseHandler> handlers =
+                Collections.synchronizedList(
+                        new ArrayList<HttpTransport.ResponseHandler>());
+
+        @Override
+        public Future<?> execute(HttpTransport.Request request,
+                HttpTransport.ResponseHandler handler) {
+            handlers.add(handler);
+            return null;
+        }
+
+        public int size() {
+            return handlers.size();
+        }
+
+        public void respond(int index, final int status) throws Exception {
+            handlers.get(index).onResponse(new HttpTransport.Response() {
+
+                @Override
+                public int getStatusCode() {
+                    return status;
+                }
+
+                @Override
+                public String getReasonPhrase() {
+                    return "Status " + status;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return "Content-Type".equalsIgnoreCase(name)
+                            ? "application/json" : null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream("{}".getBytes());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.strongloop.android.remoting.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.HttpTransport;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+
+/**
+ * Checks the headers requests are sent with, as merged from those of the
+ * adapter and those of the route.
+ */
+public class HeaderProfileTest extends TestCase {
+
+    private final List<HttpTransport.Request> requests =
+            new ArrayList<HttpTransport.Request>();
+    private RestAdapter adapter;
+    private RestContractItem versioned;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = new RestAdapter(null, "http://localhost",
+                new HttpTransport() {
+
+            @Override
+            public Future<?> execute(HttpTransport.Request request,
+                    HttpTransport.ResponseHandler handler) {
+                requests.add(request);
+                return null;
+            }
+        });
+        versioned = new RestContractItem("/widgets", "POST");
+        adapter.getContract().addItem(versioned, "widgets.create");
+        adapter.getContract().addItem(
+                new RestContractItem("/gadgets", "POST"), "gadgets.create");
+    }
+
+    public void testMerge() {
+        adapter.setAccessToken("token");
+        versioned.setHeaders(RestAdapterTest.param("X-Api-Version", "2"));
+        Map<String, String> headers = send("widgets.create");
+        assertEquals("token", headers.get("Authorization"));
+        assertEquals("2", headers.get("X-Api-Version"));
+        assertEquals("application/json", headers.get("Accept"));
+        assertNotNull(headers.get("User-Agent"));
+
+        // Routes without headers only send those of the adapter.
+        headers = send("gadgets.create");
+        assertEquals("token", headers.get("Authorization"));
+        assertFalse(headers.containsKey("X-Api-Version"));
+
+        adapter.removeAccessToken();
+        assertFalse(send("widgets.create").containsKey("Authorization"));
+    }
+
+    public void testRoutePrecedence() {
+        adapter.setAccessToken("adapter");
+        Map<String, String> routeHeaders = new HashMap<String, String>();
+        routeHeaders.put("Authorization", "route");
+        routeHeaders.put("Accept", "text/plain");
+        versioned.setHeaders(routeHeaders);
+
+        Map<String, String> headers = send("widgets.create");
+        assertEquals("route", headers.get("Authorization"));
+        assertEquals("text/plain", headers.get("Accept"));
+
+        // Changing the adapter's header doesn't win over the route's.
+        adapter.setAccessToken("changed");
+        assertEquals("route", send("widgets.create").get("Authorization"));
+        assertEquals("changed", send("gadgets.create").get("Authorization"));
+    }
+
+    public void testSharedProfiles() {
+        versioned.setHeaders(RestAdapterTest.param("X-Api-Version", "2"));
+        Map<String, String> first = send("widgets.create");
+        assertSame(first, send("widgets.create"));
+
+        // A change makes a new profile, and leaves the sent one alone.
+        adapter.setAccessToken("token");
+        Map<String, String> second = send("widgets.create");
+        assertNotSame(first, second);
+        assertEquals("token", second.get("Authorization"));
+        assertFalse(first.containsKey("Authorization"));
+    }
+
+    public void testImmutability() {
+        Map<String, String> routeHeaders = new HashMap<String, String>();
+        routeHeaders.put("X-Api-Version", "2");
+        versioned.setHeaders(routeHeaders);
+        routeHeaders.put("X-Api-Version", "3");
+        assertEquals("2", versioned.getHeaders().get("X-Api-Version"));
+        assertUnmodifiable(versioned.getHeaders());
+
+        Map<String, String> headers = send("widgets.create");
+        assertEquals("2", headers.get("X-Api-Version"));
+        assertUnmodifiable(headers);
+
+        HttpTransport.Request request = new HttpTransport.Request("GET",
+                "http://localhost/", routeHeaders, null);
+        routeHeaders.put("X-Api-Version", "4");
+        assertEquals("3", request.getHeaders().get("X-Api-Version"));
+        assertUnmodifiable(request.getHeaders());
+
+        versioned.setHeaders(null);
+        assertTrue(versioned.getHeaders().isEmpty());
+    }
+
+    private static void assertUnmodifiable(Map<String, String> headers) {
+        try {
+            headers.put("X-Other", "value");
+            fail("Headers can be added");
+        }
+        catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        try {
+            headers.entrySet().iterator().next().setValue("value");
+            fail("Headers can be changed");
+        }
+        catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        try {
+            headers.clear();
+            fail("Headers can be removed");
+        }
+        catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Invokes the method, and gets the headers its request was sent with.
+     */
+    private Map<String, String> send(String method) {
+        int count = requests.size();
+        adapter.invokeStaticMethod(method, null, new Adapter.Callback() {
+
+            @Override
+            public void onSuccess(String response, Object...data) {
+                // Not answered.
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t.toString());
+            }
+        });
+        assertEquals("Not sent", count + 1, requests.size());
+        return requests.get(count).getHeaders();
+    }
+}
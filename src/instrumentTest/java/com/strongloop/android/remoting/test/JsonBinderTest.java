@@ -0,0 +1,134 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import android.util.JsonReader;
+
+import com.google.common.collect.ImmutableMap;
+import com.strongloop.android.remoting.JsonBinder;
+import com.strongloop.android.remoting.adapters.Adapter;
+
+public class JsonBinderTest extends TestCase {
+
+    public enum Color { RED, GREEN }
+
+    public static class Part {
+        String name;
+    }
+
+    public static class Widget {
+        int id;
+        long size;
+        double price;
+        boolean active;
+        char grade;
+        Character symbol;
+        String name;
+        Color color;
+        int[] scores;
+        List<Part> parts;
+        Map<String, Object> extra;
+        transient String ignored;
+    }
+
+    private static JsonReader reader(String json) {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    public void testPrimitives() throws IOException {
+        assertEquals(Integer.valueOf(1), JsonBinder.fromJson(reader("1"),
+                Integer.class));
+        assertEquals(Double.valueOf(1.5), JsonBinder.fromJson(reader("1.5"),
+                Double.class));
+        assertEquals("hello", JsonBinder.fromJson(reader("\"hello\""),
+                String.class));
+        assertEquals(Boolean.TRUE, JsonBinder.fromJson(reader("true"),
+                Boolean.class));
+        assertNull(JsonBinder.fromJson(reader("null"), String.class));
+        assertEquals(Character.valueOf('x'),
+                JsonBinder.fromJson(reader("\"x\""), Character.class));
+        assertEquals(Character.valueOf('x'),
+                JsonBinder.fromJson(reader("\"x\""), char.class));
+    }
+
+    public void testInvalidCharacters() throws IOException {
+        for (String json : new String[] { "\"\"", "\"xy\"" }) {
+            try {
+                JsonBinder.fromJson(reader(json), Character.class);
+                fail("Read " + json + " as a character");
+            }
+            catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testObjects() throws IOException {
+        Widget widget = JsonBinder.fromJson(reader(
+                "{ \"id\": 7, \"size\": 10000000000, \"price\": 9.5, " +
+                "\"active\": true, \"grade\": \"B\", " +
+                "\"symbol\": \"\\u00e9\", " +
+                "\"name\": \"gear\", \"color\": \"RED\", " +
+                "\"scores\": [1, 2, 3], " +
+                "\"parts\": [ { \"name\": \"tooth\" }, null ], " +
+                "\"extra\": { \"a\": [1, \"b\"] }, " +
+                "\"ignored\": \"x\", \"unknown\": { \"deep\": [] } }"),
+                Widget.class);
+
+        assertEquals(7, widget.id);
+        assertEquals(10000000000L, widget.size);
+        assertEquals(9.5, widget.price);
+        assertTrue(widget.active);
+        assertEquals('B', widget.grade);
+        assertEquals(Character.valueOf('\u00e9'), widget.symbol);
+        assertEquals("gear", widget.name);
+        assertEquals(Color.RED, widget.color);
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, widget.scores));
+        assertEquals(2, widget.parts.size());
+        assertEquals("tooth", widget.parts.get(0).name);
+        assertNull(widget.parts.get(1));
+        assertEquals(ImmutableMap.of("a", Arrays.asList(1, "b")),
+                widget.extra);
+        assertNull(widget.ignored);
+    }
+
+    public void testTypedCallback() {
+        final Widget[] result = { null };
+        new Adapter.TypedCallback<Widget>(Widget.class) {
+
+            @Override
+            public void onSuccess(Widget response) {
+                result[0] = response;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t.getLocalizedMessage());
+            }
+        }.onSuccess("{ \"id\": 7 }");
+        assertEquals(7, result[0].id);
+
+        final List<?>[] list = { null };
+        new Adapter.TypedCallback<List<Part>>() {
+
+            @Override
+            public void onSuccess(List<Part> response) {
+                list[0] = response;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t.getLocalizedMessage());
+            }
+        }.onSuccess("[ { \"name\": \"tooth\" } ]");
+        assertEquals("tooth", ((Part)list[0].get(0)).name);
+    }
+}
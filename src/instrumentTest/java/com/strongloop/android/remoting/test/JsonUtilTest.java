@@ -1,5 +1,10 @@
 package com.strongloop.android.remoting.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +15,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.util.JsonReader;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.strongloop.android.remoting.JsonUtil;
@@ -87,6 +94,45 @@ public class JsonUtilTest extends TestCase {
         assertEquals(fromList, toList);
     }
 
+    private Object doStreamingToJsonTest(Object object) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtil.toJson(object, out);
+        return JsonUtil.fromJson(new JsonReader(new StringReader(
+                out.toString("UTF-8"))));
+    }
+
+    public void testStreamingToJson() throws IOException {
+        Map<?, ?> fromMap = ImmutableMap.of(
+                "name", "fr\u00e9d \"\\\n\u2028\ud83d\ude00",
+                "age", 100,
+                "big", 10000000000L,
+                "scores", Arrays.asList(5000, 4000.5, null),
+                "isACoolPerson", true);
+        assertEquals(fromMap, doStreamingToJsonTest(fromMap));
+
+        assertEquals(Arrays.asList(0, -1, Integer.MAX_VALUE,
+                Integer.MIN_VALUE), doStreamingToJsonTest(new int[] {
+                        0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE }));
+        assertEquals(Arrays.asList(0, Long.MAX_VALUE, Long.MIN_VALUE),
+                doStreamingToJsonTest(new long[] {
+                        0, Long.MAX_VALUE, Long.MIN_VALUE }));
+        assertEquals(Arrays.asList(1, 0.5, -1.25e-10),
+                doStreamingToJsonTest(new double[] { 1.0, 0.5, -1.25e-10 }));
+        assertEquals(Arrays.asList(-128, 0, 127),
+                doStreamingToJsonTest(new byte[] { -128, 0, 127 }));
+        assertEquals(Arrays.asList(0, "hello", 1.5, false),
+                doStreamingToJsonTest(new Object[] { 0, "hello", 1.5f,
+                        false }));
+
+        try {
+            doStreamingToJsonTest(new double[] { Double.NaN });
+            fail("Object conversion should throw an exception");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
     // JSONObject doesn't implement an equals() method, so this is required.
     private void assertJsonEquals(String message, Object obj1, Object obj2) {
         if (obj1 instanceof JSONObject && obj2 instanceof JSONObject) {
@@ -236,4 +282,87 @@ public class JsonUtilTest extends TestCase {
         //doJsonParseTestShouldFail("0x100"); // Integer
         //doJsonParseTestShouldFail("[1,]"); // Parsed as [1,null]
     }
+
+    public void testFromJsonReader() throws IOException {
+        Map<?, ?> expected = ImmutableMap.of(
+                "name", "fred",
+                "age", 100,
+                "big", 10000000000L,
+                "scores", Arrays.asList(5000, 4000.5, null),
+                "isACoolPerson", true);
+        Object actual = JsonUtil.fromJson(new JsonReader(new StringReader(
+                "{ \"name\": \"fred\", \"age\": 100, " +
+                "\"big\": 10000000000, " +
+                "\"scores\": [5000, 4000.5, null], " +
+                "\"isACoolPerson\": true }")));
+        assertEquals(expected, actual);
+    }
+
+    private List<Object> doJsonStreamParseTest(String jsonString,
+            boolean useStream) throws IOException {
+        final List<Object> elements = new ArrayList<Object>();
+        final int[] count = { -1 };
+        Adapter.JsonArrayStreamCallback callback =
+                new Adapter.JsonArrayStreamCallback() {
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t.getLocalizedMessage());
+            }
+
+            @Override
+            public void onElement(Object element) {
+                elements.add(element);
+            }
+
+            @Override
+            public void onSuccess(int elementCount) {
+                count[0] = elementCount;
+            }
+        };
+        if (useStream) {
+            callback.onResponse(
+                    new ByteArrayInputStream(jsonString.getBytes("utf-8")),
+                    "utf-8");
+        }
+        else {
+            callback.onSuccess(jsonString);
+        }
+        assertEquals("Wrong element count", elements.size(), count[0]);
+        return elements;
+    }
+
+    public void testJsonStreamParsingInCallbacks() throws IOException {
+        List<?> expected = Arrays.asList(
+                ImmutableMap.of("name", "fred"), "hello", 1.0, true, null);
+        String jsonString = "[ { \"name\": \"fred\" }, \"hello\", " +
+                "1.0, true, null ]";
+
+        assertEquals(expected, doJsonStreamParseTest(jsonString, true));
+        assertEquals(expected, doJsonStreamParseTest(jsonString, false));
+        assertTrue(doJsonStreamParseTest("null", true).isEmpty());
+        assertTrue(doJsonStreamParseTest("[]", false).isEmpty());
+
+        final Throwable[] error = { null };
+        Adapter.JsonArrayStreamCallback callback =
+                new Adapter.JsonArrayStreamCallback() {
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+            }
+
+            @Override
+            public void onElement(Object element) {
+            }
+
+            @Override
+            public void onSuccess(int count) {
+                fail("JSON Parsing should fail for a JSON object");
+            }
+        };
+        callback.onSuccess("{ \"name\": \"fred\" }");
+        assertTrue("Expected JSONException",
+                error[0] instanceof JSONException);
+    }
 }
@@ -0,0 +1,93 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.File;
+
+import android.test.AndroidTestCase;
+
+import com.strongloop.android.remoting.adapters.LruResponseCache;
+import com.strongloop.android.remoting.adapters.ResponseCache;
+
+public class LruResponseCacheTest extends AndroidTestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File(getContext().getCacheDir(),
+                "LruResponseCacheTest");
+        new LruResponseCache(1, directory, 1024).clear();
+    }
+
+    public void testMemoryEviction() {
+        LruResponseCache cache = new LruResponseCache(10);
+        cache.put("/a", new ResponseCache.Entry("12345", "\"a\"", null, 0));
+        cache.put("/b", new ResponseCache.Entry("12345", "\"b\"", null, 0));
+        assertNotNull(cache.get("/a"));
+
+        // "/b" is now the least recently used entry.
+        cache.put("/c", new ResponseCache.Entry("12345", "\"c\"", null, 0));
+        assertNotNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertEquals("\"c\"", cache.get("/c").getEtag());
+
+        cache.remove("/a");
+        assertNull(cache.get("/a"));
+    }
+
+    public void testDiskTier() {
+        LruResponseCache cache = new LruResponseCache(10, directory, 1024);
+        cache.put("/a?x=1", new ResponseCache.Entry("{\"data\":1}", "\"a\"",
+                "Mon, 14 Oct 2013 19:58:29 GMT", 1234));
+
+        // A new instance only has the disk tier to go by.
+        cache = new LruResponseCache(10, directory, 1024);
+        ResponseCache.Entry entry = cache.get("/a?x=1");
+        assertNotNull(entry);
+        assertEquals("{\"data\":1}", entry.getBody());
+        assertEquals("\"a\"", entry.getEtag());
+        assertEquals("Mon, 14 Oct 2013 19:58:29 GMT", entry.getLastModified());
+        assertEquals(1234, entry.getExpires());
+        assertNull(cache.get("/a?x=2"));
+
+        cache.clear();
+        assertNull(new LruResponseCache(10, directory, 1024).get("/a?x=1"));
+    }
+
+    public void testVariant() {
+        LruResponseCache cache = new LruResponseCache(10, directory, 1024);
+        cache.put("/a", new ResponseCache.Entry("body", null, null, 0, "v1"));
+
+        ResponseCache.Entry entry =
+                new LruResponseCache(10, directory, 1024).get("/a");
+        assertEquals("v1", entry.getVariant());
+        assertTrue(entry.matches("v1"));
+        assertFalse(entry.matches("v2"));
+        assertFalse(entry.matches(null));
+        assertTrue(new ResponseCache.Entry("body", null, null, 0)
+                .matches(null));
+    }
+
+    public void testDiskTrimming() {
+        LruResponseCache cache = new LruResponseCache(1, directory, 300);
+        for (int i = 0; i < 10; i++) {
+            cache.put("/" + i, new ResponseCache.Entry(
+                    "0123456789012345678901234567890123456789", null, null, 0));
+        }
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        assertTrue("size " + size, size <= 300);
+        assertNotNull(cache.get("/9"));
+        assertNull(cache.get("/0"));
+    }
+
+    public void testFreshness() {
+        ResponseCache.Entry entry =
+                new ResponseCache.Entry("body", null, null, 1000);
+        assertTrue(entry.isFresh(999));
+        assertFalse(entry.isFresh(1000));
+        assertFalse(entry.hasValidator());
+    }
+}
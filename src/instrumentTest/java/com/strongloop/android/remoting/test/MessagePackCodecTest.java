@@ -0,0 +1,68 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.strongloop.android.remoting.adapters.MessagePackCodec;
+
+public class MessagePackCodecTest extends TestCase {
+
+    private final MessagePackCodec codec = new MessagePackCodec();
+
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("flag", true);
+        nested.put("none", null);
+        Map<String, Object> value = new HashMap<String, Object>();
+        value.put("name", "caf\u00e9 \u2603 \ud83d\ude00");
+        value.put("list", Arrays.asList(1, -1, 300, -40000, 2.5, "x"));
+        value.put("nested", nested);
+        assertEquals(value, roundTrip(value));
+    }
+
+    public void testNumbers() throws IOException {
+        assertEquals(127, roundTrip(127));
+        assertEquals(255, roundTrip(255L));
+        assertEquals(-32, roundTrip(-32));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(4294967295L, roundTrip(4294967295L));
+        assertEquals(Long.MIN_VALUE, roundTrip(Long.MIN_VALUE));
+        assertEquals(3, roundTrip(3.0));
+        assertEquals(0.1, roundTrip(0.1));
+        assertEquals(1.5, roundTrip(1.5f));
+    }
+
+    public void testLengths() throws IOException {
+        for (int length : new int[] { 0, 31, 32, 255, 256, 65535, 65536 }) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'a');
+            String string = new String(chars);
+            assertEquals(string, roundTrip(string));
+            List<?> list = Arrays.asList(new Object[length]);
+            assertEquals(list, roundTrip(list));
+        }
+    }
+
+    public void testCompactEncoding() throws IOException {
+        assertEquals(1, encode(5).length);
+        assertEquals(2, encode("a").length);
+        assertEquals(3, encode(Arrays.asList(null, true)).length);
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(value, out);
+        return out.toByteArray();
+    }
+
+    private Object roundTrip(Object value) throws IOException {
+        return codec.decode(new ByteArrayInputStream(encode(value)));
+    }
+}
@@ -0,0 +1,195 @@
+package com.strongloop.android.remoting.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.MetricsListener;
+import com.strongloop.android.remoting.adapters.RequestMetrics;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+
+/**
+ * Checks the metrics a listener receives for calls to the test server.
+ */
+public class MetricsListenerTest extends AsyncTestCase {
+
+    private static final String SECRET_URL =
+            "http://10.0.2.2:3001/contract/customizedGetSecret";
+
+    private final BlockingQueue<RequestMetrics> reported =
+            new LinkedBlockingQueue<RequestMetrics>();
+    private RestAdapter adapter;
+    private String key;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = new RestAdapter(getActivity(), "http://10.0.2.2:3001");
+        adapter.getContract().addItem(new RestContractItem(
+                "/contract/customizedGetSecret", "GET"), "contract.getSecret");
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "POST"), "outbox.append");
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "GET"), "outbox.list");
+        adapter.setMetricsListener(new MetricsListener() {
+
+            @Override
+            public void onRequestCompleted(RequestMetrics metrics) {
+                reported.add(metrics);
+            }
+        });
+        // Each test uses its own outbox on the server.
+        key = getName() + System.currentTimeMillis();
+    }
+
+    public void testGet() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        expectJsonResponse("shhh!"));
+            }
+        });
+        RequestMetrics metrics = next();
+        assertEquals("contract.getSecret", metrics.getMethod());
+        assertEquals("GET", metrics.getVerb());
+        assertEquals(SECRET_URL, metrics.getUrl());
+        assertEquals(200, metrics.getStatusCode());
+        assertTrue(metrics.isSuccess());
+        assertNull(metrics.getError());
+        // A GET has no body.
+        assertEquals(-1, metrics.getRequestBytes());
+        assertTrue(metrics.getResponseBytes() > 0);
+        assertEquals(0, metrics.getRetryCount());
+        assertFalse(metrics.isCacheHit());
+        assertFalse(metrics.isCoalesced());
+        assertTrue(metrics.getTimeToFirstByte() > 0);
+        assertTrue(metrics.getTotalTime() >= metrics.getTimeToFirstByte());
+        assertNoMore();
+    }
+
+    public void testCoalescedGet() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                AtomicInteger pending = new AtomicInteger(3);
+                for (int i = 0; i < 3; i++) {
+                    adapter.invokeStaticMethod("contract.getSecret", null,
+                            expectJsonResponse(pending, "shhh!"));
+                }
+            }
+        });
+        List<RequestMetrics> sent = new ArrayList<RequestMetrics>();
+        List<RequestMetrics> coalesced = new ArrayList<RequestMetrics>();
+        for (int i = 0; i < 3; i++) {
+            RequestMetrics metrics = next();
+            (metrics.isCoalesced() ? coalesced : sent).add(metrics);
+        }
+        assertEquals(1, sent.size());
+        assertEquals(200, sent.get(0).getStatusCode());
+        assertTrue(sent.get(0).getResponseBytes() > 0);
+
+        // Shared the response, without one of their own.
+        assertEquals(2, coalesced.size());
+        for (RequestMetrics metrics : coalesced) {
+            assertEquals("contract.getSecret", metrics.getMethod());
+            assertEquals("GET", metrics.getVerb());
+            assertEquals(SECRET_URL, metrics.getUrl());
+            assertTrue(metrics.isSuccess());
+            assertEquals(0, metrics.getStatusCode());
+            assertEquals(-1, metrics.getResponseBytes());
+            assertEquals(0, metrics.getRetryCount());
+            assertFalse(metrics.isCacheHit());
+        }
+        assertNoMore();
+    }
+
+    public void testRetriedGet() throws Throwable {
+        adapter.setRetryPolicy(new RetryPolicy(3, 10, 20));
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("key", key);
+        params.put("status", 503);
+        params.put("failures", 2);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("outbox.list", params,
+                        expectJsonResponse("[]"));
+            }
+        });
+        RequestMetrics metrics = next();
+        assertEquals("outbox.list", metrics.getMethod());
+        assertEquals(200, metrics.getStatusCode());
+        assertTrue(metrics.isSuccess());
+        assertEquals(2, metrics.getRetryCount());
+        assertFalse(metrics.isCacheHit());
+        assertFalse(metrics.isCoalesced());
+        assertNoMore();
+    }
+
+    public void testFailedCall() throws Throwable {
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("key", key);
+        params.put("value", "a");
+        params.put("status", 404);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("outbox.append", params,
+                        new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        notifyFailed(new AssertionError("Not rejected"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+        RequestMetrics metrics = next();
+        assertEquals("outbox.append", metrics.getMethod());
+        assertEquals("POST", metrics.getVerb());
+        assertEquals(404, metrics.getStatusCode());
+        assertFalse(metrics.isSuccess());
+        assertEquals(404, ((HttpResponseException)metrics.getError())
+                .getStatusCode());
+        assertTrue(metrics.getRequestBytes() > 0);
+        // A POST isn't retried.
+        assertEquals(0, metrics.getRetryCount());
+        assertFalse(metrics.isCacheHit());
+        assertFalse(metrics.isCoalesced());
+        assertNoMore();
+    }
+
+    /**
+     * Waits for the next metrics to be reported, which may be just after
+     * the callback was invoked.
+     */
+    private RequestMetrics next() throws InterruptedException {
+        RequestMetrics metrics = reported.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Not reported", metrics);
+        return metrics;
+    }
+
+    private void assertNoMore() throws InterruptedException {
+        assertNull(reported.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,245 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.HttpResponseException;
+
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.OfflineQueue;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+
+public class OfflineQueueTest extends AsyncTestCase {
+
+    /**
+     * Replays quickly, so that transient errors don't slow the tests down.
+     */
+    private static final RetryPolicy FAST = new RetryPolicy(3, 10, 20);
+
+    /**
+     * Waits out the tests, so that a failed call stays in the queue.
+     */
+    private static final RetryPolicy SLOW = new RetryPolicy(3, 60000, 60000);
+
+    private RestAdapter adapter;
+    private File file;
+    private String key;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = createAdapter();
+        file = new File(getActivity().getCacheDir(), "offline-queue-test");
+        file.delete();
+        // Each test posts to its own outbox on the server.
+        key = getName() + System.currentTimeMillis();
+    }
+
+    private RestAdapter createAdapter() {
+        RestAdapter adapter = new RestAdapter(getActivity(),
+                "http://10.0.2.2:3001");
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "POST"),
+                "outbox.append");
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "GET"), "outbox.list");
+        return adapter;
+    }
+
+    private Map<String, Object> call(String value, int status,
+            int failures) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("key", key);
+        params.put("value", value);
+        if (status > 0) {
+            params.put("status", status);
+        }
+        if (failures >= 0) {
+            params.put("failures", failures);
+        }
+        return params;
+    }
+
+    public void testReplayOrder() throws Throwable {
+        final OfflineQueue queue = new OfflineQueue(file);
+        queue.setRetryPolicy(FAST);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.setOfflineQueue(queue);
+                // The first call fails twice, and holds back the others.
+                adapter.invokeStaticMethod("outbox.append",
+                        call("a", 503, 2), null);
+                adapter.invokeStaticMethod("outbox.append",
+                        call("b", 0, -1), null);
+                adapter.invokeStaticMethod("outbox.append",
+                        call("c", 0, -1), new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        adapter.invokeStaticMethod("outbox.list",
+                                RestAdapterTest.param("key", key),
+                                expectJsonResponse("[\"a\",\"b\",\"c\"]"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+        assertEquals(0, queue.size());
+        adapter.setOfflineQueue(null);
+        queue.close();
+        assertFalse(file.exists());
+    }
+
+    public void testTransientAndPermanentErrors() throws Throwable {
+        final OfflineQueue queue = new OfflineQueue(file);
+        queue.setRetryPolicy(FAST);
+        final int[] statuses = new int[2];
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.setOfflineQueue(queue);
+                // Rejected right away.
+                adapter.invokeStaticMethod("outbox.append",
+                        call("rejected", 422, -1), new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        notifyFailed(new AssertionError("Not rejected"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        statuses[0] =
+                                ((HttpResponseException)t).getStatusCode();
+                    }
+                });
+                // Given up after the retries of the policy.
+                adapter.invokeStaticMethod("outbox.append",
+                        call("unavailable", 503, -1), new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        notifyFailed(new AssertionError("Not given up"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        statuses[1] =
+                                ((HttpResponseException)t).getStatusCode();
+                    }
+                });
+                adapter.invokeStaticMethod("outbox.append",
+                        call("sent", 0, -1),
+                        expectJsonResponse("[\"sent\"]"));
+            }
+        });
+        assertEquals(422, statuses[0]);
+        assertEquals(503, statuses[1]);
+        assertEquals(0, queue.size());
+    }
+
+    public void testCallbackAfterRestart() throws Throwable {
+        final OfflineQueue queue = new OfflineQueue(file);
+        queue.setRetryPolicy(SLOW);
+        runTestOnUiThread(new Runnable() {
+
+            @Override
+            public void run() {
+                adapter.setOfflineQueue(queue);
+                adapter.invokeStaticMethod("outbox.append",
+                        call("a", 503, 1), null);
+            }
+        });
+        awaitAttempts(queue, 1);
+        adapter.setOfflineQueue(null);
+        queue.close();
+
+        final OfflineQueue reopened = new OfflineQueue(file);
+        List<OfflineQueue.Entry> pending = reopened.getPending();
+        assertEquals(1, pending.size());
+        assertEquals("outbox.append", pending.get(0).getMethod());
+        assertEquals(1, pending.get(0).getAttempts());
+        final long id = pending.get(0).getId();
+        final RestAdapter restarted = createAdapter();
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                reopened.setCallback(id, expectJsonResponse("[\"a\"]"));
+                restarted.setOfflineQueue(reopened);
+            }
+        });
+        assertEquals(0, reopened.size());
+    }
+
+    public void testCompactTornTail() throws Throwable {
+        final OfflineQueue queue = new OfflineQueue(file);
+        queue.setRetryPolicy(SLOW);
+        runTestOnUiThread(new Runnable() {
+
+            @Override
+            public void run() {
+                adapter.setOfflineQueue(queue);
+                adapter.invokeStaticMethod("outbox.append",
+                        call("a", 503, -1), null);
+                adapter.invokeStaticMethod("outbox.append",
+                        call("b", 0, -1), null);
+            }
+        });
+        awaitAttempts(queue, 1);
+        adapter.setOfflineQueue(null);
+        queue.close();
+        long length = file.length();
+
+        // A record cut short by a crash.
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] { 0, 0, 0, 100, 1, 0, 0 });
+        out.close();
+
+        OfflineQueue reopened = new OfflineQueue(file);
+        List<OfflineQueue.Entry> pending = reopened.getPending();
+        assertEquals(2, pending.size());
+        assertEquals(1, pending.get(0).getAttempts());
+        assertEquals("b", pending.get(1).getParameters().get("value"));
+        assertTrue(file.length() <= length);
+
+        // The compacted journal can be appended to and read again.
+        RestAdapter offline = createAdapter();
+        reopened.setRetryPolicy(SLOW);
+        offline.setOfflineQueue(reopened);
+        offline.invokeStaticMethod("outbox.append", call("c", 0, -1), null);
+        offline.setOfflineQueue(null);
+        reopened.close();
+        assertEquals(3, new OfflineQueue(file).size());
+        file.delete();
+    }
+
+    /**
+     * Waits until the server has answered the first call of the queue
+     * with a transient error the given number of times.
+     */
+    private static void awaitAttempts(OfflineQueue queue, int attempts)
+            throws InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            List<OfflineQueue.Entry> pending = queue.getPending();
+            if (!pending.isEmpty() &&
+                    pending.get(0).getAttempts() >= attempts) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("The call was not sent");
+    }
+}
@@ -0,0 +1,178 @@
+package com.strongloop.android.remoting.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.content.Context;
+
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.reactive.Publisher;
+import com.strongloop.android.remoting.reactive.RemotePublishers;
+import com.strongloop.android.remoting.reactive.Subscriber;
+import com.strongloop.android.remoting.reactive.Subscription;
+
+public class RemotePublishersTest extends TestCase {
+
+    /**
+     * Answers "find" with the pages of a list of 5 numbers, and anything
+     * else with { "data": "ok" }, synchronously.
+     */
+    private static class FakeAdapter extends Adapter {
+
+        private final List<Map<String, ? extends Object>> calls =
+                new ArrayList<Map<String, ? extends Object>>();
+
+        public FakeAdapter() {
+            super((Context)null);
+        }
+
+        @Override
+        public void connect(Context context, String url) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void invokeStaticMethod(String method,
+                Map<String, ? extends Object> parameters, Callback callback) {
+            calls.add(parameters);
+            if (!method.endsWith(".find")) {
+                callback.onSuccess("{ \"data\": \"ok\" }");
+                return;
+            }
+            Map<?, ?> filter = (Map<?, ?>)parameters.get("filter");
+            int limit = ((Number)filter.get("limit")).intValue();
+            int skip = ((Number)filter.get("skip")).intValue();
+            JSONArray page = new JSONArray();
+            for (int i = skip; i < Math.min(5, skip + limit); i++) {
+                page.put(i);
+            }
+            callback.onSuccess(page.toString());
+        }
+
+        @Override
+        public void invokeInstanceMethod(String method,
+                Map<String, ? extends Object> constructorParameters,
+                Map<String, ? extends Object> parameters, Callback callback) {
+            invokeStaticMethod(method, parameters, callback);
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<Object> {
+
+        private final List<Object> elements = new ArrayList<Object>();
+        private Subscription subscription;
+        private Throwable error;
+        private boolean complete;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Object element) {
+            elements.add(element);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    private FakeAdapter adapter;
+    private Repository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = new FakeAdapter();
+        repository = new Repository("widget");
+        repository.setAdapter(adapter);
+    }
+
+    public void testSingleResponse() {
+        Publisher<Object> publisher = RemotePublishers.invokeStaticMethod(
+                repository, "getSecret", null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertEquals("Nothing is sent before a request", 0,
+                adapter.calls.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, adapter.calls.size());
+        assertEquals(1, subscriber.elements.size());
+        assertEquals("ok",
+                ((JSONObject)subscriber.elements.get(0)).optString("data"));
+        assertTrue(subscriber.complete);
+    }
+
+    public void testPagesAreFetchedOnDemand() {
+        Publisher<Object> publisher = RemotePublishers.pages(repository,
+                "find", null, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertEquals(1, adapter.calls.size());
+        assertEquals(1, subscriber.elements.size());
+
+        // Served from the buffered page.
+        subscriber.subscription.request(1);
+        assertEquals(1, adapter.calls.size());
+        assertEquals(2, subscriber.elements.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(2, adapter.calls.size());
+        assertEquals(3, subscriber.elements.size());
+        assertFalse(subscriber.complete);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(3, adapter.calls.size());
+        assertEquals(5, subscriber.elements.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, subscriber.elements.get(i));
+        }
+        assertTrue(subscriber.complete);
+        assertNull(subscriber.error);
+    }
+
+    public void testCancel() {
+        Publisher<Object> publisher = RemotePublishers.pages(repository,
+                "find", null, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        assertEquals(1, adapter.calls.size());
+        assertEquals(2, subscriber.elements.size());
+        assertFalse(subscriber.complete);
+    }
+
+    public void testInvalidRequest() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        RemotePublishers.pages(repository, "find", null, 2)
+                .subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, adapter.calls.size());
+    }
+}
@@ -1,11 +1,34 @@
 package com.strongloop.android.remoting.test;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import com.strongloop.android.remoting.Repository;
 import com.strongloop.android.remoting.VirtualObject;
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.Adapter.DownloadCallback;
+import com.strongloop.android.remoting.adapters.EventStream;
+import com.strongloop.android.remoting.adapters.MessagePackCodec;
+import com.strongloop.android.remoting.adapters.MethodHandle;
 import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+import com.strongloop.android.remoting.adapters.UrlConnectionTransport;
 
 public class RestAdapterTest extends AsyncTestCase {
 
@@ -46,6 +69,233 @@ public class RestAdapterTest extends AsyncTestCase {
         });
     }
 
+    public void testUrlConnectionTransport() throws Throwable {
+        final RestAdapter urlConnectionAdapter = new RestAdapter(getActivity(),
+                "http://10.0.2.2:3001", new UrlConnectionTransport());
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                urlConnectionAdapter.invokeStaticMethod("simple.transform",
+                        param("str", "somevalue"),
+                        expectJsonResponse("transformed: somevalue"));
+            }
+        });
+    }
+
+    public static class Secret {
+        String data;
+    }
+
+    public void testCallbackExecutor() throws Throwable {
+        final AtomicInteger executed = new AtomicInteger();
+        final ThreadLocal<Boolean> inExecutor = new ThreadLocal<Boolean>();
+        final RestAdapter executorAdapter = new RestAdapter(getActivity(),
+                "http://10.0.2.2:3001", Executors.newCachedThreadPool(),
+                new Executor() {
+
+                    @Override
+                    public void execute(Runnable command) {
+                        executed.incrementAndGet();
+                        inExecutor.set(true);
+                        try {
+                            command.run();
+                        }
+                        finally {
+                            inExecutor.remove();
+                        }
+                    }
+                });
+        executorAdapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "POST"), "outbox.append");
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                executorAdapter.invokeStaticMethod("simple.getSecret", null,
+                        expectJsonResponse("shhh!"));
+            }
+        });
+        assertEquals(1, executed.get());
+
+        // Typed callbacks are bound on the network thread, but called back
+        // on the executor, as are errors.
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                executorAdapter.invokeStaticMethod("simple.getSecret", null,
+                        new Adapter.TypedCallback<Secret>(Secret.class) {
+
+                    @Override
+                    public void onSuccess(Secret response) {
+                        if (inExecutor.get() == null) {
+                            notifyFailed(new AssertionError(
+                                    "Not on the executor"));
+                            return;
+                        }
+                        assertEquals("shhh!", response.data);
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+        assertEquals(2, executed.get());
+
+        final Map<String, Object> rejected = new HashMap<String, Object>();
+        rejected.put("key", "executor" + System.currentTimeMillis());
+        rejected.put("value", "rejected");
+        rejected.put("status", 404);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                executorAdapter.invokeStaticMethod("outbox.append", rejected,
+                        new Adapter.TypedCallback<Secret>(Secret.class) {
+
+                    @Override
+                    public void onSuccess(Secret response) {
+                        notifyFailed(new AssertionError("Not rejected"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        if (inExecutor.get() == null) {
+                            notifyFailed(new AssertionError(
+                                    "Not on the executor"));
+                            return;
+                        }
+                        notifyFinished();
+                    }
+                });
+            }
+        });
+        assertEquals(3, executed.get());
+    }
+
+    public void testCompressedRequest() throws Throwable {
+        RestContractItem item = new RestContractItem("/simple/transform");
+        item.setIsCompressed(true);
+        adapter.getContract().addItem(item, "simple.transform");
+        adapter.setCompressionThreshold(0);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("simple.transform",
+                        param("str", "somevalue"),
+                        expectJsonResponse("transformed: somevalue"));
+            }
+        });
+    }
+
+    public void testDownload() throws Throwable {
+        adapter.getContract().addItem(
+                new RestContractItem("/download", "GET"), "download");
+        final File file = new File(getActivity().getCacheDir(), "download");
+        file.delete();
+
+        doAsyncTest(new DownloadTest(file));
+        assertDownloaded(file);
+
+        // Resume a partial download.
+        RandomAccessFile partial = new RandomAccessFile(file, "rw");
+        partial.setLength(40000);
+        partial.close();
+
+        doAsyncTest(new DownloadTest(file));
+        assertDownloaded(file);
+    }
+
+    public void testSubscribe() throws Throwable {
+        adapter.getContract().addItem(
+                new RestContractItem("/events", "GET"), "events.stream");
+        final Repository events = new Repository("events");
+        events.setAdapter(adapter);
+
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                // The stream is opened again after the second event.
+                final AtomicInteger expected = new AtomicInteger(1);
+                final EventStream[] stream = new EventStream[1];
+                stream[0] = events.subscribe("stream", null,
+                        new EventStream.Listener() {
+
+                    @Override
+                    public void onEvent(String event, Object data,
+                            String id) {
+                        int count = expected.getAndIncrement();
+                        assertEquals("count", event);
+                        assertEquals(String.valueOf(count), id);
+                        assertEquals(count,
+                                ((JSONObject)data).optInt("count"));
+                        if (count == 4) {
+                            stream[0].close();
+                            notifyFinished();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void assertDownloaded(File file) throws IOException {
+        assertEquals(100000, file.length());
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            for (int i = 0; i < 100000; i++) {
+                assertEquals(i % 256, in.read());
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private class DownloadTest extends AsyncTest {
+
+        private final File file;
+
+        public DownloadTest(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            adapter.invokeStaticMethod("download", null,
+                    new DownloadCallback(file) {
+
+                @Override
+                public void onProgress(long bytesWritten, long totalBytes) {
+                    assertEquals(100000, totalBytes);
+                }
+
+                @Override
+                public void onSuccess(long length) {
+                    assertEquals(100000, length);
+                    notifyFinished();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    notifyFailed(t);
+                }
+            });
+        }
+    }
+
     public void testTransform() throws Throwable {
         doAsyncTest(new AsyncTest() {
 
@@ -122,4 +372,247 @@ public class RestAdapterTest extends AsyncTestCase {
             }
         });
     }
+
+    public void testFuture() throws Exception {
+        Future<Object> secret = adapter.invokeStaticMethod("simple.getSecret",
+                null);
+        Future<Object> transformed = adapter.invokeStaticMethod(
+                "simple.transform", param("str", "somevalue"));
+        Future<Object> name = testClass.createObject(param("name", "somename"))
+                .invokeMethod("getName", null);
+        assertEquals("shhh!", ((JSONObject)secret.get()).optString("data"));
+        assertEquals("transformed: somevalue",
+                ((JSONObject)transformed.get()).optString("data"));
+        assertEquals("somename", ((JSONObject)name.get()).optString("data"));
+    }
+
+    public void testBoundMethods() throws Exception {
+        MethodHandle getName = testClass.bindInstanceMethod("getName");
+        MethodHandle transform = adapter.bindStaticMethod("simple.transform");
+        for (int i = 0; i < 3; i++) {
+            Future<Object> name = testClass.createObject(
+                    param("name", "name" + i)).invokeMethod(getName, null);
+            Future<Object> transformed = transform.invoke(null,
+                    param("str", "value" + i));
+            assertEquals("name" + i,
+                    ((JSONObject)name.get()).optString("data"));
+            assertEquals("transformed: value" + i,
+                    ((JSONObject)transformed.get()).optString("data"));
+        }
+    }
+
+    public void testRetries() throws Exception {
+        String key = "retries" + System.currentTimeMillis();
+        addOutboxRoutes();
+        adapter.setRetryPolicy(new RetryPolicy(3, 100, 200));
+
+        // Fails twice, and succeeds on the second retry.
+        Future<Object> list = adapter.invokeStaticMethod("outbox.list",
+                outboxCall(key, null, 503, 2));
+        assertEquals(0, ((JSONObject)list.get()).getJSONArray("data")
+                .length());
+        assertEquals(2, adapter.getRetryCount());
+        assertEquals(2, getFailedCount(key));
+
+        // A POST isn't idempotent, so it fails, though it would succeed
+        // if it were sent again.
+        Future<Object> append = adapter.invokeStaticMethod("outbox.append",
+                outboxCall(key, "a", 503, 1));
+        try {
+            append.get();
+            fail("Not failed");
+        }
+        catch (ExecutionException e) {
+            assertEquals(503,
+                    ((HttpResponseException)e.getCause()).getStatusCode());
+        }
+        assertEquals(2, adapter.getRetryCount());
+        assertEquals(3, getFailedCount(key));
+    }
+
+    public void testCancelledRetries() throws Exception {
+        String key = "cancelledRetries" + System.currentTimeMillis();
+        addOutboxRoutes();
+        adapter.setRetryPolicy(new RetryPolicy(3, 2000, 2000));
+
+        Future<Object> list = adapter.invokeStaticMethod("outbox.list",
+                outboxCall(key, null, 503, -1));
+        // The first retry is counted once it is scheduled, after 1 to 2
+        // seconds.
+        long deadline = System.currentTimeMillis() + 10000;
+        while (adapter.getRetryCount() == 0 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, adapter.getRetryCount());
+        assertTrue(list.cancel(true));
+
+        Thread.sleep(2500);
+        assertEquals(1, adapter.getRetryCount());
+        assertEquals(1, getFailedCount(key));
+    }
+
+    private void addOutboxRoutes() {
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "POST"), "outbox.append");
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "GET"), "outbox.list");
+    }
+
+    /**
+     * Gets the parameters of a call to the outbox of the test server, which
+     * fails with the given status, always or the given number of times.
+     */
+    private static Map<String, Object> outboxCall(String key, String value,
+            int status, int failures) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("key", key);
+        if (value != null) {
+            params.put("value", value);
+        }
+        params.put("status", status);
+        if (failures >= 0) {
+            params.put("failures", failures);
+        }
+        return params;
+    }
+
+    /**
+     * Gets the number of calls to the outbox that the test server answered
+     * with an error.
+     */
+    private int getFailedCount(String key) throws Exception {
+        Future<Object> list = adapter.invokeStaticMethod("outbox.list",
+                param("key", key));
+        return ((JSONObject)list.get()).getInt("failed");
+    }
+
+    public void testCodec() throws Exception {
+        String key = "codec" + System.currentTimeMillis();
+        adapter.setCodec(new MessagePackCodec());
+        // Answered in MessagePack, but request bodies stay JSON, since the
+        // server may not read it.
+        assertTypes(sendCodecValue(key), "application/json");
+        assertTypes(sendCodecValue(key), "application/json",
+                "application/json");
+    }
+
+    public void testCodecRequests() throws Exception {
+        String key = "codecRequests" + System.currentTimeMillis();
+        adapter.setCodec(new MessagePackCodec(), true);
+        assertTypes(sendCodecValue(key), "application/json");
+        // Rejected in MessagePack, and sent again as JSON, as are those
+        // after it.
+        assertTypes(sendCodecValue(key), "application/json",
+                MessagePackCodec.CONTENT_TYPE, "application/json");
+        assertTypes(sendCodecValue(key), "application/json",
+                MessagePackCodec.CONTENT_TYPE, "application/json",
+                "application/json");
+    }
+
+    /**
+     * Posts a value to the test server, which answers with the media types
+     * of the request bodies it got under the key so far.
+     */
+    private JSONArray sendCodecValue(String key) throws Exception {
+        adapter.getContract().addItem(
+                new RestContractItem("/msgpack/:key", "POST"), "msgpack.send");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("key", key);
+        params.put("value", "a");
+        Future<Object> response = adapter.invokeStaticMethod("msgpack.send",
+                params);
+        return ((JSONObject)response.get()).getJSONArray("types");
+    }
+
+    private static void assertTypes(JSONArray types, String...expected)
+            throws Exception {
+        assertEquals(expected.length, types.length());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], types.getString(i));
+        }
+    }
+
+    public void testBatch() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                AtomicInteger pending = new AtomicInteger(3);
+                adapter.beginBatch();
+                adapter.invokeStaticMethod("simple.getSecret", null,
+                        expectJsonResponse(pending, "shhh!"));
+                adapter.invokeStaticMethod("simple.transform",
+                        param("str", "somevalue"),
+                        expectJsonResponse(pending,
+                                "transformed: somevalue"));
+                testClass.invokeStaticMethod("getFavoritePerson", null,
+                        expectJsonResponse(pending, "You"));
+                adapter.flushBatch();
+            }
+        });
+    }
+
+    public void testBatchOrder() throws Throwable {
+        adapter.getContract().addItem(
+                new RestContractItem("/outbox/:key", "POST"), "outbox.append");
+        final String key = "batch" + System.currentTimeMillis();
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                // Each call sees those before it in the batch.
+                AtomicInteger pending = new AtomicInteger(3);
+                String expected = "";
+                adapter.beginBatch();
+                for (String value : new String[] { "a", "b", "c" }) {
+                    Map<String, Object> params = new HashMap<String, Object>();
+                    params.put("key", key);
+                    params.put("value", value);
+                    expected += (expected.isEmpty() ? "" : ",") +
+                            "\"" + value + "\"";
+                    adapter.invokeStaticMethod("outbox.append", params,
+                            expectJsonResponse(pending,
+                                    "[" + expected + "]"));
+                }
+                adapter.flushBatch();
+            }
+        });
+    }
+
+    public void testCoalescedRequests() throws Throwable {
+        adapter.getContract().addItem(new RestContractItem(
+                "/contract/customizedGetSecret", "GET"), "contract.getSecret");
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                AtomicInteger pending = new AtomicInteger(3);
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        expectJsonResponse(pending, "shhh!"));
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        expectJsonResponse(pending, "shhh!"));
+                adapter.invokeStaticMethod("contract.getSecret", null,
+                        expectJsonResponse(pending, "shhh!"));
+            }
+        });
+        assertEquals(2, adapter.getCoalescedRequestCount());
+    }
+
+    public void testBatchWindow() throws Throwable {
+        adapter.setBatchWindow(50);
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                AtomicInteger pending = new AtomicInteger(2);
+                adapter.invokeStaticMethod("simple.getSecret", null,
+                        expectJsonResponse(pending, "shhh!"));
+                VirtualObject test = testClass.createObject(
+                        param("name", "somename"));
+                test.invokeMethod("getName", null,
+                        expectJsonResponse(pending, "somename"));
+            }
+        });
+    }
 }
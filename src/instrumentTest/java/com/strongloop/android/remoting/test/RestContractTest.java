@@ -1,5 +1,6 @@
 package com.strongloop.android.remoting.test;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,7 +11,9 @@ import com.strongloop.android.remoting.adapters.Adapter;
 import com.strongloop.android.remoting.adapters.RestAdapter;
 import com.strongloop.android.remoting.adapters.RestContract;
 import com.strongloop.android.remoting.adapters.RestContractItem;
+import com.strongloop.android.remoting.adapters.RetryPolicy;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class RestContractTest extends AsyncTestCase {
@@ -82,6 +85,28 @@ public class RestContractTest extends AsyncTestCase {
                 parent.getVerbForMethod("new.route"));
     }
 
+    public void testUrlPatternExpansion() {
+        RestContract contract = new RestContract();
+        contract.addItem(
+                new RestContractItem("/widgets/:id/parts/:idx", "GET"),
+                "widgets.part");
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("id", 57);
+        parameters.put("idx", 3);
+
+        assertEquals("Wrong URL", "/widgets/57/parts/3",
+                contract.getUrlForMethod("widgets.part", parameters));
+        assertEquals("Wrong URL", "/widgets/57/parts/3",
+                contract.getUrl("/widgets/:id/parts/:idx", parameters));
+        assertEquals("Wrong URL", "/widgets/57/parts/:idx",
+                contract.getUrlForMethod("widgets.part", param("id", 57)));
+        assertEquals("Wrong URL", "/widgets/:id/parts/:idx",
+                contract.getUrlForMethod("widgets.part", null));
+        assertEquals("Wrong URL", "/a:/b",
+                contract.getUrl("/a:/b", param("b", "x")));
+    }
+
     public void testGet() throws Throwable {
         doAsyncTest(new AsyncTest() {
 
@@ -222,4 +247,87 @@ public class RestContractTest extends AsyncTestCase {
             }
         });
     }
+
+    public void testIdempotentMethods() {
+        RestContract contract = new RestContract();
+        contract.addItem(new RestContractItem("/get", "GET"), "test.get");
+        contract.addItem(new RestContractItem("/put", "PUT"), "test.put");
+        contract.addItem(new RestContractItem("/post", "POST"), "test.post");
+        RestContractItem item = new RestContractItem("/find", "POST");
+        item.setIsIdempotent(true);
+        item.setRetryPolicy(RetryPolicy.NONE);
+        contract.addItem(item, "test.find");
+
+        assertTrue(contract.getIsIdempotentForMethod("test.get"));
+        assertTrue(contract.getIsIdempotentForMethod("test.put"));
+        assertFalse(contract.getIsIdempotentForMethod("test.post"));
+        assertTrue(contract.getIsIdempotentForMethod("test.find"));
+        assertFalse(contract.getIsIdempotentForMethod("test.unknown"));
+        assertNull(contract.getRetryPolicyForMethod("test.get"));
+        assertSame(RetryPolicy.NONE,
+                contract.getRetryPolicyForMethod("test.find"));
+    }
+
+    public void testAddItemsFromRoutes() throws Exception {
+        RestContract contract = new RestContract();
+        RestContractItem kept = new RestContractItem("/widgets", "GET");
+        kept.setRetryPolicy(RetryPolicy.NONE);
+        contract.addItem(kept, "widgets.find");
+        contract.addItemsFromRoutes(new JSONArray(
+                "[{\"method\": \"widgets.find\", \"path\": \"/widgets\"," +
+                "  \"verb\": \"get\"}," +
+                " {\"method\": \"widgets.prototype.remove\"," +
+                "  \"path\": \"/widgets/:id\", \"verb\": \"del\"}," +
+                " {\"method\": \"widgets.create\", \"path\": \"/widgets\"}]"));
+
+        assertSame(RetryPolicy.NONE,
+                contract.getRetryPolicyForMethod("widgets.find"));
+        assertEquals("DELETE",
+                contract.getVerbForMethod("widgets.prototype.remove"));
+        assertEquals("/widgets/7", contract.getUrlForMethod(
+                "widgets.prototype.remove", param("id", 7)));
+        assertEquals("POST", contract.getVerbForMethod("widgets.create"));
+    }
+
+    public void testDiscoverContract() throws Throwable {
+        final File cacheFile = new File(getActivity().getCacheDir(),
+                "contract-test.json");
+        cacheFile.delete();
+        final RestAdapter discovered = new RestAdapter(getActivity(),
+                "http://10.0.2.2:3001");
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                discovered.discoverContract(cacheFile, 60000,
+                        new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String version, Object...data) {
+                        discovered.invokeInstanceMethod(
+                                "ContractClass.prototype.greet",
+                                param("name", "somename"),
+                                param("other", "othername"),
+                                expectJsonResponse("Hi, othername!"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+        assertTrue(cacheFile.isFile());
+
+        // Loaded from the file, without asking the server.
+        RestAdapter warm = new RestAdapter(getActivity(),
+                "http://10.0.2.2:3001");
+        warm.discoverContract(cacheFile, 60000, null);
+        assertEquals("GET",
+                warm.getContract().getVerbForMethod("contract.getSecret"));
+        assertEquals("/contract/customizedGetSecret",
+                warm.getContract().getUrlForMethod("contract.getSecret", null));
+        cacheFile.delete();
+    }
 }
@@ -0,0 +1,19 @@
+package com.strongloop.android.remoting.test;
+
+import junit.framework.TestCase;
+
+import com.strongloop.android.remoting.adapters.RetryPolicy;
+
+public class RetryPolicyTest extends TestCase {
+
+    public void testRetryDelays() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+        for (int retry = 0; retry < 5; retry++) {
+            long max = Math.min(100 << retry, 1000);
+            long delay = policy.getDelay(retry);
+            assertTrue("delay " + delay, delay >= max / 2 && delay <= max);
+        }
+        assertFalse(policy.isRetryable(404));
+        assertTrue(policy.isRetryable(503));
+    }
+}
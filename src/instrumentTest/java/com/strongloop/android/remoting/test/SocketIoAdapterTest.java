@@ -0,0 +1,105 @@
+package com.strongloop.android.remoting.test;
+
+import static com.strongloop.android.remoting.test.RestAdapterTest.param;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.adapters.SocketIoAdapter;
+
+public class SocketIoAdapterTest extends AsyncTestCase {
+
+    private SocketIoAdapter adapter;
+    private Repository testClass;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // NOTE: "10.0.2.2" is the "localhost" of the Android emulator's
+        // host computer.
+        adapter = new SocketIoAdapter(getActivity(), "http://10.0.2.2:3001");
+        testClass = new Repository("SimpleClass");
+        testClass.setAdapter(adapter);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        adapter.connect(getActivity(), null);
+        super.tearDown();
+    }
+
+    public void testConnected() {
+        assertTrue(adapter.isConnected());
+    }
+
+    public void testGet() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("simple.getSecret", null,
+                        expectJsonResponse("shhh!"));
+            }
+        });
+    }
+
+    public void testTransform() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("simple.transform",
+                        param("str", "somevalue"),
+                        expectJsonResponse("transformed: somevalue"));
+            }
+        });
+    }
+
+    public void testPrototypeTransform() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                testClass.createObject(param("name", "somename"))
+                        .invokeMethod("greet", param("other", "othername"),
+                                expectJsonResponse("Hi, othername!"));
+            }
+        });
+    }
+
+    public void testPipelinedCalls() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                AtomicInteger pending = new AtomicInteger(3);
+                adapter.invokeStaticMethod("simple.getSecret", null,
+                        expectJsonResponse(pending, "shhh!"));
+                adapter.invokeStaticMethod("simple.transform",
+                        param("str", "somevalue"),
+                        expectJsonResponse(pending,
+                                "transformed: somevalue"));
+                adapter.invokeInstanceMethod("SimpleClass.prototype.getName",
+                        param("name", "somename"), null,
+                        expectJsonResponse(pending, "somename"));
+            }
+        });
+    }
+
+    public void testFuture() throws Exception {
+        List<Future<Object>> transformed = new ArrayList<Future<Object>>();
+        for (int i = 0; i < 20; i++) {
+            transformed.add(adapter.invokeStaticMethod("simple.transform",
+                    param("str", "value" + i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals("transformed: value" + i,
+                    ((JSONObject)transformed.get(i).get()).optString("data"));
+        }
+    }
+}
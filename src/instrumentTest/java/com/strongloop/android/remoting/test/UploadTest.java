@@ -0,0 +1,270 @@
+package com.strongloop.android.remoting.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.client.HttpResponseException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.PartialFile;
+import com.strongloop.android.remoting.adapters.RestAdapter;
+import com.strongloop.android.remoting.adapters.RestContractItem;
+
+public class UploadTest extends AsyncTestCase {
+
+    private static final int LENGTH = 2 * 1024 * 1024;
+
+    private RestAdapter adapter;
+    private File file;
+    private String sha1;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter = new RestAdapter(getActivity(), "http://10.0.2.2:3001");
+        // Each test uploads to its own key on the server.
+        String key = getName() + System.currentTimeMillis();
+        adapter.getContract().addItem(
+                new RestContractItem("/upload/" + key, "POST", true),
+                "upload.send");
+        adapter.getContract().addItem(
+                new RestContractItem("/upload/" + key, "GET"),
+                "upload.status");
+
+        byte[] data = new byte[LENGTH];
+        new Random(1).nextBytes(data);
+        file = new File(getActivity().getCacheDir(),
+                "upload r\u00e9sum\u00e9 \"1\".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        sha1 = toHex(MessageDigest.getInstance("SHA-1").digest(data));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testProgress() throws Throwable {
+        final List<Long> progress = new ArrayList<Long>();
+        final long[] total = new long[1];
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("upload.send",
+                        RestAdapterTest.param("file", file),
+                        new Adapter.ProgressCallback() {
+
+                    @Override
+                    public void onProgress(long bytesWritten,
+                            long totalBytes) {
+                        progress.add(bytesWritten);
+                        total[0] = totalBytes;
+                    }
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        try {
+                            JSONObject status = new JSONObject(response);
+                            assertEquals(LENGTH, status.getLong("offset"));
+                            assertEquals(sha1, status.getString("sha1"));
+                            notifyFinished();
+                        }
+                        catch (Throwable t) {
+                            notifyFailed(t);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+        assertTrue(progress.size() > 1);
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+        assertTrue(total[0] > LENGTH);
+        assertEquals(total[0], progress.get(progress.size() - 1).longValue());
+    }
+
+    public void testEncodedNames() throws Throwable {
+        final String name = "fi\"le\r\nX-Injected: 1";
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("upload.send",
+                        RestAdapterTest.param(name, file),
+                        new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        try {
+                            JSONObject status = new JSONObject(response);
+                            assertEquals(name, status.getString("name"));
+                            assertEquals(file.getName(),
+                                    status.getString("filename"));
+                            assertEquals(sha1, status.getString("sha1"));
+                            notifyFinished();
+                        }
+                        catch (Throwable t) {
+                            notifyFailed(t);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+    }
+
+    public void testCancelAndResume() throws Throwable {
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("upload.send",
+                        RestAdapterTest.param("file", file),
+                        new Adapter.ProgressCallback() {
+
+                    @Override
+                    public void onProgress(long bytesWritten,
+                            long totalBytes) {
+                        cancel();
+                    }
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        notifyFailed(new AssertionError("Not cancelled"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        if (t instanceof InterruptedIOException) {
+                            notifyFinished();
+                        }
+                        else {
+                            notifyFailed(t);
+                        }
+                    }
+                });
+            }
+        });
+
+        // The server keeps the bytes it received before the cancel, once
+        // it has read those still on the way.
+        Thread.sleep(500);
+        final long offset = getStatus().getLong("offset");
+        assertTrue(offset < LENGTH);
+
+        // An offset the server doesn't have is rejected.
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("upload.send",
+                        RestAdapterTest.param("file",
+                                new PartialFile(file, offset + 1)),
+                        new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        notifyFailed(new AssertionError("Not rejected"));
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        if (t instanceof HttpResponseException &&
+                                ((HttpResponseException)t)
+                                .getStatusCode() == 409) {
+                            notifyFinished();
+                        }
+                        else {
+                            notifyFailed(t);
+                        }
+                    }
+                });
+            }
+        });
+
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("upload.send",
+                        RestAdapterTest.param("file",
+                                new PartialFile(file, offset)),
+                        new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+        JSONObject status = getStatus();
+        assertEquals(LENGTH, status.getLong("offset"));
+        assertEquals(sha1, status.getString("sha1"));
+    }
+
+    private JSONObject getStatus() throws Throwable {
+        final String[] status = new String[1];
+        doAsyncTest(new AsyncTest() {
+
+            @Override
+            public void run() {
+                adapter.invokeStaticMethod("upload.status", null,
+                        new Adapter.Callback() {
+
+                    @Override
+                    public void onSuccess(String response, Object...data) {
+                        status[0] = response;
+                        notifyFinished();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        notifyFailed(t);
+                    }
+                });
+            }
+        });
+        try {
+            return new JSONObject(status[0]);
+        }
+        catch (JSONException e) {
+            throw new AssertionError(e.toString());
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,337 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+/**
+ * Reads JSON directly into Java objects, without building an intermediate
+ * {@link org.json.JSONObject} tree or {@link java.util.Map}.
+ * <p>
+ * Supported target types are primitives and their wrappers (a
+ * <code>char</code> is read from a one-character string), String, enums,
+ * arrays, {@link java.util.Collection}s, {@link java.util.Map}s with String
+ * keys, <code>Object</code> (read with {@link JsonUtil#fromJson(JsonReader)})
+ * and plain classes with a no-argument constructor. JSON object keys are
+ * matched to the non-static, non-transient fields of the same name; unknown
+ * keys are skipped. The fields of each class are looked up only once.
+ */
+public class JsonBinder {
+
+    private static final Map<Class<?>, ClassBinding> bindings =
+            new ConcurrentHashMap<Class<?>, ClassBinding>();
+
+    /**
+     * Reads the next value from a {@link android.util.JsonReader} as an
+     * instance of <code>type</code>.
+     * @param reader The reader to read from.
+     * @param type The class to read.
+     * @return the value read, or <code>null</code> for a JSON null.
+     * @throws IOException If the value cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fromJson(JsonReader reader, Class<T> type)
+            throws IOException {
+        return (T)fromJson(reader, (Type)type);
+    }
+
+    /**
+     * Reads the next value from a {@link android.util.JsonReader} as an
+     * instance of <code>type</code>, which may be a parameterized type like
+     * <code>List&lt;Widget&gt;</code>.
+     * @param reader The reader to read from.
+     * @param type The type to read.
+     * @return the value read, or <code>null</code> for a JSON null.
+     * @throws IOException If the value cannot be read.
+     */
+    public static Object fromJson(JsonReader reader, Type type)
+            throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        Class<?> raw = getRawType(type);
+        if (raw == Object.class) {
+            return JsonUtil.fromJson(reader);
+        }
+        else if (raw == String.class) {
+            return reader.nextString();
+        }
+        else if (raw == Integer.class || raw == int.class) {
+            return reader.nextInt();
+        }
+        else if (raw == Long.class || raw == long.class) {
+            return reader.nextLong();
+        }
+        else if (raw == Double.class || raw == double.class) {
+            return reader.nextDouble();
+        }
+        else if (raw == Float.class || raw == float.class) {
+            return (float)reader.nextDouble();
+        }
+        else if (raw == Short.class || raw == short.class) {
+            return (short)reader.nextInt();
+        }
+        else if (raw == Byte.class || raw == byte.class) {
+            return (byte)reader.nextInt();
+        }
+        else if (raw == Boolean.class || raw == boolean.class) {
+            return reader.nextBoolean();
+        }
+        else if (raw == Character.class || raw == char.class) {
+            return nextChar(reader);
+        }
+        else if (raw == Number.class) {
+            return JsonUtil.parseNumber(reader.nextString());
+        }
+        else if (raw.isEnum()) {
+            return toEnum(raw, reader.nextString());
+        }
+        else if (raw.isArray()) {
+            Type componentType = (type instanceof GenericArrayType)
+                    ? ((GenericArrayType)type).getGenericComponentType()
+                    : raw.getComponentType();
+            List<Object> list = new ArrayList<Object>();
+            readCollection(reader, componentType, list);
+            Object array = Array.newInstance(getRawType(componentType),
+                    list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, list.get(i));
+            }
+            return array;
+        }
+        else if (Collection.class.isAssignableFrom(raw)) {
+            @SuppressWarnings("unchecked")
+            Collection<Object> collection = (Collection<Object>)
+                    newInstance(raw, ArrayList.class);
+            readCollection(reader, getTypeArgument(type, 0), collection);
+            return collection;
+        }
+        else if (Map.class.isAssignableFrom(raw)) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>)
+                    newInstance(raw, HashMap.class);
+            Type valueType = getTypeArgument(type, 1);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                map.put(reader.nextName(), fromJson(reader, valueType));
+            }
+            reader.endObject();
+            return map;
+        }
+        else {
+            return getBinding(raw).read(reader);
+        }
+    }
+
+    private static char nextChar(JsonReader reader) throws IOException {
+        String value = reader.nextString();
+        if (value.length() != 1) {
+            throw new IllegalStateException(
+                    "Expected a single character but was \"" + value + "\"");
+        }
+        return value.charAt(0);
+    }
+
+    private static void readCollection(JsonReader reader, Type elementType,
+            Collection<Object> collection) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            collection.add(fromJson(reader, elementType));
+        }
+        reader.endArray();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object toEnum(Class<?> type, String name) {
+        return Enum.valueOf((Class<? extends Enum>)type, name);
+    }
+
+    private static Object newInstance(Class<?> type, Class<?> defaultType) {
+        if (type.isInterface() ||
+                Modifier.isAbstract(type.getModifiers())) {
+            type = defaultType;
+        }
+        try {
+            return type.newInstance();
+        }
+        catch (Exception e) {
+            throw new IllegalArgumentException(
+                    "Cannot create an instance of " + type, e);
+        }
+    }
+
+    private static Class<?> getRawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>)type;
+        }
+        else if (type instanceof ParameterizedType) {
+            return (Class<?>)((ParameterizedType)type).getRawType();
+        }
+        else if (type instanceof GenericArrayType) {
+            Type componentType =
+                    ((GenericArrayType)type).getGenericComponentType();
+            return Array.newInstance(getRawType(componentType), 0)
+                    .getClass();
+        }
+        else if (type instanceof WildcardType) {
+            return getRawType(((WildcardType)type).getUpperBounds()[0]);
+        }
+        else {
+            // Type variables cannot be resolved, fall back to collections.
+            return Object.class;
+        }
+    }
+
+    private static Type getTypeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments =
+                    ((ParameterizedType)type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static ClassBinding getBinding(Class<?> type) {
+        ClassBinding binding = bindings.get(type);
+        if (binding == null) {
+            binding = new ClassBinding(type);
+            bindings.put(type, binding);
+        }
+        return binding;
+    }
+
+    /**
+     * The constructor and fields of a single class.
+     */
+    private static class ClassBinding {
+
+        private final Constructor<?> constructor;
+        private final Map<String, FieldBinding> fields =
+                new HashMap<String, FieldBinding>();
+
+        public ClassBinding(Class<?> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            }
+            catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(
+                        "Cannot bind JSON to " + type +
+                        ", no default constructor", e);
+            }
+
+            // Walk up the hierarchy, fields of subclasses take precedence.
+            for (Class<?> c = type; c != null && c != Object.class;
+                    c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) ||
+                            Modifier.isTransient(modifiers) ||
+                            field.isSynthetic() ||
+                            fields.containsKey(field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.put(field.getName(), new FieldBinding(field));
+                }
+            }
+        }
+
+        public Object read(JsonReader reader) throws IOException {
+            Object instance;
+            try {
+                instance = constructor.newInstance();
+            }
+            catch (Exception e) {
+                throw new IllegalArgumentException(
+                        "Cannot create an instance of " +
+                        constructor.getDeclaringClass(), e);
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                FieldBinding field = fields.get(reader.nextName());
+                if (field != null) {
+                    field.read(reader, instance);
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return instance;
+        }
+    }
+
+    /**
+     * A single field. Primitive fields are set without boxing.
+     */
+    private static class FieldBinding {
+
+        private final Field field;
+        private final Type type;
+
+        public FieldBinding(Field field) {
+            this.field = field;
+            this.type = field.getGenericType();
+        }
+
+        public void read(JsonReader reader, Object instance)
+                throws IOException {
+            try {
+                if (type instanceof Class && ((Class<?>)type).isPrimitive()) {
+                    if (reader.peek() == JsonToken.NULL) {
+                        // Keep the default value.
+                        reader.nextNull();
+                    }
+                    else if (type == int.class) {
+                        field.setInt(instance, reader.nextInt());
+                    }
+                    else if (type == long.class) {
+                        field.setLong(instance, reader.nextLong());
+                    }
+                    else if (type == double.class) {
+                        field.setDouble(instance, reader.nextDouble());
+                    }
+                    else if (type == boolean.class) {
+                        field.setBoolean(instance, reader.nextBoolean());
+                    }
+                    else if (type == char.class) {
+                        field.setChar(instance, nextChar(reader));
+                    }
+                    else {
+                        field.set(instance, fromJson(reader, type));
+                    }
+                }
+                else {
+                    field.set(instance, fromJson(reader, type));
+                }
+            }
+            catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(
+                        "Cannot set field " + field, e);
+            }
+        }
+    }
+}
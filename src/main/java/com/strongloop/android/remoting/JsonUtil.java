@@ -2,6 +2,8 @@
 
 package com.strongloop.android.remoting;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -13,6 +15,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.util.JsonReader;
+
 /**
  * Utility methods for converting JSON objects to Java collection objects
  * (and vice versa).
@@ -76,6 +80,28 @@ public class JsonUtil {
         }
     }
 
+    /**
+     * Writes a Java object as UTF-8 encoded JSON, converting it like
+     * {@link #toJson(Object)} does, but without building an intermediate
+     * {@link org.json.JSONObject} tree or String. <code>int[]</code>,
+     * <code>long[]</code>, <code>double[]</code> and <code>byte[]</code> are
+     * written without boxing their elements, so that large arrays can be
+     * sent without creating garbage for each element.
+     * <p>
+     * The stream is flushed but not closed.
+     * @param object The object to write.
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written to.
+     * @throws IllegalArgumentException If the object contains a number that
+     * is infinite or NaN.
+     */
+    public static void toJson(Object object, OutputStream out)
+            throws IOException {
+        Utf8JsonWriter writer = new Utf8JsonWriter(out);
+        writer.writeValue(object);
+        writer.flush();
+    }
+
     /**
      * Converts a {@link org.json.JSONObject} to a {@link java.util.Map}.
      * @param object The JSON object to convert.
@@ -130,4 +156,367 @@ public class JsonUtil {
             return json;
         }
     }
+
+    /**
+     * Reads the next value from a {@link android.util.JsonReader}, without
+     * building an intermediate {@link org.json.JSONObject} tree. Objects and
+     * arrays are returned as the same {@link java.util.Map} and
+     * {@link java.util.List} types as {@link #fromJson(JSONObject)} and
+     * {@link #fromJson(JSONArray)}, and <code>null</code> as
+     * <code>null</code>.
+     * @param reader The reader to read from.
+     * @return the value read.
+     * @throws IOException If the value cannot be read.
+     */
+    public static Object fromJson(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> map = new HashMap<String, Object>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    map.put(reader.nextName(), fromJson(reader));
+                }
+                reader.endObject();
+                return map;
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<Object>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    list.add(fromJson(reader));
+                }
+                reader.endArray();
+                return list;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                throw new IOException("Unexpected JSON token: " +
+                        reader.peek());
+        }
+    }
+
+    /**
+     * Converts a JSON number literal to the narrowest of Integer, Long and
+     * Double, just like {@link org.json.JSONTokener} does.
+     */
+    static Number parseNumber(String literal) {
+        if (literal.indexOf('.') < 0 &&
+                literal.indexOf('e') < 0 &&
+                literal.indexOf('E') < 0) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int)value;
+                }
+                return value;
+            }
+            catch (NumberFormatException e) {
+                // Too large for a long, fall through.
+            }
+        }
+        return Double.valueOf(literal);
+    }
+
+    /**
+     * Writes JSON values to a stream through a single byte buffer, encoding
+     * strings to UTF-8 and formatting integers in place.
+     */
+    private static final class Utf8JsonWriter {
+
+        private static final byte[] HEX = "0123456789abcdef".getBytes();
+        private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+        private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+        private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+
+        public Utf8JsonWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        public void writeValue(Object object) throws IOException {
+            if (object == null || object == JSONObject.NULL) {
+                write(NULL);
+            }
+            else if (object instanceof String) {
+                writeString((String)object);
+            }
+            else if (object instanceof Number) {
+                writeNumber((Number)object);
+            }
+            else if (object instanceof Boolean) {
+                write((Boolean)object ? TRUE : FALSE);
+            }
+            else if (object instanceof Map) {
+                write('{');
+                boolean first = true;
+                for (Map.Entry<?,?> entry : ((Map<?,?>)object).entrySet()) {
+                    if (!first) {
+                        write(',');
+                    }
+                    first = false;
+                    writeString(String.valueOf(entry.getKey()));
+                    write(':');
+                    writeValue(entry.getValue());
+                }
+                write('}');
+            }
+            else if (object instanceof Iterable) {
+                write('[');
+                boolean first = true;
+                for (Object value : (Iterable<?>)object) {
+                    if (!first) {
+                        write(',');
+                    }
+                    first = false;
+                    writeValue(value);
+                }
+                write(']');
+            }
+            else if (object instanceof int[]) {
+                int[] array = (int[])object;
+                write('[');
+                for (int i = 0; i < array.length; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    writeLong(array[i]);
+                }
+                write(']');
+            }
+            else if (object instanceof long[]) {
+                long[] array = (long[])object;
+                write('[');
+                for (int i = 0; i < array.length; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    writeLong(array[i]);
+                }
+                write(']');
+            }
+            else if (object instanceof double[]) {
+                double[] array = (double[])object;
+                write('[');
+                for (int i = 0; i < array.length; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    writeDouble(array[i]);
+                }
+                write(']');
+            }
+            else if (object instanceof byte[]) {
+                byte[] array = (byte[])object;
+                write('[');
+                for (int i = 0; i < array.length; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    writeLong(array[i]);
+                }
+                write(']');
+            }
+            else if (object.getClass().isArray()) {
+                write('[');
+                int length = Array.getLength(object);
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        write(',');
+                    }
+                    writeValue(Array.get(object, i));
+                }
+                write(']');
+            }
+            else if (object instanceof JSONObject ||
+                    object instanceof JSONArray) {
+                writeRaw(object.toString());
+            }
+            else {
+                writeString(object.toString());
+            }
+        }
+
+        private void writeNumber(Number number) throws IOException {
+            if (number instanceof Integer || number instanceof Long ||
+                    number instanceof Short || number instanceof Byte) {
+                writeLong(number.longValue());
+                return;
+            }
+            double d = number.doubleValue();
+            checkDouble(d);
+            // Like org.json, integral values are written without a fraction.
+            long l = number.longValue();
+            if (d == l && (l != 0 || 1 / d > 0)) {
+                writeLong(l);
+            }
+            else {
+                writeRaw(number.toString());
+            }
+        }
+
+        private void writeDouble(double d) throws IOException {
+            checkDouble(d);
+            long l = (long)d;
+            if (d == l && (l != 0 || 1 / d > 0)) {
+                writeLong(l);
+            }
+            else {
+                writeRaw(Double.toString(d));
+            }
+        }
+
+        private static void checkDouble(double d) {
+            if (Double.isInfinite(d) || Double.isNaN(d)) {
+                throw new IllegalArgumentException(
+                        "Numbers cannot be infinite or NaN.");
+            }
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                writeRaw("-9223372036854775808");
+                return;
+            }
+            // At most 20 bytes: a sign and 19 digits.
+            if (buffer.length - count < 20) {
+                flushBuffer();
+            }
+            if (value < 0) {
+                buffer[count++] = '-';
+                value = -value;
+            }
+            int start = count;
+            do {
+                buffer[count++] = (byte)('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            // The digits were written in reverse.
+            for (int i = start, j = count - 1; i < j; i++, j--) {
+                byte b = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = b;
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            write('"');
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                // At most 6 bytes per char: an escape sequence.
+                if (buffer.length - count < 6) {
+                    flushBuffer();
+                }
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = (byte)c;
+                }
+                else if (c >= 0x20 && c < 0x80) {
+                    buffer[count++] = (byte)c;
+                }
+                else if (c == '\n') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 'n';
+                }
+                else if (c == '\r') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 'r';
+                }
+                else if (c == '\t') {
+                    buffer[count++] = '\\';
+                    buffer[count++] = 't';
+                }
+                else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                    // Line separators are valid JSON, but not JavaScript.
+                    buffer[count++] = '\\';
+                    buffer[count++] = 'u';
+                    buffer[count++] = HEX[c >> 12];
+                    buffer[count++] = HEX[(c >> 8) & 0xf];
+                    buffer[count++] = HEX[(c >> 4) & 0xf];
+                    buffer[count++] = HEX[c & 0xf];
+                }
+                else if (c < 0x800) {
+                    buffer[count++] = (byte)(0xc0 | (c >> 6));
+                    buffer[count++] = (byte)(0x80 | (c & 0x3f));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < length &&
+                        Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    buffer[count++] = (byte)(0xf0 | (codePoint >> 18));
+                    buffer[count++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[count++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[count++] = (byte)(0x80 | (codePoint & 0x3f));
+                }
+                else if (c >= Character.MIN_SURROGATE &&
+                        c <= Character.MAX_SURROGATE) {
+                    // Unpaired, replaced just like String.getBytes() does.
+                    buffer[count++] = '?';
+                }
+                else {
+                    buffer[count++] = (byte)(0xe0 | (c >> 12));
+                    buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buffer[count++] = (byte)(0x80 | (c & 0x3f));
+                }
+            }
+            write('"');
+        }
+
+        /**
+         * Writes a string that is already JSON, e.g. a formatted number.
+         */
+        private void writeRaw(String s) throws IOException {
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    write(c);
+                }
+                else {
+                    byte[] bytes = s.substring(i).getBytes("UTF-8");
+                    write(bytes);
+                    return;
+                }
+            }
+        }
+
+        private void write(char c) throws IOException {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte)c;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            if (buffer.length - count < bytes.length) {
+                flushBuffer();
+                if (bytes.length > buffer.length) {
+                    out.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+    }
 }
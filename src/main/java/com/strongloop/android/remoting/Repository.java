@@ -3,8 +3,11 @@
 package com.strongloop.android.remoting;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.EventStream;
+import com.strongloop.android.remoting.adapters.MethodHandle;
 
 /**
  * A local representative of remote model repository, it provides
@@ -85,4 +88,92 @@ public class Repository {
         String path = className + "." + method;
         adapter.invokeStaticMethod(path, parameters, callback);
     }
+
+    /**
+     * Invokes a remotable method exposed statically within this class on the
+     * server, and returns the pending result rather than calling back.
+     * @see Adapter#invokeStaticMethod(String, Map)
+     * @param method The method to invoke (without the class name), e.g.
+     * <code>"doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @return the future result.
+     */
+    public Future<Object> invokeStaticMethod(String method,
+            Map<String, ? extends Object> parameters) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        String path = className + "." + method;
+        return adapter.invokeStaticMethod(path, parameters);
+    }
+
+    /**
+     * Binds a remotable method exposed statically within this class on the
+     * server, to invoke it repeatedly through the adapter set now, e.g.
+     * <code>handle.invoke(null, parameters, callback)</code>.
+     * @see Adapter#bindStaticMethod(String)
+     * @param method The method to bind (without the class name), e.g.
+     * <code>"doSomething"</code>.
+     * @return the handle to invoke the method with.
+     */
+    public MethodHandle bindStaticMethod(String method) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        return adapter.bindStaticMethod(className + "." + method);
+    }
+
+    /**
+     * Binds a remotable method exposed within instances of this class on
+     * the server, to invoke it repeatedly through the adapter set now, see
+     * {@link VirtualObject#invokeMethod(MethodHandle, Map, Adapter.Callback)}.
+     * @see Adapter#bindInstanceMethod(String)
+     * @param method The method to bind (without the class name), e.g.
+     * <code>"doSomething"</code>.
+     * @return the handle to invoke the method with.
+     */
+    public MethodHandle bindInstanceMethod(String method) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        return adapter.bindInstanceMethod(className + ".prototype." + method);
+    }
+
+    /**
+     * Subscribes to the events the server pushes for a method exposed
+     * statically within this class, instead of polling it.
+     * @see Adapter#subscribe(String, Map, String, EventStream.Listener)
+     * @param method The method that streams the events (without the class
+     * name), e.g. <code>"changes"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param listener The listener to deliver the events to.
+     * @return the stream, to close once the events are no longer needed.
+     */
+    public EventStream subscribe(String method,
+            Map<String, ? extends Object> parameters,
+            EventStream.Listener listener) {
+        return subscribe(method, parameters, null, listener);
+    }
+
+    /**
+     * Subscribes to the events the server pushes for a method exposed
+     * statically within this class, resuming after the given event.
+     * @see Adapter#subscribe(String, Map, String, EventStream.Listener)
+     * @param method The method that streams the events (without the class
+     * name), e.g. <code>"changes"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param lastEventId The id of the last event already received, or
+     * <code>null</code>.
+     * @param listener The listener to deliver the events to.
+     * @return the stream, to close once the events are no longer needed.
+     */
+    public EventStream subscribe(String method,
+            Map<String, ? extends Object> parameters, String lastEventId,
+            EventStream.Listener listener) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("No adapter set");
+        }
+        String path = className + "." + method;
+        return adapter.subscribe(path, parameters, lastEventId, listener);
+    }
 }
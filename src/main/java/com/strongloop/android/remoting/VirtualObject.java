@@ -3,8 +3,10 @@
 package com.strongloop.android.remoting;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.MethodHandle;
 
 /**
  * A local representative of a single virtual object. The behavior of this
@@ -80,4 +82,51 @@ public class VirtualObject {
         adapter.invokeInstanceMethod(path, creationParameters, parameters,
         		callback);
     }
+
+    /**
+     * Invokes a remotable method exposed within instances of this class on the
+     * server, and returns the pending result rather than calling back.
+     * @see Adapter#invokeInstanceMethod(String, Map, Map)
+     * @param method The method to invoke (without the repository), e.g.
+     * <code>"doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @return the future result.
+     */
+    public Future<Object> invokeMethod(String method,
+            Map<String, ? extends Object> parameters) {
+        Adapter adapter = repository.getAdapter();
+        if (adapter == null) {
+            throw new IllegalArgumentException(
+                    "Repository adapter cannot be null");
+        }
+        String path = repository.getClassName() + ".prototype." + method;
+        return adapter.invokeInstanceMethod(path, creationParameters,
+                parameters);
+    }
+
+    /**
+     * Invokes a remotable method exposed within instances of this class on the
+     * server, bound with {@link Repository#bindInstanceMethod(String)}.
+     * @param method The bound method.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     */
+    public void invokeMethod(MethodHandle method,
+            Map<String, ? extends Object> parameters,
+            Adapter.Callback callback) {
+        method.invoke(creationParameters, parameters, callback);
+    }
+
+    /**
+     * Invokes a remotable method exposed within instances of this class on the
+     * server, bound with {@link Repository#bindInstanceMethod(String)}, and
+     * returns the pending result rather than calling back.
+     * @param method The bound method.
+     * @param parameters The parameters to invoke with.
+     * @return the future result.
+     */
+    public Future<Object> invokeMethod(MethodHandle method,
+            Map<String, ? extends Object> parameters) {
+        return method.invoke(creationParameters, parameters);
+    }
 }
@@ -2,7 +2,19 @@
 
 package com.strongloop.android.remoting.adapters;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -10,6 +22,11 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.strongloop.android.remoting.JsonBinder;
+import com.strongloop.android.remoting.JsonUtil;
 
 /**
  * The entry point to all networking accomplished with LoopBack. Adapters
@@ -40,6 +57,9 @@ public abstract class Adapter {
     /**
      * A callback that parses a JSON response. If the return value
      * is not valid JSON, then the {@link #onError(Throwable)} method is called.
+     * <p>
+     * Adapters may parse the response on a background thread, and only
+     * invoke {@link #onSuccess(Object)} on the callback thread.
      */
     public abstract static class JsonCallback implements Callback {
 
@@ -54,17 +74,22 @@ public abstract class Adapter {
 
         @Override
         public void onSuccess(String response, Object...data) {
-        	if (response == null) {
-        		onError(new JSONException("Invalid null response"));
-        	}
-        	else {
-	            try {
-	            	onSuccess(new JSONTokener(response).nextValue());
-		        }
-		        catch (JSONException e) {
-		            onError(e);
-		        }
-        	}
+            try {
+                onSuccess(parse(response));
+            }
+            catch (JSONException e) {
+                onError(e);
+            }
+        }
+
+        /**
+         * Parses the response passed to {@link #onSuccess(Object)}.
+         */
+        Object parse(String response) throws JSONException {
+            if (response == null) {
+                throw new JSONException("Invalid null response");
+            }
+            return new JSONTokener(response).nextValue();
         }
     }
 
@@ -128,6 +153,389 @@ public abstract class Adapter {
         }
     }
 
+    /**
+     * A callback that reads the HTTP response body as a stream, instead of
+     * receiving it as a String. Adapters that support streaming call
+     * {@link #onResponse(InputStream, String)}, others fall back to
+     * {@link #onSuccess(String, Object...)}.
+     */
+    public interface StreamingCallback extends Callback {
+
+        /**
+         * The method invoked when the call completes successfully. It is
+         * invoked on the background thread that received the response,
+         * before the body has been read.
+         * @param body The HTTP response body. It is closed by the adapter
+         * when this method returns.
+         * @param charset The charset of the body.
+         * @throws IOException If the body cannot be read. The exception is
+         * passed on to {@link #onError(Throwable)}.
+         */
+        public void onResponse(InputStream body, String charset)
+                throws IOException;
+    }
+
+    /**
+     * A callback that parses a JSON array response one element at a time,
+     * so that the whole response never has to be held in memory. When the
+     * adapter supports streaming, {@link #onElement(Object)} is invoked on
+     * the background thread that reads the response, while
+     * {@link #onSuccess(int)} and {@link #onError(Throwable)} are invoked
+     * on the same thread as the callbacks of other calls.
+     * <p>
+     * Elements are converted the same way as
+     * {@link JsonUtil#fromJson(JsonReader)} does. If the response is not a
+     * JSON array or "null", then the {@link #onError(Throwable)} method is
+     * called.
+     */
+    public abstract static class JsonArrayStreamCallback
+            implements StreamingCallback {
+
+        /**
+         * The method invoked for each element of the response array, as
+         * soon as it has been parsed.
+         * @param element The element, a {@link java.util.Map},
+         * {@link java.util.List}, String, Number, Boolean or
+         * <code>null</code>.
+         */
+        public abstract void onElement(Object element);
+
+        /**
+         * The method invoked after the last element has been parsed.
+         * @param count The number of elements, 0 if the response is "null".
+         */
+        public abstract void onSuccess(int count);
+
+        @Override
+        public void onResponse(InputStream body, String charset)
+                throws IOException {
+            read(new InputStreamReader(body, charset));
+        }
+
+        @Override
+        public void onSuccess(String response, Object...data) {
+            if (response == null) {
+                onError(new JSONException("Invalid null response"));
+                return;
+            }
+            try {
+                read(new StringReader(response));
+            }
+            catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        private void read(Reader in) throws IOException {
+            int count;
+            try {
+                count = parse(in);
+            }
+            catch (JSONException e) {
+                onError(e);
+                return;
+            }
+            onSuccess(count);
+        }
+
+        /**
+         * Parses the response, passing each element to
+         * {@link #onElement(Object)}.
+         * @return the count to pass to {@link #onSuccess(int)}.
+         */
+        int parse(Reader in) throws IOException, JSONException {
+            JsonReader reader = newJsonReader(in);
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return 0;
+            }
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new JSONException(
+                        "Expecting a JSON array: " + reader.peek());
+            }
+            int count = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                onElement(JsonUtil.fromJson(reader));
+                count++;
+            }
+            reader.endArray();
+            return count;
+        }
+    }
+
+    /**
+     * A callback that reads the response directly into an instance of
+     * <code>T</code>, see {@link JsonBinder} for the supported types. When
+     * the adapter supports streaming, the response is read on the
+     * background thread that receives it, and only {@link #onSuccess(Object)}
+     * and {@link #onError(Throwable)} are invoked on the same thread as the
+     * callbacks of other calls.
+     * <p>
+     * Parameterized types can be captured with an anonymous subclass:
+     * <pre>
+     * {@code
+     * new TypedCallback<List<Widget>>() { ... }
+     * }
+     * </pre>
+     */
+    public abstract static class TypedCallback<T>
+            implements StreamingCallback {
+
+        private final Type type;
+
+        /**
+         * Creates a callback for the type argument of the subclass.
+         */
+        protected TypedCallback() {
+            Type superclass = getClass().getGenericSuperclass();
+            if (!(superclass instanceof ParameterizedType)) {
+                throw new IllegalStateException(
+                        "Missing type argument, use TypedCallback(Class)");
+            }
+            this.type =
+                    ((ParameterizedType)superclass).getActualTypeArguments()[0];
+        }
+
+        /**
+         * Creates a callback for the given class.
+         * @param type The class to read the response into.
+         */
+        public TypedCallback(Class<T> type) {
+            if (type == null) {
+                throw new IllegalArgumentException("Type cannot be null");
+            }
+            this.type = type;
+        }
+
+        /**
+         * The method invoked when the call completes successfully.
+         * @param response The response, or <code>null</code> if the
+         * response is "null".
+         */
+        public abstract void onSuccess(T response);
+
+        @Override
+        public void onResponse(InputStream body, String charset)
+                throws IOException {
+            deliver(parse(new InputStreamReader(body, charset)));
+        }
+
+        @Override
+        public void onSuccess(String response, Object...data) {
+            if (response == null) {
+                onError(new JSONException("Invalid null response"));
+                return;
+            }
+            try {
+                deliver(parse(new StringReader(response)));
+            }
+            catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        /**
+         * Reads the response passed to {@link #deliver(Object)}.
+         */
+        Object parse(Reader in) throws IOException {
+            return JsonBinder.fromJson(newJsonReader(in), type);
+        }
+
+        /**
+         * Passes a response read by {@link #parse(Reader)} to
+         * {@link #onSuccess(Object)}.
+         */
+        @SuppressWarnings("unchecked")
+        void deliver(Object response) {
+            onSuccess((T)response);
+        }
+    }
+
+    /**
+     * A callback that is notified of the progress of a multipart upload or
+     * a download, and can cancel it. Adapters that don't support progress only call
+     * {@link #onSuccess(String, Object...)} and
+     * {@link #onError(Throwable)}.
+     */
+    public abstract static class ProgressCallback implements Callback {
+
+        private volatile boolean cancelled;
+
+        /**
+         * The method invoked as the request body is sent, on the same
+         * thread as {@link #onSuccess(String, Object...)}.
+         * @param bytesWritten The number of bytes sent so far.
+         * @param totalBytes The size of the request body, or -1 if it is
+         * not known in advance.
+         */
+        public abstract void onProgress(long bytesWritten, long totalBytes);
+
+        /**
+         * Cancels the transfer. {@link #onError(Throwable)} is invoked with
+         * an {@link java.io.InterruptedIOException}, unless the transfer
+         * has already completed.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Gets whether {@link #cancel()} was called.
+         * @return <code>true</code> if the transfer was cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * A callback that writes the response body to a file or a channel as
+     * it is received, so that downloads of any size use a fixed amount of
+     * memory. The content type of the response is not checked.
+     * <p>
+     * A download to a file can be resumed: if the file already exists, only
+     * the missing bytes are requested with a <code>Range</code> header. If
+     * the server ignores the header, the file is overwritten.
+     * <p>
+     * {@link #onProgress(long, long)}, {@link #onSuccess(long)} and
+     * {@link #onError(Throwable)} are invoked on the thread that made the
+     * request if it has a {@link android.os.Looper}. Adapters that don't
+     * support downloads deliver the response as a String, which is written
+     * out the same way.
+     */
+    public abstract static class DownloadCallback extends ProgressCallback {
+
+        private final File file;
+        private final boolean resume;
+        private final WritableByteChannel channel;
+
+        /**
+         * Creates a callback that downloads to a file, resuming an earlier
+         * download if the file exists.
+         * @param file The file to write to.
+         */
+        public DownloadCallback(File file) {
+            this(file, true);
+        }
+
+        /**
+         * Creates a callback that downloads to a file.
+         * @param file The file to write to.
+         * @param resume Whether to resume an earlier download if the file
+         * exists, rather than to overwrite it.
+         */
+        public DownloadCallback(File file, boolean resume) {
+            if (file == null) {
+                throw new IllegalArgumentException("File cannot be null");
+            }
+            this.file = file;
+            this.resume = resume;
+            this.channel = null;
+        }
+
+        /**
+         * Creates a callback that downloads to a channel, which is not
+         * closed.
+         * @param channel The channel to write to.
+         */
+        public DownloadCallback(WritableByteChannel channel) {
+            if (channel == null) {
+                throw new IllegalArgumentException("Channel cannot be null");
+            }
+            this.file = null;
+            this.resume = false;
+            this.channel = channel;
+        }
+
+        /**
+         * The method invoked when the download completes successfully.
+         * @param length The length of the downloaded content, including
+         * the bytes of a resumed download that were already there.
+         */
+        public abstract void onSuccess(long length);
+
+        /**
+         * The method invoked as the response body is received.
+         * @param bytesWritten The length of the content so far, including
+         * the bytes of a resumed download that were already there.
+         * @param totalBytes The length of the whole content, or -1 if it
+         * is not known.
+         */
+        @Override
+        public abstract void onProgress(long bytesWritten, long totalBytes);
+
+        @Override
+        public void onSuccess(String response, Object...data) {
+            if (data.length == 1 && data[0] instanceof Long) {
+                onSuccess(((Long)data[0]).longValue());
+                return;
+            }
+            try {
+                byte[] bytes = response != null
+                        ? response.getBytes("UTF-8") : new byte[0];
+                WritableByteChannel out = open(false);
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                finally {
+                    close(out);
+                }
+                onSuccess((long)bytes.length);
+            }
+            catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        /**
+         * Gets the number of bytes already downloaded by an earlier,
+         * interrupted download.
+         */
+        long getResumeOffset() {
+            return resume && file.isFile() ? file.length() : 0;
+        }
+
+        /**
+         * Opens the file or returns the channel to write to.
+         * @param append Whether to append to the file, as when resuming.
+         */
+        WritableByteChannel open(boolean append) throws IOException {
+            if (channel != null) {
+                return channel;
+            }
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            return new FileOutputStream(file, append).getChannel();
+        }
+
+        /**
+         * Closes a channel returned by {@link #open(boolean)}, unless it
+         * belongs to the caller.
+         */
+        void close(WritableByteChannel out) throws IOException {
+            if (out != channel) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a {@link android.util.JsonReader} that, like
+     * {@link org.json.JSONTokener}, accepts any value at the top level of
+     * the response, not only objects and arrays.
+     */
+    private static JsonReader newJsonReader(Reader in) {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        return reader;
+    }
+
     /**
      * Creates a new, disconnected Adapter.
      */
@@ -190,4 +598,90 @@ public abstract class Adapter {
     		Map<String, ? extends Object> constructorParameters,
     		Map<String, ? extends Object> parameters, Callback callback);
 
+    /**
+     * Invokes a remotable method exposed statically on the server, like
+     * {@link #invokeStaticMethod(String, Map, Callback)}, and returns the
+     * pending result rather than calling back. {@link Future#get()} blocks
+     * until the result is available.
+     * @param method The method to invoke, e.g.
+     * 		<code>"module.doSomething"</code>.
+     * @param parameters The parameters to invoke with.
+     * @return the future result.
+     * @see ResponseFuture
+     */
+    public Future<Object> invokeStaticMethod(String method,
+            Map<String, ? extends Object> parameters) {
+        ResponseFuture future = new ResponseFuture();
+        invokeStaticMethod(method, parameters, future);
+        return future;
+    }
+
+    /**
+     * Invokes a remotable method exposed within a prototype on the server,
+     * like {@link #invokeInstanceMethod(String, Map, Map, Callback)}, and
+     * returns the pending result rather than calling back.
+     * {@link Future#get()} blocks until the result is available.
+     * @param method The method to invoke, e.g.
+     * 		<code>"MyClass.prototype.doSomething"</code>.
+     * @param constructorParameters The parameters the virtual object should be
+     * created with.
+     * @param parameters The parameters to invoke with.
+     * @return the future result.
+     * @see ResponseFuture
+     */
+    public Future<Object> invokeInstanceMethod(String method,
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters) {
+        ResponseFuture future = new ResponseFuture();
+        invokeInstanceMethod(method, constructorParameters, parameters,
+                future);
+        return future;
+    }
+
+    /**
+     * Binds a remotable method exposed statically on the server, to invoke
+     * it repeatedly, e.g. in a loop, at a lower cost than
+     * {@link #invokeStaticMethod(String, Map, Callback)}.
+     * @param method The method to bind, e.g.
+     * 		<code>"module.doSomething"</code>.
+     * @return the handle to invoke the method with.
+     */
+    public MethodHandle bindStaticMethod(String method) {
+        return new MethodHandle(this, method, true);
+    }
+
+    /**
+     * Binds a remotable method exposed within a prototype on the server, to
+     * invoke it repeatedly, on any number of virtual objects, at a lower
+     * cost than {@link #invokeInstanceMethod(String, Map, Map, Callback)}.
+     * @param method The method to bind, e.g.
+     * 		<code>"MyClass.prototype.doSomething"</code>.
+     * @return the handle to invoke the method with.
+     */
+    public MethodHandle bindInstanceMethod(String method) {
+        return new MethodHandle(this, method, false);
+    }
+
+    /**
+     * Subscribes to the events the server pushes for a remotable method,
+     * instead of polling it. The listener receives each event as it
+     * arrives, until the returned stream is closed.
+     * <p>
+     * Adapters that can't receive events from the server throw
+     * {@link UnsupportedOperationException}.
+     * @param method The method that streams the events, e.g.
+     * 		<code>"module.changes"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param lastEventId The id of the last event already received, e.g.
+     * before the app was restarted, to resume from, or <code>null</code>.
+     * @param listener The listener to deliver the events to.
+     * @return the stream.
+     */
+    public EventStream subscribe(String method,
+            Map<String, ? extends Object> parameters, String lastEventId,
+            EventStream.Listener listener) {
+        throw new UnsupportedOperationException(
+                getClass().getSimpleName() + " does not support events");
+    }
+
 }
@@ -0,0 +1,179 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * Tracks the health of the route of a single method and stops requests
+ * to it while it is failing, according to a {@link CircuitBreakerPolicy}.
+ * <p>
+ * The circuit is {@link State#CLOSED} while requests succeed. Once too
+ * many of them fail, it is {@link State#OPEN} and requests fail
+ * immediately. When the open duration has passed, it is
+ * {@link State#HALF_OPEN}: a single request is sent, and its outcome
+ * either closes the circuit or opens it again.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The state of a circuit.
+     */
+    public enum State {
+        /** Requests are sent. */
+        CLOSED,
+        /** Requests fail without being sent. */
+        OPEN,
+        /** A single request is sent to probe the route. */
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final CircuitBreakerPolicy policy;
+    // Guarded by this. A ring of the last outcomes, true for failures.
+    private final boolean[] outcomes;
+    private int outcomeCount;
+    private int nextOutcome;
+    private int failureCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int inFlight;
+    private boolean probing;
+
+    /**
+     * Creates a closed circuit.
+     * @param name The name used in error messages, e.g. the method name.
+     * @param policy The policy.
+     */
+    public CircuitBreaker(String name, CircuitBreakerPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("The policy cannot be null");
+        }
+        this.name = name;
+        this.policy = policy;
+        this.outcomes = new boolean[policy.getWindowSize()];
+    }
+
+    /**
+     * Gets the policy.
+     * @return the policy.
+     */
+    public CircuitBreakerPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the state of the circuit.
+     * @return the state.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && now() - openedAt >=
+                policy.getOpenDuration()) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     * @return the number of requests.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * Closes the circuit and forgets the outcome of past requests.
+     */
+    public synchronized void reset() {
+        close();
+    }
+
+    /**
+     * Admits a request, unless the circuit is open or too many requests
+     * are in flight. An admitted request must be
+     * {@link #release(State, boolean)}d once it completes.
+     * @return the state the request was admitted in.
+     * @throws CircuitOpenException if the request is rejected.
+     */
+    synchronized State acquire() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            if (now() - openedAt < policy.getOpenDuration()) {
+                throw new CircuitOpenException("Circuit open: " + name);
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                throw new CircuitOpenException("Circuit open: " + name);
+            }
+            probing = true;
+        }
+        else if (policy.getMaxConcurrentRequests() > 0 &&
+                inFlight >= policy.getMaxConcurrentRequests()) {
+            throw new CircuitOpenException("Too many requests: " + name);
+        }
+        inFlight++;
+        return state;
+    }
+
+    /**
+     * Records the outcome of a request admitted by {@link #acquire()}.
+     * @param admittedIn The state returned by {@link #acquire()}.
+     * @param failed Whether the request failed or was too slow.
+     */
+    synchronized void release(State admittedIn, boolean failed) {
+        inFlight--;
+        if (admittedIn == State.HALF_OPEN) {
+            probing = false;
+            if (failed) {
+                open();
+            }
+            else {
+                close();
+            }
+        }
+        else if (state == State.CLOSED) {
+            record(failed);
+            if (outcomeCount == outcomes.length && failureCount >=
+                    policy.getFailureRateThreshold() * outcomes.length) {
+                open();
+            }
+        }
+        // Else the circuit opened while the request was in flight.
+    }
+
+    private void record(boolean failed) {
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[nextOutcome]) {
+                failureCount--;
+            }
+        }
+        else {
+            outcomeCount++;
+        }
+        outcomes[nextOutcome] = failed;
+        if (failed) {
+            failureCount++;
+        }
+        nextOutcome = (nextOutcome + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = now();
+    }
+
+    /**
+     * Gets the time of the clock of the policy.
+     */
+    long now() {
+        return policy.getClock().currentTimeMillis();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        probing = false;
+        outcomeCount = 0;
+        nextOutcome = 0;
+        failureCount = 0;
+    }
+}
@@ -0,0 +1,165 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * Decides when {@link RestAdapter} stops sending requests for a method
+ * whose route is failing, see {@link CircuitBreaker}.
+ * <p>
+ * The outcome of the last <code>windowSize</code> requests is kept. A
+ * request fails if no response is received, if the status is
+ * <code>408</code>, <code>429</code> or <code>5xx</code>, or if it takes
+ * longer than <code>slowCallDuration</code>. Once the failure rate reaches
+ * the threshold, the circuit opens: requests fail immediately with a
+ * {@link CircuitOpenException} for <code>openDuration</code>. After that, a
+ * single request is let through as a probe, and the circuit closes again
+ * if it succeeds.
+ * <p>
+ * Independently of the failures, at most
+ * <code>maxConcurrentRequests</code> requests for the same method can be in
+ * flight, so that a slow route cannot take up all connections.
+ * <p>
+ * Durations are measured with the {@link Clock} of the policy, which is
+ * the system clock unless another one is given, e.g. by tests.
+ */
+public class CircuitBreakerPolicy {
+
+    /**
+     * The source of the time circuit breakers measure durations with.
+     */
+    public interface Clock {
+
+        /**
+         * The clock of {@link System#currentTimeMillis()}.
+         */
+        Clock SYSTEM = new Clock() {
+
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        /**
+         * Gets the current time.
+         * @return the time in milliseconds.
+         */
+        long currentTimeMillis();
+    }
+
+    /**
+     * The default policy: the circuit opens when half of the last 20
+     * requests failed or took longer than 10 seconds, and stays open for
+     * 30 seconds. Up to 4 requests per method can be in flight.
+     */
+    public static final CircuitBreakerPolicy DEFAULT =
+            new CircuitBreakerPolicy(20, 0.5f, 10 * 1000, 30 * 1000, 4);
+
+    private final int windowSize;
+    private final float failureRateThreshold;
+    private final long slowCallDuration;
+    private final long openDuration;
+    private final int maxConcurrentRequests;
+    private final Clock clock;
+
+    /**
+     * Creates a new policy.
+     * @param windowSize The number of requests whose outcome is kept.
+     * @param failureRateThreshold The failure rate that opens the
+     * circuit, between 0 and 1.
+     * @param slowCallDuration The duration after which a request counts
+     * as failed, in milliseconds.
+     * @param openDuration How long the circuit stays open, in
+     * milliseconds.
+     * @param maxConcurrentRequests The maximum number of requests in
+     * flight, or 0 for no limit.
+     */
+    public CircuitBreakerPolicy(int windowSize, float failureRateThreshold,
+            long slowCallDuration, long openDuration,
+            int maxConcurrentRequests) {
+        this(windowSize, failureRateThreshold, slowCallDuration,
+                openDuration, maxConcurrentRequests, Clock.SYSTEM);
+    }
+
+    /**
+     * Creates a new policy that measures durations with the given clock.
+     * @see #CircuitBreakerPolicy(int, float, long, long, int)
+     * @param clock The clock.
+     */
+    public CircuitBreakerPolicy(int windowSize, float failureRateThreshold,
+            long slowCallDuration, long openDuration,
+            int maxConcurrentRequests, Clock clock) {
+        if (windowSize < 1 || failureRateThreshold <= 0 ||
+                failureRateThreshold > 1 || slowCallDuration <= 0 ||
+                openDuration < 0 || maxConcurrentRequests < 0 ||
+                clock == null) {
+            throw new IllegalArgumentException(
+                    "Invalid circuit breaker policy");
+        }
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.openDuration = openDuration;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.clock = clock;
+    }
+
+    /**
+     * Gets the number of requests whose outcome is kept.
+     * @return the number of requests.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Gets the failure rate that opens the circuit.
+     * @return the rate, between 0 and 1.
+     */
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Gets the duration after which a request counts as failed.
+     * @return the duration in milliseconds.
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * Gets how long the circuit stays open.
+     * @return the duration in milliseconds.
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Gets the maximum number of requests in flight.
+     * @return the number of requests, or 0 if there is no limit.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Gets the clock durations are measured with.
+     * @return the clock.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets whether a response with the given status code counts as
+     * failed.
+     * @param statusCode The status code.
+     * @return <code>true</code> if the status indicates that the server
+     * is unavailable or overloaded.
+     */
+    public boolean isFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+}
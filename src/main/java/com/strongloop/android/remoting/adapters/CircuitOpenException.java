@@ -0,0 +1,19 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+
+/**
+ * The error a request fails with, without being sent, while the
+ * {@link CircuitBreaker} of its method is open or the method has too many
+ * requests in flight.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts request parameters and response values to and from a wire
+ * format, see {@link RestAdapter#setCodec(Codec)}.
+ * <p>
+ * Values are the same as with JSON: a {@link java.util.Map} with String
+ * keys, a {@link java.util.List}, String, Number, Boolean or
+ * <code>null</code>. Implementations must be thread-safe.
+ */
+public interface Codec {
+
+    /**
+     * Gets the media type of the format, sent in the <code>Accept</code>
+     * and <code>Content-Type</code> headers.
+     * @return the media type, e.g. <code>"application/x-msgpack"</code>.
+     */
+    public String getContentType();
+
+    /**
+     * Writes a value. The stream is not closed.
+     * @param value The value, also an array or any
+     * {@link java.lang.Iterable}, as for
+     * {@link com.strongloop.android.remoting.JsonUtil#toJson(Object,
+     * OutputStream)}.
+     * @param out The stream to write to.
+     * @throws IOException if the value cannot be written.
+     */
+    public void encode(Object value, OutputStream out) throws IOException;
+
+    /**
+     * Reads a value. Objects and arrays are read into the same
+     * {@link java.util.Map} and {@link java.util.List} types as
+     * {@link com.strongloop.android.remoting.JsonUtil#fromJson(
+     * android.util.JsonReader)}, and numbers into the narrowest of Integer,
+     * Long and Double.
+     * @param in The stream to read from.
+     * @return the value.
+     * @throws IOException if the value cannot be read.
+     */
+    public Object decode(InputStream in) throws IOException;
+}
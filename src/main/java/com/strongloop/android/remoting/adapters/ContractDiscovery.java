@@ -0,0 +1,314 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+import org.apache.http.client.HttpResponseException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Fills a {@link RestContract} with the routes a server describes, and
+ * keeps them in a file for the next start, see
+ * {@link RestAdapter#discoverContract(File, long, Adapter.Callback)}.
+ * <p>
+ * The server describes its routes as
+ * <pre>
+ * {@code
+ * { "version": "...",
+ *   "routes": [ { "method": "widgets.find", "path": "/widgets",
+ *                 "verb": "GET", "accepts": [ ... ], "returns": [ ... ] } ] }
+ * }
+ * </pre>
+ * where the version changes whenever the routes do. It is sent back in
+ * an <code>If-None-Match</code> header when the file is out of date, so
+ * that an unchanged server answers with <code>304 Not Modified</code>.
+ */
+final class ContractDiscovery implements HttpTransport.ResponseHandler {
+
+    private static final boolean LOG = false;
+
+    private final RestContract contract;
+    private final String url;
+    private final File cacheFile;
+    private final Adapter.Callback callback;
+    private final Executor executor;
+    private final Handler handler;
+    private final Snapshot cached;
+
+    /**
+     * The routes as fetched at a given time, as kept in the file.
+     */
+    private static class Snapshot {
+        final String url;
+        final String version;
+        final long fetched;
+        final JSONArray routes;
+
+        Snapshot(String url, String version, long fetched,
+                JSONArray routes) {
+            this.url = url;
+            this.version = version;
+            this.fetched = fetched;
+            this.routes = routes;
+        }
+    }
+
+    /**
+     * Loads the routes kept in the file into the contract, on the current
+     * thread.
+     * @param url The URL the routes are fetched from. Routes kept for
+     * another URL are ignored.
+     * @param cacheFile The file, or <code>null</code> to always fetch the
+     * routes.
+     * @param callback The callback, or <code>null</code>.
+     * @param executor The executor to apply fetched routes and invoke the
+     * callback on, or <code>null</code> for the looper of the current
+     * thread.
+     */
+    ContractDiscovery(RestContract contract, String url, File cacheFile,
+            Adapter.Callback callback, Executor executor) {
+        this.contract = contract;
+        this.url = url;
+        this.cacheFile = cacheFile;
+        this.callback = callback;
+        this.executor = executor;
+        Looper looper = executor == null ? Looper.myLooper() : null;
+        this.handler = looper != null ? new Handler(looper) : null;
+        this.cached = load();
+    }
+
+    /**
+     * Gets whether the routes loaded from the file were fetched less than
+     * <code>maxAge</code> ago, and so need not be fetched again.
+     */
+    boolean isFresh(long maxAge) {
+        if (cached == null) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - cached.fetched;
+        return age >= 0 && age < maxAge;
+    }
+
+    /**
+     * Invokes the callback with the version of the routes loaded from the
+     * file.
+     */
+    void deliverCached() {
+        final String version = cached.version;
+        post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (callback != null) {
+                    callback.onSuccess(version);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches the routes, unless the server has not changed them since
+     * those loaded from the file.
+     */
+    void fetch(HttpTransport transport, HeaderProfile headers) {
+        if (cached != null && cached.version != null) {
+            headers = headers.with("If-None-Match",
+                    "\"" + cached.version + "\"");
+        }
+        if (LOG) {
+            Log.i("ContractDiscovery", "GET " + url + " " + headers);
+        }
+        transport.execute(new HttpTransport.Request("GET", url, headers,
+                null), this);
+    }
+
+    @Override
+    public void onResponse(HttpTransport.Response response) {
+        int status = response.getStatusCode();
+        if (status == 304 && cached != null) {
+            save(new Snapshot(url, cached.version,
+                    System.currentTimeMillis(), cached.routes));
+            deliverCached();
+            return;
+        }
+        if (status >= 300) {
+            onFailure(new HttpResponseException(status,
+                    response.getReasonPhrase()));
+            return;
+        }
+        final Snapshot fetched;
+        try {
+            JSONObject body = new JSONObject(readString(response.getBody()));
+            fetched = new Snapshot(url,
+                    body.isNull("version") ? null : body.getString("version"),
+                    System.currentTimeMillis(), body.getJSONArray("routes"));
+        }
+        catch (IOException e) {
+            onFailure(e);
+            return;
+        }
+        catch (JSONException e) {
+            onFailure(e);
+            return;
+        }
+        post(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    contract.addItemsFromRoutes(fetched.routes);
+                }
+                catch (JSONException e) {
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                    return;
+                }
+                if (callback != null) {
+                    callback.onSuccess(fetched.version);
+                }
+            }
+        });
+        save(fetched);
+    }
+
+    @Override
+    public void onFailure(final Throwable t) {
+        if (LOG) {
+            Log.w("ContractDiscovery", "Couldn't fetch the routes", t);
+        }
+        post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (callback != null) {
+                    callback.onError(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the file and adds its routes to the contract.
+     * @return the routes, or <code>null</code> if the file doesn't exist
+     * or can't be used.
+     */
+    private Snapshot load() {
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(
+                    readString(new FileInputStream(cacheFile)));
+            if (!url.equals(json.getString("url"))) {
+                return null;
+            }
+            Snapshot snapshot = new Snapshot(url,
+                    json.isNull("version") ? null : json.getString("version"),
+                    json.getLong("fetched"), json.getJSONArray("routes"));
+            contract.addItemsFromRoutes(snapshot.routes);
+            return snapshot;
+        }
+        catch (IOException e) {
+            Log.w("ContractDiscovery", "Couldn't read the routes", e);
+        }
+        catch (JSONException e) {
+            Log.w("ContractDiscovery", "Couldn't read the routes", e);
+        }
+        cacheFile.delete();
+        return null;
+    }
+
+    /**
+     * Writes the routes to a temporary file, then renames it, so that a
+     * crash never leaves a partial file behind.
+     */
+    private void save(Snapshot snapshot) {
+        if (cacheFile == null) {
+            return;
+        }
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            JSONObject json = new JSONObject();
+            json.put("url", snapshot.url);
+            json.put("version", snapshot.version != null
+                    ? snapshot.version : JSONObject.NULL);
+            json.put("fetched", snapshot.fetched);
+            json.put("routes", snapshot.routes);
+            out = new FileOutputStream(temp);
+            out.write(json.toString().getBytes("UTF-8"));
+            out.close();
+            out = null;
+            if (!temp.renameTo(cacheFile)) {
+                throw new IOException("Couldn't rename " + temp);
+            }
+        }
+        catch (IOException e) {
+            Log.w("ContractDiscovery", "Couldn't write the routes", e);
+            temp.delete();
+        }
+        catch (JSONException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        finally {
+            if (out != null) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                    // Do nothing
+                }
+            }
+        }
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, "UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) > 0) {
+                builder.append(buffer, 0, count);
+            }
+            return builder.toString();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void post(Runnable runnable) {
+        if (executor != null) {
+            executor.execute(runnable);
+        }
+        else if (handler != null) {
+            handler.post(runnable);
+        }
+        else {
+            runnable.run();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request body serialized with a {@link Codec}, e.g. the
+ * {@link JsonCodec}, straight into the request stream when it is written.
+ * <p>
+ * The length is computed by serializing the value once without keeping
+ * the output, so the body can still be sent with a fixed length, and
+ * compressed only when it is large enough.
+ */
+class EncodedBody extends HttpTransport.RequestBody {
+
+    private final Object value;
+    private final Codec codec;
+    // -2 until computed, -1 if the value cannot be serialized.
+    private long length = -2;
+
+    /**
+     * Creates a body with the given value.
+     * @param value The value, e.g. a Map of parameters.
+     * @param codec The codec to serialize the value with.
+     */
+    public EncodedBody(Object value, Codec codec) {
+        this.value = value;
+        this.codec = codec;
+    }
+
+    @Override
+    public String getContentType() {
+        return codec.getContentType();
+    }
+
+    @Override
+    public synchronized long getContentLength() {
+        if (length == -2) {
+            CountingOutputStream counter = new CountingOutputStream();
+            try {
+                codec.encode(value, counter);
+                length = counter.count;
+            }
+            catch (IOException e) {
+                // Won't happen
+                length = -1;
+            }
+            catch (IllegalArgumentException e) {
+                // Fails again, and is reported, when the body is written.
+                length = -1;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        codec.encode(value, out);
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpResponseException;
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * A subscription to the events a server pushes, as
+ * <a href="http://www.w3.org/TR/eventsource/">server-sent events</a>,
+ * see {@link Adapter#subscribe(String, java.util.Map, String, Listener)}.
+ * <p>
+ * The stream is kept open until {@link #close()} is called. When the
+ * connection is lost, or the server ends the response, it is opened again
+ * after a delay, sending the id of the last event received so that the
+ * server can resume from there. The delay grows with each failed attempt,
+ * unless the server set it with a <code>retry</code> field. Since a
+ * transport may time out a stream that stays idle, the server should send
+ * a comment line every few seconds.
+ * <p>
+ * Like responses, events are delivered on the looper of the thread that
+ * subscribed, unless the adapter has a callback executor.
+ */
+public class EventStream {
+
+    /**
+     * Receives the events of a stream.
+     */
+    public interface Listener {
+
+        /**
+         * The method invoked for each event.
+         * @param event The event type, <code>"message"</code> unless the
+         * server named it.
+         * @param data The data, parsed as JSON, see
+         * {@link Adapter.JsonCallback#onSuccess(Object)}, or the text if
+         * it is not valid JSON.
+         * @param id The id of the event, or <code>null</code>.
+         */
+        public void onEvent(String event, Object data, String id);
+
+        /**
+         * The method invoked when the server rejects the stream, which is
+         * then closed. Network errors and transient errors are not
+         * reported; the stream is opened again instead.
+         * @param t The Throwable.
+         */
+        public void onError(Throwable t);
+    }
+
+    private static final boolean LOG = false;
+
+    private final HttpTransport transport;
+    private final String url;
+    private final HeaderProfile headers;
+    private final RetryPolicy reconnectPolicy;
+    private final Listener listener;
+    private final Executor executor;
+    private final Handler handler;
+    // Guarded by this.
+    private boolean closed;
+    private Future<?> pending;
+    private int attempts;
+    private long reconnectDelay = -1;
+    private String lastEventId;
+
+    /**
+     * @param reconnectPolicy The policy whose delays are waited between
+     * attempts. Its number of retries is ignored.
+     * @param executor The executor to invoke the listener on, or
+     * <code>null</code> for the looper of the current thread.
+     */
+    EventStream(HttpTransport transport, String url, HeaderProfile headers,
+            String lastEventId, RetryPolicy reconnectPolicy,
+            Listener listener, Executor executor) {
+        this.transport = transport;
+        this.url = url;
+        this.headers = headers
+                .with("Accept", "text/event-stream")
+                .with("Cache-Control", "no-cache");
+        this.lastEventId = lastEventId;
+        this.reconnectPolicy = reconnectPolicy;
+        this.listener = listener;
+        this.executor = executor;
+        Looper looper = executor == null ? Looper.myLooper() : null;
+        this.handler = looper != null ? new Handler(looper) : null;
+    }
+
+    /**
+     * Gets the id of the last event received, which is sent when the
+     * stream is opened again.
+     * @return the id, or <code>null</code>.
+     */
+    public synchronized String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * Gets whether the stream is closed.
+     * @return <code>true</code> if closed, <code>false</code> otherwise.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the stream. Events already on their way may still be
+     * delivered.
+     */
+    public void close() {
+        Future<?> pending;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = this.pending;
+            this.pending = null;
+        }
+        if (pending != null) {
+            pending.cancel(true);
+        }
+    }
+
+    /**
+     * Opens the stream.
+     */
+    synchronized void open() {
+        if (closed) {
+            return;
+        }
+        HeaderProfile requestHeaders = lastEventId != null
+                ? headers.with("Last-Event-ID", lastEventId) : headers;
+        if (LOG) {
+            Log.i("EventStream", "GET " + url + " " + requestHeaders);
+        }
+        pending = transport.execute(
+                new HttpTransport.Request("GET", url, requestHeaders, null),
+                new StreamHandler());
+    }
+
+    /**
+     * Opens the stream again after a delay, unless it was closed.
+     */
+    private synchronized void reconnect() {
+        if (closed) {
+            return;
+        }
+        long delay = reconnectDelay >= 0 ? reconnectDelay
+                : reconnectPolicy.getDelay(attempts);
+        attempts++;
+        if (LOG) {
+            Log.i("EventStream", "Reconnecting in " + delay + " ms");
+        }
+        pending = RestAdapter.getRetryScheduler().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                open();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void fail(Throwable t) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = null;
+        }
+        final Throwable error = t;
+        post(new Runnable() {
+
+            @Override
+            public void run() {
+                listener.onError(error);
+            }
+        });
+    }
+
+    /**
+     * Reads the events of one response, on the network thread.
+     */
+    private class StreamHandler implements HttpTransport.ResponseHandler {
+
+        @Override
+        public void onResponse(HttpTransport.Response response) {
+            int status = response.getStatusCode();
+            if (status == 204) {
+                // The server asks not to reconnect.
+                close();
+                return;
+            }
+            if (status >= 300) {
+                if (reconnectPolicy.isRetryable(status)) {
+                    reconnect();
+                }
+                else {
+                    fail(new HttpResponseException(status,
+                            response.getReasonPhrase()));
+                }
+                return;
+            }
+            String contentType = response.getHeader("Content-Type");
+            if (contentType == null ||
+                    !contentType.startsWith("text/event-stream")) {
+                fail(new IOException("Not an event stream: " + contentType));
+                return;
+            }
+            try {
+                read(new BufferedReader(new InputStreamReader(
+                        response.getBody(), "UTF-8")));
+            }
+            catch (IOException e) {
+                if (LOG) {
+                    Log.i("EventStream", "Stream lost: " + e);
+                }
+            }
+            reconnect();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (reconnectPolicy.isRetryable(t)) {
+                reconnect();
+            }
+            else {
+                fail(t);
+            }
+        }
+
+        /**
+         * Parses the stream, dispatching each event once the empty line
+         * that ends it has been read.
+         */
+        private void read(BufferedReader reader) throws IOException {
+            StringBuilder data = new StringBuilder();
+            String event = null;
+            String id = getLastEventId();
+            boolean first = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isClosed()) {
+                    return;
+                }
+                if (first) {
+                    first = false;
+                    if (line.startsWith("\uFEFF")) {
+                        line = line.substring(1);
+                    }
+                }
+                if (line.length() == 0) {
+                    if (data.length() > 0) {
+                        data.setLength(data.length() - 1);
+                        dispatch(event != null ? event : "message",
+                                data.toString(), id);
+                    }
+                    data.setLength(0);
+                    event = null;
+                    continue;
+                }
+                if (line.startsWith(":")) {
+                    // A comment, e.g. to keep the connection alive.
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                String field = colon >= 0 ? line.substring(0, colon) : line;
+                String value = colon >= 0 ? line.substring(colon + 1) : "";
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+                if (field.equals("data")) {
+                    data.append(value).append('\n');
+                }
+                else if (field.equals("event")) {
+                    event = value;
+                }
+                else if (field.equals("id")) {
+                    if (value.indexOf('\0') < 0) {
+                        id = value.length() > 0 ? value : null;
+                    }
+                }
+                else if (field.equals("retry")) {
+                    try {
+                        long delay = Long.parseLong(value);
+                        synchronized (EventStream.this) {
+                            reconnectDelay = delay;
+                        }
+                    }
+                    catch (NumberFormatException e) {
+                        // Ignored, as the spec requires.
+                    }
+                }
+            }
+        }
+
+        private void dispatch(final String event, final String text,
+                final String id) {
+            synchronized (EventStream.this) {
+                lastEventId = id;
+                // Events are flowing, so the next loss is a first failure.
+                attempts = 0;
+            }
+            Object json;
+            try {
+                JSONTokener tokener = new JSONTokener(text);
+                json = tokener.nextValue();
+                if (tokener.nextClean() != 0) {
+                    // Only the start of the text is JSON.
+                    json = text;
+                }
+            }
+            catch (JSONException e) {
+                json = text;
+            }
+            final Object data = json;
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (LOG) {
+                        Log.i("EventStream", event + ": " + text);
+                    }
+                    if (!isClosed()) {
+                        listener.onEvent(event, data, id);
+                    }
+                }
+            });
+        }
+    }
+
+    private void post(Runnable runnable) {
+        if (executor != null) {
+            executor.execute(runnable);
+        }
+        else if (handler != null) {
+            handler.post(runnable);
+        }
+        else {
+            runnable.run();
+        }
+    }
+}
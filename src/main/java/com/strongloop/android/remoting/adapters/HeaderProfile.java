@@ -0,0 +1,156 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable set of request headers, shared by all requests that send
+ * the same headers, so that building a request does not copy them.
+ * Changing a header creates a new profile.
+ * <p>
+ * The hash code and string form are computed once, since profiles are
+ * used as keys to cache merged profiles and to coalesce requests.
+ */
+final class HeaderProfile extends AbstractMap<String, String> {
+
+    /**
+     * The profile without any headers.
+     */
+    public static final HeaderProfile EMPTY =
+            new HeaderProfile(new LinkedHashMap<String, String>());
+
+    private final Map<String, String> headers;
+    private final int hashCode;
+    private final String string;
+    private volatile ConcurrentMap<HeaderProfile, HeaderProfile> merged;
+
+    private HeaderProfile(LinkedHashMap<String, String> headers) {
+        this.headers = Collections.unmodifiableMap(headers);
+        this.hashCode = headers.hashCode();
+        this.string = headers.toString();
+    }
+
+    /**
+     * Gets a profile with the given headers.
+     * @param headers The headers, or <code>null</code> for none.
+     * @return the profile.
+     */
+    public static HeaderProfile of(Map<String, String> headers) {
+        if (headers instanceof HeaderProfile) {
+            return (HeaderProfile)headers;
+        }
+        if (headers == null || headers.isEmpty()) {
+            return EMPTY;
+        }
+        return new HeaderProfile(new LinkedHashMap<String, String>(headers));
+    }
+
+    /**
+     * Gets a profile with the headers of this one, and the given header
+     * set or replaced.
+     * @param name The header name.
+     * @param value The header value, or <code>null</code> to remove the
+     * header.
+     * @return the profile.
+     */
+    public HeaderProfile with(String name, String value) {
+        if (value != null ? value.equals(headers.get(name))
+                : !headers.containsKey(name)) {
+            return this;
+        }
+        LinkedHashMap<String, String> merged =
+                new LinkedHashMap<String, String>(headers);
+        if (value != null) {
+            merged.put(name, value);
+        }
+        else {
+            merged.remove(name);
+        }
+        return new HeaderProfile(merged);
+    }
+
+    /**
+     * Gets a profile with the headers of this one, and the given ones set
+     * or replaced.
+     * @param headers The headers to set.
+     * @return the profile.
+     */
+    public HeaderProfile with(Map<String, String> headers) {
+        if (headers.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return of(headers);
+        }
+        LinkedHashMap<String, String> merged =
+                new LinkedHashMap<String, String>(this.headers);
+        merged.putAll(headers);
+        return new HeaderProfile(merged);
+    }
+
+    /**
+     * Gets a profile with the headers of this one, and the given ones set
+     * or replaced. The result is kept, so merging the same profiles again
+     * does not allocate anything.
+     * @param headers The headers to set.
+     * @return the profile.
+     */
+    public HeaderProfile merge(HeaderProfile headers) {
+        if (headers.isEmpty()) {
+            return this;
+        }
+        ConcurrentMap<HeaderProfile, HeaderProfile> cache = merged;
+        if (cache == null) {
+            synchronized (this) {
+                if (merged == null) {
+                    merged = new ConcurrentHashMap<HeaderProfile,
+                            HeaderProfile>();
+                }
+                cache = merged;
+            }
+        }
+        HeaderProfile result = cache.get(headers);
+        if (result == null) {
+            result = with(headers);
+            cache.put(headers, result);
+        }
+        return result;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return headers.entrySet();
+    }
+
+    @Override
+    public String get(Object key) {
+        return headers.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return headers.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return headers.size();
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return string;
+    }
+}
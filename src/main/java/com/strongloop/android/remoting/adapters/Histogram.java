@@ -0,0 +1,134 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values, e.g. latencies in nanoseconds, with
+ * a fixed memory footprint. Values are counted in buckets whose width
+ * grows with the value, so percentiles are accurate to 1/8th, whatever the
+ * range of the values.
+ * <p>
+ * This class is thread safe.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Guarded by this.
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records a value. Negative values are ignored.
+     * @param value The value.
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     * @return the number of values.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the smallest recorded value.
+     * @return the value, or 0 if there is none.
+     */
+    public synchronized long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     * @return the value, or 0 if there is none.
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     * @return the mean, or 0 if there is no value.
+     */
+    public synchronized double getMean() {
+        return count > 0 ? (double)sum / count : 0;
+    }
+
+    /**
+     * Gets the value that the given percentage of the recorded values are
+     * less than or equal to.
+     * @param percentile The percentage, e.g. 99 for the 99th percentile.
+     * @return the value, or 0 if there is none.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    "Invalid percentile: " + percentile);
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length && seen < count; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Math.max(lowerBound(i + 1) - 1, min), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + count + " min=" + getMin() +
+                " p50=" + getValueAtPercentile(50) +
+                " p90=" + getValueAtPercentile(90) +
+                " p99=" + getValueAtPercentile(99) + " max=" + max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) &
+                (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long)(SUB_BUCKETS + subBucket) <<
+                (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,195 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link MetricsListener} that keeps {@link Histogram}s of the metrics
+ * of each remote method in memory, e.g. to log or upload them
+ * periodically.
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+    /**
+     * The metrics of all calls of a single method.
+     */
+    public static class MethodMetrics {
+
+        private final Histogram totalTime = new Histogram();
+        private final Histogram timeToFirstByte = new Histogram();
+        private final Histogram serializationTime = new Histogram();
+        private final Histogram parseTime = new Histogram();
+        private final Histogram requestBytes = new Histogram();
+        private final Histogram responseBytes = new Histogram();
+        // Guarded by this.
+        private long callCount;
+        private long errorCount;
+        private long retryCount;
+        private long cacheHitCount;
+        private long coalescedCount;
+
+        void record(RequestMetrics metrics) {
+            totalTime.record(metrics.getTotalTime());
+            timeToFirstByte.record(metrics.getTimeToFirstByte());
+            serializationTime.record(metrics.getSerializationTime());
+            parseTime.record(metrics.getParseTime());
+            requestBytes.record(metrics.getRequestBytes());
+            responseBytes.record(metrics.getResponseBytes());
+            synchronized (this) {
+                callCount++;
+                if (!metrics.isSuccess()) {
+                    errorCount++;
+                }
+                retryCount += metrics.getRetryCount();
+                if (metrics.isCacheHit()) {
+                    cacheHitCount++;
+                }
+                if (metrics.isCoalesced()) {
+                    coalescedCount++;
+                }
+            }
+        }
+
+        /**
+         * Gets the total times of the calls, in nanoseconds.
+         * @return the histogram.
+         */
+        public Histogram getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * Gets the times to first byte of the calls, in nanoseconds.
+         * @return the histogram.
+         */
+        public Histogram getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        /**
+         * Gets the serialization times of the request bodies, in
+         * nanoseconds.
+         * @return the histogram.
+         */
+        public Histogram getSerializationTime() {
+            return serializationTime;
+        }
+
+        /**
+         * Gets the parse times of the responses, in nanoseconds.
+         * @return the histogram.
+         */
+        public Histogram getParseTime() {
+            return parseTime;
+        }
+
+        /**
+         * Gets the sizes of the request bodies, in bytes.
+         * @return the histogram.
+         */
+        public Histogram getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * Gets the sizes of the response bodies, in bytes.
+         * @return the histogram.
+         */
+        public Histogram getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * Gets the number of calls.
+         * @return the number of calls.
+         */
+        public synchronized long getCallCount() {
+            return callCount;
+        }
+
+        /**
+         * Gets the number of calls that failed.
+         * @return the number of calls.
+         */
+        public synchronized long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Gets the number of retries of all calls.
+         * @return the number of retries.
+         */
+        public synchronized long getRetryCount() {
+            return retryCount;
+        }
+
+        /**
+         * Gets the number of calls served from the cache.
+         * @return the number of calls.
+         */
+        public synchronized long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        /**
+         * Gets the number of calls that shared the response of another.
+         * @return the number of calls.
+         */
+        public synchronized long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + getCallCount() + " errors=" + getErrorCount() +
+                    " retries=" + getRetryCount() + " total(ns): " +
+                    totalTime;
+        }
+    }
+
+    private final ConcurrentMap<String, MethodMetrics> methods =
+            new ConcurrentHashMap<String, MethodMetrics>();
+
+    @Override
+    public void onRequestCompleted(RequestMetrics metrics) {
+        String method = metrics.getMethod();
+        MethodMetrics methodMetrics = methods.get(method);
+        if (methodMetrics == null) {
+            MethodMetrics created = new MethodMetrics();
+            methodMetrics = methods.putIfAbsent(method, created);
+            if (methodMetrics == null) {
+                methodMetrics = created;
+            }
+        }
+        methodMetrics.record(metrics);
+    }
+
+    /**
+     * Gets the names of the methods that were called.
+     * @return the method names.
+     */
+    public Set<String> getMethods() {
+        return Collections.unmodifiableSet(methods.keySet());
+    }
+
+    /**
+     * Gets the metrics of a method.
+     * @param method The method name, e.g. <code>"widgets.find"</code>.
+     * @return the metrics, or <code>null</code> if the method was not
+     * called.
+     */
+    public MethodMetrics getMetrics(String method) {
+        return methods.get(method);
+    }
+
+    /**
+     * Forgets the metrics of all methods.
+     */
+    public void reset() {
+        methods.clear();
+    }
+}
@@ -0,0 +1,282 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The HTTP stack used by {@link RestAdapter} to execute requests. The
+ * adapter builds complete requests (URL, headers and body) and handles the
+ * responses, the transport only moves the bytes.
+ *
+ * @see LoopjTransport
+ * @see UrlConnectionTransport
+ * @see RestAdapter#setTransport(HttpTransport)
+ */
+public interface HttpTransport {
+
+    /**
+     * The body of a request.
+     */
+    public abstract static class RequestBody {
+
+        /**
+         * Creates a body with the given content.
+         * @param contentType The content type, e.g.
+         * <code>"application/json; charset=utf-8"</code>.
+         * @param content The content.
+         * @return the body.
+         */
+        public static RequestBody create(final String contentType,
+                final byte[] content) {
+            return new RequestBody() {
+
+                @Override
+                public String getContentType() {
+                    return contentType;
+                }
+
+                @Override
+                public long getContentLength() {
+                    return content.length;
+                }
+
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(content);
+                }
+            };
+        }
+
+        /**
+         * Creates a body that gzip compresses the given one while it is
+         * written, without buffering it.
+         * @param body The uncompressed body.
+         * @return the compressed body.
+         */
+        public static RequestBody gzip(final RequestBody body) {
+            return new RequestBody() {
+
+                @Override
+                public String getContentType() {
+                    return body.getContentType();
+                }
+
+                @Override
+                public String getContentEncoding() {
+                    return "gzip";
+                }
+
+                @Override
+                public boolean isRepeatable() {
+                    return body.isRepeatable();
+                }
+
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    // Closing the GZIPOutputStream releases its Deflater,
+                    // but must leave the transport's stream open.
+                    GZIPOutputStream gzip = new GZIPOutputStream(
+                            new FilterOutputStream(out) {
+
+                                @Override
+                                public void write(byte[] b, int off, int len)
+                                        throws IOException {
+                                    out.write(b, off, len);
+                                }
+
+                                @Override
+                                public void close() throws IOException {
+                                    flush();
+                                }
+                            }, 8192);
+                    try {
+                        body.writeTo(gzip);
+                    }
+                    finally {
+                        gzip.close();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Gets the value of the <code>Content-Type</code> header.
+         * @return the content type.
+         */
+        public abstract String getContentType();
+
+        /**
+         * Gets the value of the <code>Content-Encoding</code> header.
+         * @return the content encoding, or <code>null</code> if the body is
+         * not encoded.
+         */
+        public String getContentEncoding() {
+            return null;
+        }
+
+        /**
+         * Gets the length of the body.
+         * @return the length in bytes, or -1 if it is not known in advance.
+         */
+        public long getContentLength() {
+            return -1;
+        }
+
+        /**
+         * Gets whether the body can be written more than once, i.e. the
+         * request can be retried.
+         * @return <code>true</code> unless the content comes from a
+         * one-shot source, e.g. an InputStream.
+         */
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        /**
+         * Writes the body. May be called more than once if the request is
+         * retried and the body {@link #isRepeatable()}.
+         * @param out The stream to write to.
+         * @throws IOException If the body cannot be written.
+         */
+        public abstract void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A single request.
+     */
+    public static class Request {
+
+        private final String method;
+        private final String url;
+        private final Map<String, String> headers;
+        private final RequestBody body;
+
+        /**
+         * Creates a new request.
+         * @param method The HTTP verb, e.g. <code>"GET"</code>.
+         * @param url The complete URL, including the query string.
+         * @param headers The request headers, without
+         * <code>Content-Type</code>, <code>Content-Encoding</code> and
+         * <code>Content-Length</code>.
+         * @param body The body, or <code>null</code>.
+         */
+        public Request(String method, String url, Map<String, String> headers,
+                RequestBody body) {
+            if (method == null || url == null) {
+                throw new IllegalArgumentException(
+                        "Neither method nor url can be null");
+            }
+            this.method = method.toUpperCase();
+            this.url = url;
+            this.headers = HeaderProfile.of(headers);
+            this.body = body;
+        }
+
+        /**
+         * Gets the HTTP verb, in upper case.
+         * @return the verb.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the complete URL, including the query string.
+         * @return the URL.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Gets the request headers.
+         * @return the headers.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Gets the request body.
+         * @return the body, or <code>null</code>.
+         */
+        public RequestBody getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * A response, valid only until
+     * {@link ResponseHandler#onResponse(Response)} returns.
+     */
+    public interface Response {
+
+        /**
+         * Gets the HTTP status code.
+         * @return the status code, e.g. 200.
+         */
+        public int getStatusCode();
+
+        /**
+         * Gets the HTTP reason phrase.
+         * @return the reason phrase, e.g. "OK".
+         */
+        public String getReasonPhrase();
+
+        /**
+         * Gets the value of a response header. Multiple values are joined
+         * with <code>", "</code>.
+         * @param name The header name, case insensitive.
+         * @return the value, or <code>null</code> if there is no such
+         * header.
+         */
+        public String getHeader(String name);
+
+        /**
+         * Gets the response body, decompressed if the transport negotiated
+         * a content encoding.
+         * @return the body, empty if the response has none.
+         * @throws IOException If the body cannot be read.
+         */
+        public InputStream getBody() throws IOException;
+    }
+
+    /**
+     * Receives the outcome of a request. Both methods are invoked on a
+     * background thread.
+     */
+    public interface ResponseHandler {
+
+        /**
+         * The method invoked when a response was received, whatever its
+         * status code. The transport releases the response when this
+         * method returns.
+         * @param response The response.
+         * @throws Exception If the response cannot be processed. The
+         * exception is passed on to {@link #onFailure(Throwable)}.
+         */
+        public void onResponse(Response response) throws Exception;
+
+        /**
+         * The method invoked when no response was received, e.g. because
+         * of a network error.
+         * @param t The Throwable.
+         */
+        public void onFailure(Throwable t);
+    }
+
+    /**
+     * Executes a request asynchronously.
+     * @param request The request to execute.
+     * @param handler The handler to invoke with the response.
+     * @return a Future that can be used to cancel the request.
+     */
+    public Future<?> execute(Request request, ResponseHandler handler);
+}
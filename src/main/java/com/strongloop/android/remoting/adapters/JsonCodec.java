@@ -0,0 +1,44 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import android.util.JsonReader;
+
+import com.strongloop.android.remoting.JsonUtil;
+
+/**
+ * The {@link Codec} for JSON, with {@link JsonUtil}. It is used for all
+ * request bodies unless the codec set with
+ * {@link RestAdapter#setCodec(Codec, boolean)} is enabled for them, and
+ * the server accepts it.
+ */
+public class JsonCodec implements Codec {
+
+    /**
+     * The shared instance.
+     */
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    @Override
+    public String getContentType() {
+        return "application/json; charset=utf-8";
+    }
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        JsonUtil.toJson(value, out);
+    }
+
+    @Override
+    public Object decode(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        // Like JSONTokener, any value is accepted at the top level.
+        reader.setLenient(true);
+        return JsonUtil.fromJson(reader);
+    }
+}
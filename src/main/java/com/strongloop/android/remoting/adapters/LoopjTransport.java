@@ -0,0 +1,324 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.loopj.android.http.AsyncHttpClient;
+
+/**
+ * An {@link HttpTransport} based on the "Android Asynchronous Http Client".
+ * http://loopj.com/android-async-http/
+ * <p>
+ * Requests are executed by the pooled Apache HttpClient that
+ * {@link AsyncHttpClient} configures, with its gzip support, cookie handling
+ * and retry handler. The client requests gzip responses and decompresses
+ * them. This is the default transport of {@link RestAdapter}.
+ */
+public class LoopjTransport implements HttpTransport {
+
+    private final AsyncHttpClient client = new AsyncHttpClient();
+
+    // Shared with AsyncHttpClient when possible, it has no getter for it.
+    private final ExecutorService executor;
+
+    /**
+     * Creates a transport that executes requests on its own thread pool.
+     */
+    public LoopjTransport() {
+        this(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Creates a transport that executes requests on the given executor.
+     * @param executor The executor.
+     */
+    public LoopjTransport(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        this.executor = executor;
+        if (executor instanceof ThreadPoolExecutor) {
+            client.setThreadPool((ThreadPoolExecutor)executor);
+        }
+    }
+
+    /**
+     * Gets the underlying {@link AsyncHttpClient}, e.g. to configure
+     * timeouts, cookies or SSL.
+     * @return the client.
+     */
+    public AsyncHttpClient getAsyncHttpClient() {
+        return client;
+    }
+
+    @Override
+    public Future<?> execute(Request request, final ResponseHandler handler) {
+        final HttpUriRequest uriRequest = toUriRequest(request);
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+
+            @Override
+            public void run() {
+                HttpEntity entity = null;
+                try {
+                    final HttpResponse response = client.getHttpClient()
+                            .execute(uriRequest, client.getHttpContext());
+                    entity = response.getEntity();
+                    final HttpEntity responseEntity = entity;
+                    handler.onResponse(new Response() {
+
+                        @Override
+                        public int getStatusCode() {
+                            return response.getStatusLine().getStatusCode();
+                        }
+
+                        @Override
+                        public String getReasonPhrase() {
+                            return response.getStatusLine().getReasonPhrase();
+                        }
+
+                        @Override
+                        public String getHeader(String name) {
+                            StringBuilder value = null;
+                            for (Header header : response.getHeaders(name)) {
+                                if (value == null) {
+                                    value = new StringBuilder(
+                                            header.getValue());
+                                }
+                                else {
+                                    value.append(", ")
+                                            .append(header.getValue());
+                                }
+                            }
+                            return value != null ? value.toString() : null;
+                        }
+
+                        @Override
+                        public InputStream getBody() throws IOException {
+                            return responseEntity != null
+                                    ? responseEntity.getContent()
+                                    : EMPTY_STREAM;
+                        }
+                    });
+                }
+                catch (Throwable t) {
+                    uriRequest.abort();
+                    handler.onFailure(t);
+                }
+                finally {
+                    if (entity != null) {
+                        try {
+                            entity.consumeContent();
+                        }
+                        catch (Exception e) {
+                            // Do nothing
+                        }
+                    }
+                }
+            }
+        }, null) {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    // Unblocks the thread executing the request.
+                    uriRequest.abort();
+                }
+                return cancelled;
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    private static final InputStream EMPTY_STREAM = new InputStream() {
+
+        @Override
+        public int read() {
+            return -1;
+        }
+    };
+
+    private static HttpUriRequest toUriRequest(Request request) {
+        String method = request.getMethod();
+        String url = request.getUrl();
+
+        HttpUriRequest uriRequest;
+        if ("GET".equals(method)) {
+            uriRequest = new HttpGet(url);
+        }
+        else if ("DELETE".equals(method)) {
+            uriRequest = new HttpDelete(url);
+        }
+        else if ("HEAD".equals(method)) {
+            uriRequest = new HttpHead(url);
+        }
+        else if ("POST".equals(method)) {
+            uriRequest = new HttpPost(url);
+        }
+        else if ("PUT".equals(method)) {
+            uriRequest = new HttpPut(url);
+        }
+        else {
+            throw new IllegalArgumentException("Illegal method: " +
+                    method + ". Only GET, HEAD, POST, PUT, DELETE supported.");
+        }
+
+        for (Map.Entry<String, String> header :
+                request.getHeaders().entrySet()) {
+            uriRequest.setHeader(header.getKey(), header.getValue());
+        }
+
+        if (request.getBody() != null &&
+                uriRequest instanceof HttpEntityEnclosingRequestBase) {
+            ((HttpEntityEnclosingRequestBase)uriRequest).setEntity(
+                    new BodyEntity(request.getBody()));
+        }
+        return uriRequest;
+    }
+
+    /**
+     * Adapts a {@link HttpTransport.RequestBody} to an {@link HttpEntity}.
+     * The client sends it with {@link #writeTo(OutputStream)}; the body is
+     * only read as a stream if an interceptor asks for it.
+     */
+    private static class BodyEntity extends AbstractHttpEntity {
+
+        /**
+         * The largest body that is buffered rather than piped.
+         */
+        private static final int MAX_BUFFERED_LENGTH = 64 * 1024;
+
+        private final RequestBody body;
+
+        public BodyEntity(RequestBody body) {
+            this.body = body;
+            setContentType(body.getContentType());
+            setContentEncoding(body.getContentEncoding());
+            setChunked(body.getContentLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getContentLength();
+        }
+
+        /**
+         * Gets the body as a stream, buffered if it is small, or else
+         * written into a pipe by another thread.
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            long length = body.getContentLength();
+            if (length >= 0 && length <= MAX_BUFFERED_LENGTH) {
+                ByteArrayOutputStream buffer =
+                        new ByteArrayOutputStream((int)length);
+                body.writeTo(buffer);
+                return new ByteArrayInputStream(buffer.toByteArray());
+            }
+            final PipedOutputStream out = new PipedOutputStream();
+            final BodyPipe in = new BodyPipe(out);
+            Thread writer = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        body.writeTo(out);
+                    }
+                    catch (IOException e) {
+                        in.error = e;
+                    }
+                    finally {
+                        try {
+                            out.close();
+                        }
+                        catch (IOException e) {
+                            // Do nothing
+                        }
+                    }
+                }
+            }, "LoopjTransport body");
+            writer.setDaemon(true);
+            writer.start();
+            return in;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            body.writeTo(out);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * The reading end of a pipe a body is written into, which fails rather
+     * than ending early if writing the body failed.
+     */
+    private static class BodyPipe extends PipedInputStream {
+
+        volatile IOException error;
+
+        public BodyPipe(PipedOutputStream out) throws IOException {
+            super(out, 8192);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                checkError();
+            }
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len)
+                throws IOException {
+            int count = super.read(b, off, len);
+            if (count < 0) {
+                checkError();
+            }
+            return count;
+        }
+
+        private void checkError() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
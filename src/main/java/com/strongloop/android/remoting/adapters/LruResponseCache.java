@@ -0,0 +1,272 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * A {@link ResponseCache} that keeps the most recently used entries in
+ * memory and, optionally, in a directory on disk. Entries evicted from
+ * memory are still found on disk, and are moved back into memory when
+ * used. The size of the directory is kept as a running total, and the
+ * directory is only listed when it grows over its maximum size.
+ */
+public class LruResponseCache extends ResponseCache {
+
+    private final LruCache<String, Entry> memory;
+    private final File directory;
+    private final long maxDiskSize;
+    // Guarded by this, -1 until the directory is first listed.
+    private long diskSize = -1;
+
+    /**
+     * Creates a memory-only cache.
+     * @param maxSize The maximum total size of the cached bodies, in
+     * characters.
+     */
+    public LruResponseCache(int maxSize) {
+        this(maxSize, null, 0);
+    }
+
+    /**
+     * Creates a cache with a disk tier.
+     * @param maxSize The maximum total size of the cached bodies kept in
+     * memory, in characters.
+     * @param directory The directory to store entries in, e.g. a
+     * subdirectory of {@link android.content.Context#getCacheDir()}. It is
+     * created if needed.
+     * @param maxDiskSize The maximum total size of the files in
+     * <code>directory</code>, in bytes.
+     */
+    public LruResponseCache(int maxSize, File directory, long maxDiskSize) {
+        this.memory = new LruCache<String, Entry>(maxSize) {
+
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.getBody().length();
+            }
+        };
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    @Override
+    public Entry get(String key) {
+        Entry entry = memory.get(key);
+        if (entry == null && directory != null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memory.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        memory.put(key, entry);
+        if (directory != null) {
+            writeToDisk(key, entry);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        memory.remove(key);
+        if (directory != null) {
+            synchronized (this) {
+                delete(getFile(key));
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        memory.evictAll();
+        if (directory != null) {
+            synchronized (this) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                diskSize = 0;
+            }
+        }
+    }
+
+    //
+    // Each entry is stored in its own file, named after the MD5 hash of its
+    // key. The key is stored too, to rule out collisions.
+    //
+
+    private File getFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.toString());
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        catch (IOException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized Entry readFromDisk(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (!key.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            long expires = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            String variant = in.readBoolean() ? in.readUTF() : null;
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(new String(body, "UTF-8"), etag, lastModified,
+                    expires, variant);
+        }
+        catch (IOException e) {
+            Log.w("LruResponseCache", "Couldn't read cache entry", e);
+            closeQuietly(in);
+            delete(file);
+            return null;
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    private synchronized void writeToDisk(String key, Entry entry) {
+        File file = getFile(key);
+        long oldLength = file.length();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+            out.writeUTF(key);
+            writeOptionalUTF(out, entry.getEtag());
+            writeOptionalUTF(out, entry.getLastModified());
+            out.writeLong(entry.getExpires());
+            byte[] body = entry.getBody().getBytes("UTF-8");
+            out.writeInt(body.length);
+            out.write(body);
+            writeOptionalUTF(out, entry.getVariant());
+            out.close();
+            out = null;
+        }
+        catch (IOException e) {
+            Log.w("LruResponseCache", "Couldn't write cache entry", e);
+            closeQuietly(out);
+            out = null;
+            file.delete();
+        }
+        finally {
+            closeQuietly(out);
+        }
+        if (diskSize >= 0) {
+            diskSize += file.length() - oldLength;
+        }
+        trimDisk();
+    }
+
+    /**
+     * Deletes a file, and takes it off the running total.
+     */
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete() && diskSize >= 0) {
+            diskSize -= length;
+        }
+    }
+
+    private static void writeOptionalUTF(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits within
+     * the maximum disk size. The directory is only listed the first time,
+     * and when the running total says it is too large.
+     */
+    private void trimDisk() {
+        if (diskSize >= 0 && diskSize <= maxDiskSize) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        diskSize = size;
+        if (size <= maxDiskSize) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && diskSize > maxDiskSize; i++) {
+            delete(files[i]);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A {@link Codec} for <a href="http://msgpack.org/">MessagePack</a>, a
+ * binary format with the same values as JSON. Numbers take 1 to 9 bytes
+ * and are read without parsing text, which makes it a good fit for
+ * numeric payloads, e.g. sensor readings.
+ * <p>
+ * Values are written as the JSON writer of
+ * {@link com.strongloop.android.remoting.JsonUtil} would write them:
+ * integral numbers are written as integers, in the fewest bytes, and
+ * other objects as their string value. Binary values are read as
+ * <code>byte[]</code>; extension types are not supported.
+ */
+public class MessagePackCodec implements Codec {
+
+    /**
+     * The media type of MessagePack.
+     */
+    public static final String CONTENT_TYPE = "application/x-msgpack";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeValue(value);
+        writer.flush();
+    }
+
+    @Override
+    public Object decode(InputStream in) throws IOException {
+        return new Reader(in).readValue();
+    }
+
+    /**
+     * Writes values to a stream through a single byte buffer.
+     */
+    private static final class Writer {
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+
+        public Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        public void writeValue(Object object) throws IOException {
+            if (object == null || object == JSONObject.NULL) {
+                writeByte(0xc0);
+            }
+            else if (object instanceof String) {
+                writeString((String)object);
+            }
+            else if (object instanceof Number) {
+                writeNumber((Number)object);
+            }
+            else if (object instanceof Boolean) {
+                writeByte((Boolean)object ? 0xc3 : 0xc2);
+            }
+            else if (object instanceof Map) {
+                Map<?,?> map = (Map<?,?>)object;
+                writeHeader(map.size(), 0x80, 0xde);
+                for (Map.Entry<?,?> entry : map.entrySet()) {
+                    writeString(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            }
+            else if (object instanceof List) {
+                List<?> list = (List<?>)object;
+                writeHeader(list.size(), 0x90, 0xdc);
+                for (Object value : list) {
+                    writeValue(value);
+                }
+            }
+            else if (object instanceof Iterable) {
+                List<Object> list = new ArrayList<Object>();
+                for (Object value : (Iterable<?>)object) {
+                    list.add(value);
+                }
+                writeValue(list);
+            }
+            else if (object instanceof double[]) {
+                double[] array = (double[])object;
+                writeHeader(array.length, 0x90, 0xdc);
+                for (int i = 0; i < array.length; i++) {
+                    writeDouble(array[i]);
+                }
+            }
+            else if (object instanceof int[]) {
+                int[] array = (int[])object;
+                writeHeader(array.length, 0x90, 0xdc);
+                for (int i = 0; i < array.length; i++) {
+                    writeLong(array[i]);
+                }
+            }
+            else if (object instanceof long[]) {
+                long[] array = (long[])object;
+                writeHeader(array.length, 0x90, 0xdc);
+                for (int i = 0; i < array.length; i++) {
+                    writeLong(array[i]);
+                }
+            }
+            else if (object.getClass().isArray()) {
+                int length = Array.getLength(object);
+                writeHeader(length, 0x90, 0xdc);
+                for (int i = 0; i < length; i++) {
+                    writeValue(Array.get(object, i));
+                }
+            }
+            else if (object instanceof JSONObject) {
+                JSONObject json = (JSONObject)object;
+                writeHeader(json.length(), 0x80, 0xde);
+                Iterator<?> keys = json.keys();
+                while (keys.hasNext()) {
+                    String key = (String)keys.next();
+                    writeString(key);
+                    writeValue(json.opt(key));
+                }
+            }
+            else if (object instanceof JSONArray) {
+                JSONArray json = (JSONArray)object;
+                writeHeader(json.length(), 0x90, 0xdc);
+                for (int i = 0; i < json.length(); i++) {
+                    writeValue(json.opt(i));
+                }
+            }
+            else {
+                writeString(object.toString());
+            }
+        }
+
+        /**
+         * Writes the header of a map or an array.
+         * @param fix The type of the fixed size form, for up to 15 entries.
+         * @param type16 The type of the 16 bit size form, followed by the
+         * 32 bit one.
+         */
+        private void writeHeader(int size, int fix, int type16)
+                throws IOException {
+            if (size < 16) {
+                writeByte(fix | size);
+            }
+            else if (size < 0x10000) {
+                writeByte(type16);
+                writeBytes(size, 2);
+            }
+            else {
+                writeByte(type16 + 1);
+                writeBytes(size, 4);
+            }
+        }
+
+        private void writeNumber(Number number) throws IOException {
+            if (number instanceof Integer || number instanceof Long ||
+                    number instanceof Short || number instanceof Byte) {
+                writeLong(number.longValue());
+            }
+            else if (number instanceof Float) {
+                float f = number.floatValue();
+                checkDouble(f);
+                long l = (long)f;
+                if (f == l && (l != 0 || 1 / f > 0)) {
+                    writeLong(l);
+                }
+                else {
+                    writeByte(0xca);
+                    writeBytes(Float.floatToIntBits(f), 4);
+                }
+            }
+            else {
+                writeDouble(number.doubleValue());
+            }
+        }
+
+        private void writeDouble(double d) throws IOException {
+            checkDouble(d);
+            // Like the JSON writer, integral values are written as integers.
+            long l = (long)d;
+            if (d == l && (l != 0 || 1 / d > 0)) {
+                writeLong(l);
+            }
+            else {
+                writeByte(0xcb);
+                writeBytes(Double.doubleToLongBits(d), 8);
+            }
+        }
+
+        private static void checkDouble(double d) {
+            if (Double.isInfinite(d) || Double.isNaN(d)) {
+                throw new IllegalArgumentException(
+                        "Numbers cannot be infinite or NaN.");
+            }
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (value >= -32 && value < 128) {
+                // Positive or negative fixint.
+                writeByte((int)value & 0xff);
+            }
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                writeByte(0xd0);
+                writeBytes(value, 1);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                writeByte(0xd1);
+                writeBytes(value, 2);
+            }
+            else if (value >= Integer.MIN_VALUE &&
+                    value <= Integer.MAX_VALUE) {
+                writeByte(0xd2);
+                writeBytes(value, 4);
+            }
+            else {
+                writeByte(0xd3);
+                writeBytes(value, 8);
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            int length = s.length();
+            // At most 3 bytes per char, as surrogate pairs take 4 for 2.
+            if (length * 3 + 5 <= buffer.length) {
+                int utf8 = utf8Length(s);
+                if (utf8 < 32) {
+                    writeByte(0xa0 | utf8);
+                }
+                else if (utf8 < 0x100) {
+                    writeByte(0xd9);
+                    writeBytes(utf8, 1);
+                }
+                else if (utf8 < 0x10000) {
+                    writeByte(0xda);
+                    writeBytes(utf8, 2);
+                }
+                else {
+                    writeByte(0xdb);
+                    writeBytes(utf8, 4);
+                }
+                if (buffer.length - count < utf8) {
+                    flushBuffer();
+                }
+                encodeUtf8(s);
+                return;
+            }
+            byte[] bytes = s.getBytes("UTF-8");
+            writeByte(0xdb);
+            writeBytes(bytes.length, 4);
+            flushBuffer();
+            out.write(bytes);
+        }
+
+        private static int utf8Length(String s) {
+            int length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                }
+                else if (c < 0x800) {
+                    length += 2;
+                }
+                else if (Character.isHighSurrogate(c) &&
+                        i + 1 < s.length() &&
+                        Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                }
+                else if (isSurrogate(c)) {
+                    length++;
+                }
+                else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        private void encodeUtf8(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer[count++] = (byte)c;
+                }
+                else if (c < 0x800) {
+                    buffer[count++] = (byte)(0xc0 | c >> 6);
+                    buffer[count++] = (byte)(0x80 | c & 0x3f);
+                }
+                else if (Character.isHighSurrogate(c) &&
+                        i + 1 < s.length() &&
+                        Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer[count++] = (byte)(0xf0 | cp >> 18);
+                    buffer[count++] = (byte)(0x80 | cp >> 12 & 0x3f);
+                    buffer[count++] = (byte)(0x80 | cp >> 6 & 0x3f);
+                    buffer[count++] = (byte)(0x80 | cp & 0x3f);
+                }
+                else if (isSurrogate(c)) {
+                    // A lone surrogate, replaced like String.getBytes() does.
+                    buffer[count++] = '?';
+                }
+                else {
+                    buffer[count++] = (byte)(0xe0 | c >> 12);
+                    buffer[count++] = (byte)(0x80 | c >> 6 & 0x3f);
+                    buffer[count++] = (byte)(0x80 | c & 0x3f);
+                }
+            }
+        }
+
+        private static boolean isSurrogate(char c) {
+            return c >= Character.MIN_SURROGATE &&
+                    c <= Character.MAX_SURROGATE;
+        }
+
+        private void writeByte(int b) throws IOException {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte)b;
+        }
+
+        /**
+         * Writes the lowest bytes of a value, big-endian.
+         */
+        private void writeBytes(long value, int length) throws IOException {
+            if (buffer.length - count < length) {
+                flushBuffer();
+            }
+            for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+                buffer[count++] = (byte)(value >>> shift);
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads values from a stream through a single byte buffer.
+     */
+    private static final class Reader {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+
+        public Reader(InputStream in) {
+            this.in = in;
+        }
+
+        public Object readValue() throws IOException {
+            int type = readByte();
+            if (type <= 0x7f) {
+                return type;
+            }
+            if (type >= 0xe0) {
+                return type - 0x100;
+            }
+            if (type <= 0x8f) {
+                return readMap(type & 0x0f);
+            }
+            if (type <= 0x9f) {
+                return readArray(type & 0x0f);
+            }
+            if (type <= 0xbf) {
+                return readString(type & 0x1f);
+            }
+            switch (type) {
+                case 0xc0:
+                    return null;
+                case 0xc2:
+                    return Boolean.FALSE;
+                case 0xc3:
+                    return Boolean.TRUE;
+                case 0xc4:
+                    return readBinary((int)readBytes(1));
+                case 0xc5:
+                    return readBinary((int)readBytes(2));
+                case 0xc6:
+                    return readBinary(readSize(4));
+                case 0xca:
+                    return (double)Float.intBitsToFloat((int)readBytes(4));
+                case 0xcb:
+                    return Double.longBitsToDouble(readBytes(8));
+                case 0xcc:
+                    return (int)readBytes(1);
+                case 0xcd:
+                    return (int)readBytes(2);
+                case 0xce:
+                    return narrow(readBytes(4));
+                case 0xcf:
+                    long unsigned = readBytes(8);
+                    // Beyond a long, like JSON numbers that are too large.
+                    return unsigned >= 0 ? narrow(unsigned)
+                            : (Number)((double)(unsigned >>> 1) * 2.0);
+                case 0xd0:
+                    return (int)(byte)readBytes(1);
+                case 0xd1:
+                    return (int)(short)readBytes(2);
+                case 0xd2:
+                    return (int)readBytes(4);
+                case 0xd3:
+                    return narrow(readBytes(8));
+                case 0xd9:
+                    return readString((int)readBytes(1));
+                case 0xda:
+                    return readString((int)readBytes(2));
+                case 0xdb:
+                    return readString(readSize(4));
+                case 0xdc:
+                    return readArray((int)readBytes(2));
+                case 0xdd:
+                    return readArray(readSize(4));
+                case 0xde:
+                    return readMap((int)readBytes(2));
+                case 0xdf:
+                    return readMap(readSize(4));
+                default:
+                    throw new IOException(String.format(
+                            "Unsupported MessagePack type: 0x%02x", type));
+            }
+        }
+
+        /**
+         * Converts an integer to the narrowest of Integer and Long, like
+         * JSON numbers.
+         */
+        private static Number narrow(long value) {
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int)value;
+            }
+            return value;
+        }
+
+        private Map<String, Object> readMap(int size) throws IOException {
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                Object key = readValue();
+                map.put(key instanceof String ? (String)key
+                        : String.valueOf(key), readValue());
+            }
+            return map;
+        }
+
+        private List<Object> readArray(int size) throws IOException {
+            List<Object> list = new ArrayList<Object>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                list.add(readValue());
+            }
+            return list;
+        }
+
+        private String readString(int length) throws IOException {
+            if (length <= limit - position) {
+                String s = new String(buffer, position, length, "UTF-8");
+                position += length;
+                return s;
+            }
+            return new String(readBinary(length), "UTF-8");
+        }
+
+        private byte[] readBinary(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int available = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, 0, available);
+            position += available;
+            int offset = available;
+            while (offset < length) {
+                int n = in.read(bytes, offset, length - offset);
+                if (n < 0) {
+                    throw new EOFException("Truncated MessagePack value");
+                }
+                offset += n;
+            }
+            return bytes;
+        }
+
+        /**
+         * Reads a 32 bit size, which must fit in an int.
+         */
+        private int readSize(int length) throws IOException {
+            long size = readBytes(length);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("MessagePack value too large: " + size);
+            }
+            return (int)size;
+        }
+
+        /**
+         * Reads an unsigned, big-endian value, except for 8 bytes, which
+         * are returned as is.
+         */
+        private long readBytes(int length) throws IOException {
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                value = value << 8 | readByte();
+            }
+            return value;
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("Truncated MessagePack value");
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * A remotable method bound to an {@link Adapter}, to invoke it repeatedly
+ * without resolving its name on every call, see
+ * {@link Adapter#bindStaticMethod(String)} and
+ * {@link Adapter#bindInstanceMethod(String)}.
+ * <p>
+ * This implementation only saves building the method name; adapters
+ * override it to also keep what they resolve from the name, e.g. the
+ * route of a {@link RestAdapter}. Handles are thread-safe.
+ */
+public class MethodHandle {
+
+    private final Adapter adapter;
+    private final String method;
+    private final boolean isStatic;
+
+    /**
+     * Creates a new handle.
+     * @param adapter The adapter to invoke the method with.
+     * @param method The method, e.g. <code>"module.doSomething"</code>.
+     * @param isStatic Whether the method is exposed statically, or within
+     * a prototype.
+     */
+    protected MethodHandle(Adapter adapter, String method, boolean isStatic) {
+        if (adapter == null || method == null) {
+            throw new IllegalArgumentException(
+                    "Neither adapter nor method can be null");
+        }
+        this.adapter = adapter;
+        this.method = method;
+        this.isStatic = isStatic;
+    }
+
+    /**
+     * Gets the adapter the method is invoked with.
+     * @return the adapter.
+     */
+    public Adapter getAdapter() {
+        return adapter;
+    }
+
+    /**
+     * Gets the name of the method.
+     * @return the method, e.g. <code>"module.doSomething"</code>.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets whether the method is exposed statically, or within a prototype.
+     * @return <code>true</code> if static, <code>false</code> otherwise.
+     */
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    /**
+     * Invokes the method, like
+     * {@link Adapter#invokeStaticMethod(String, Map, Adapter.Callback)} or
+     * {@link Adapter#invokeInstanceMethod(String, Map, Map,
+     * Adapter.Callback)}.
+     * @param constructorParameters The parameters the virtual object should
+     * be created with. Ignored for static methods.
+     * @param parameters The parameters to invoke with.
+     * @param callback The callback to invoke when the execution finishes.
+     */
+    public void invoke(Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters,
+            Adapter.Callback callback) {
+        if (isStatic) {
+            adapter.invokeStaticMethod(method, parameters, callback);
+        }
+        else {
+            adapter.invokeInstanceMethod(method, constructorParameters,
+                    parameters, callback);
+        }
+    }
+
+    /**
+     * Invokes the method, and returns the pending result rather than
+     * calling back.
+     * @see #invoke(Map, Map, Adapter.Callback)
+     * @param constructorParameters The parameters the virtual object should
+     * be created with. Ignored for static methods.
+     * @param parameters The parameters to invoke with.
+     * @return the future result.
+     */
+    public Future<Object> invoke(
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters) {
+        ResponseFuture future = new ResponseFuture();
+        invoke(constructorParameters, parameters, future);
+        return future;
+    }
+
+    @Override
+    public String toString() {
+        return method;
+    }
+}
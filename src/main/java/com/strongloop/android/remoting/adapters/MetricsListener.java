@@ -0,0 +1,22 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * Receives the {@link RequestMetrics} of every request a
+ * {@link RestAdapter} sends, e.g. to record production latency.
+ *
+ * @see HistogramMetricsListener
+ * @see RestAdapter#setMetricsListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+    /**
+     * The method invoked once a request has completed, after its callback
+     * was scheduled. It is invoked on a background thread, or on the
+     * calling thread if the request was never sent, so it must be thread
+     * safe and return quickly.
+     * @param metrics The metrics of the request.
+     */
+    public void onRequestCompleted(RequestMetrics metrics);
+}
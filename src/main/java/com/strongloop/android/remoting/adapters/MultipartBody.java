@@ -0,0 +1,364 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import android.os.ParcelFileDescriptor;
+
+/**
+ * A <code>multipart/form-data</code> request body. Parameters can be
+ * Strings, {@link File}s, {@link PartialFile}s, {@link InputStream}s,
+ * {@link ByteBuffer}s or {@link ParcelFileDescriptor}s. Content is streamed
+ * from its source when the body is written, through a single fixed size
+ * buffer, so files of any size can be sent.
+ * <p>
+ * If the length of a part cannot be known in advance (InputStreams and
+ * pipes), the body has no length and is sent with chunked transfer
+ * encoding.
+ * <p>
+ * Parameter names and file names are encoded so that they cannot break
+ * out of their <code>Content-Disposition</code> header, see
+ * {@link #encodeParameter(String, String)}.
+ */
+class MultipartBody extends HttpTransport.RequestBody {
+
+    /**
+     * Receives the progress of writing the body.
+     */
+    interface ProgressListener {
+
+        /**
+         * @param bytesWritten The number of bytes written so far.
+         * @param totalBytes The length of the body, or -1 if unknown.
+         * @throws IOException to abort the request.
+         */
+        void onProgress(long bytesWritten, long totalBytes)
+                throws IOException;
+    }
+
+    private static final char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            .toCharArray();
+
+    private static final char[] HEX_DIGITS =
+            "0123456789ABCDEF".toCharArray();
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Progress is reported at most this often, and every percent.
+    private static final long PROGRESS_INTERVAL = 64 * 1024;
+
+    private final String boundary;
+    private final List<byte[]> headers = new ArrayList<byte[]>();
+    private final List<Object> contents = new ArrayList<Object>();
+    private final byte[] trailer;
+    private long uploadOffset;
+    private ProgressListener listener;
+
+    /**
+     * Creates a body with the non-null parameters.
+     * @param parameters The parameters.
+     * @throws IllegalArgumentException if a parameter is of an unsupported
+     * type, a File cannot be read, or more than one {@link PartialFile}
+     * resumes an upload.
+     */
+    public MultipartBody(Map<String, ? extends Object> parameters) {
+        StringBuilder b = new StringBuilder(30);
+        Random random = new Random();
+        for (int i = 0; i < 30; i++) {
+            b.append(BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)]);
+        }
+        boundary = b.toString();
+
+        for (Map.Entry<String, ? extends Object> entry :
+                parameters.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            String disposition = "--" + boundary + "\r\n" +
+                    "Content-Disposition: form-data; " +
+                    encodeParameter("name", entry.getKey());
+            if (value instanceof String) {
+                headers.add(getBytes(disposition + "\r\n\r\n"));
+                contents.add(getBytes((String)value));
+                continue;
+            }
+
+            String filename = entry.getKey();
+            if (value instanceof File) {
+                value = new PartialFile((File)value, 0);
+            }
+            if (value instanceof PartialFile) {
+                PartialFile file = (PartialFile)value;
+                if (!file.getFile().isFile() || !file.getFile().canRead()) {
+                    throw new IllegalArgumentException(
+                            "Invalid File parameter");
+                }
+                filename = file.getFile().getName();
+                if (file.getOffset() > 0) {
+                    if (uploadOffset > 0) {
+                        throw new IllegalArgumentException(
+                                "Only one PartialFile can be resumed");
+                    }
+                    uploadOffset = file.getOffset();
+                }
+            }
+            else if (!(value instanceof InputStream) &&
+                    !(value instanceof ByteBuffer) &&
+                    !(value instanceof ParcelFileDescriptor)) {
+                throw new IllegalArgumentException(
+                        "Unknown param type for multipart request");
+            }
+            String contentType =
+                    URLConnection.guessContentTypeFromName(filename);
+            headers.add(getBytes(disposition + "; " +
+                    encodeParameter("filename", filename) + "\r\n" +
+                    "Content-Type: " + (contentType != null
+                            ? contentType : "application/octet-stream") +
+                    "\r\n" +
+                    "Content-Transfer-Encoding: binary\r\n\r\n"));
+            contents.add(value);
+        }
+        trailer = getBytes("--" + boundary + "--\r\n");
+    }
+
+    /**
+     * Gets the offset the upload of a {@link PartialFile} resumes from, to
+     * be sent in an <code>Upload-Offset</code> request header.
+     * @return the offset, or 0 if the body doesn't resume an upload.
+     */
+    public long getUploadOffset() {
+        return uploadOffset;
+    }
+
+    /**
+     * Sets the listener to report the progress of writing the body to.
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = trailer.length;
+        for (int i = 0; i < headers.size(); i++) {
+            long contentLength = getLength(contents.get(i));
+            if (contentLength < 0) {
+                return -1;
+            }
+            length += headers.get(i).length + contentLength + CRLF.length;
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        for (Object content : contents) {
+            if (content instanceof InputStream ||
+                    (content instanceof ParcelFileDescriptor &&
+                            getLength(content) < 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Progress progress = new Progress(out, getContentLength());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int i = 0; i < headers.size(); i++) {
+            progress.write(headers.get(i));
+            Object content = contents.get(i);
+            if (content instanceof byte[]) {
+                progress.write((byte[])content);
+            }
+            else if (content instanceof PartialFile) {
+                PartialFile file = (PartialFile)content;
+                FileInputStream in = new FileInputStream(file.getFile());
+                try {
+                    in.getChannel().position(file.getOffset());
+                    copy(in, progress, buffer);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            else if (content instanceof ParcelFileDescriptor) {
+                // The descriptor is owned by the caller, so the stream is
+                // not closed.
+                FileInputStream in = new FileInputStream(
+                        ((ParcelFileDescriptor)content).getFileDescriptor());
+                if (getLength(content) >= 0) {
+                    in.getChannel().position(0);
+                }
+                copy(in, progress, buffer);
+            }
+            else if (content instanceof InputStream) {
+                InputStream in = (InputStream)content;
+                try {
+                    copy(in, progress, buffer);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            else if (content instanceof ByteBuffer) {
+                ByteBuffer bytes = ((ByteBuffer)content).duplicate();
+                if (bytes.hasArray()) {
+                    progress.write(bytes.array(),
+                            bytes.arrayOffset() + bytes.position(),
+                            bytes.remaining());
+                }
+                else {
+                    while (bytes.hasRemaining()) {
+                        int count = Math.min(buffer.length,
+                                bytes.remaining());
+                        bytes.get(buffer, 0, count);
+                        progress.write(buffer, 0, count);
+                    }
+                }
+            }
+            progress.write(CRLF);
+        }
+        progress.write(trailer);
+        progress.finish();
+        out.flush();
+    }
+
+    private static long getLength(Object content) {
+        if (content instanceof byte[]) {
+            return ((byte[])content).length;
+        }
+        else if (content instanceof PartialFile) {
+            PartialFile file = (PartialFile)content;
+            return file.getLength() - file.getOffset();
+        }
+        else if (content instanceof ByteBuffer) {
+            return ((ByteBuffer)content).remaining();
+        }
+        else if (content instanceof ParcelFileDescriptor) {
+            return ((ParcelFileDescriptor)content).getStatSize();
+        }
+        return -1;
+    }
+
+    private static void copy(InputStream in, Progress out, byte[] buffer)
+            throws IOException {
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * Encodes a parameter of a <code>Content-Disposition</code> header as a
+     * quoted string. A value that is not printable ASCII, or that contains
+     * a quote or a backslash, is sent both as a quoted string with those
+     * characters replaced by <code>'_'</code>, and as an extended parameter
+     * in UTF-8, as of RFC 5987. Either way, the value cannot end the header
+     * or add another.
+     */
+    static String encodeParameter(String name, String value) {
+        StringBuilder quoted = new StringBuilder(value.length());
+        boolean plain = true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\') {
+                quoted.append('_');
+                plain = false;
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        String parameter = name + "=\"" + quoted + "\"";
+        if (plain) {
+            return parameter;
+        }
+        StringBuilder extended = new StringBuilder(parameter);
+        extended.append("; ").append(name).append("*=UTF-8''");
+        for (byte b : getBytes(value)) {
+            int c = b & 0xff;
+            // The attr-char of RFC 5987.
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') ||
+                    (c >= 'A' && c <= 'Z') || "!#$&+-.^_`|~".indexOf(c) >= 0) {
+                extended.append((char)c);
+            }
+            else {
+                extended.append('%');
+                extended.append(HEX_DIGITS[c >> 4]);
+                extended.append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        return extended.toString();
+    }
+
+    private static byte[] getBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Counts the bytes written and reports them to the listener.
+     */
+    private class Progress {
+
+        private final OutputStream out;
+        private final long total;
+        private final long interval;
+        private long written;
+        private long reported;
+
+        public Progress(OutputStream out, long total) {
+            this.out = out;
+            this.total = total;
+            this.interval = Math.max(PROGRESS_INTERVAL, total / 100);
+        }
+
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+            if (listener != null && written - reported >= interval) {
+                reported = written;
+                listener.onProgress(written, total);
+            }
+        }
+
+        public void finish() throws IOException {
+            if (listener != null && written != reported) {
+                reported = written;
+                listener.onProgress(written, total);
+            }
+        }
+    }
+}
@@ -0,0 +1,643 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+import com.strongloop.android.remoting.JsonUtil;
+import com.strongloop.android.remoting.adapters.Adapter.Callback;
+
+/**
+ * A durable queue of mutating calls, i.e. <code>POST</code>,
+ * <code>PUT</code> and <code>DELETE</code> requests, that survives
+ * network outages and restarts of the app.
+ * <p>
+ * Once the queue is set with
+ * {@link RestAdapter#setOfflineQueue(OfflineQueue)}, such calls are
+ * appended to the queue before they are sent, and removed once the server
+ * has responded. Calls that fail with a network error, or with a status
+ * that indicates a transient error, stay in the queue and are sent again,
+ * in order, by {@link RestAdapter#replayOfflineQueue()}, e.g. when the
+ * device connects to a network, see
+ * {@link RestAdapter#registerConnectivityReceiver(android.content.Context)}.
+ * Each failed replay delays the next one a little longer, see
+ * {@link #setRetryPolicy(RetryPolicy)}, and a call the server keeps
+ * answering with a transient error is eventually given up.
+ * <p>
+ * The callback of a call is only invoked once it has been sent
+ * successfully, rejected by the server, or given up. Callbacks don't
+ * survive a restart: they can be attached again to the calls found in
+ * {@link #getPending()} with {@link #setCallback(long, Callback)}.
+ * <p>
+ * The queue is kept in an append-only journal file, which is written and
+ * synced to the disk in order on a background thread, and compacted when
+ * it has no pending calls left, or when it is opened.
+ */
+public class OfflineQueue {
+
+    /**
+     * A queued call.
+     */
+    public static class Entry {
+
+        private final long id;
+        private final String method;
+        private final String verb;
+        private final String path;
+        private final Map<String, ? extends Object> parameters;
+        private final int attempts;
+
+        Entry(long id, String method, String verb, String path,
+                Map<String, ? extends Object> parameters, int attempts) {
+            this.id = id;
+            this.method = method;
+            this.verb = verb;
+            this.path = path;
+            this.parameters = parameters;
+            this.attempts = attempts;
+        }
+
+        /**
+         * Gets the id of the call, unique within its queue.
+         * @return the id.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the remote method name, e.g. <code>"widgets.create"</code>.
+         * @return the method name.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the HTTP verb.
+         * @return the verb.
+         */
+        public String getVerb() {
+            return verb;
+        }
+
+        /**
+         * Gets the path, with its parameters filled in.
+         * @return the path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the parameters, as read back from JSON.
+         * @return the parameters, or <code>null</code>.
+         */
+        public Map<String, ? extends Object> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Gets the number of times the server answered the call with a
+         * transient error, e.g. <code>503</code>.
+         * @return the number of attempts.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        private Entry withAttempts(int attempts) {
+            return new Entry(id, method, verb, path, parameters, attempts);
+        }
+    }
+
+    /**
+     * The default policy: a call is given up after the server answered it
+     * with a transient error 5 more times, and failed replays are delayed
+     * by about 1 second, growing up to a minute.
+     */
+    public static final RetryPolicy DEFAULT_RETRY_POLICY =
+            new RetryPolicy(5, 1000, 60 * 1000);
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte ATTEMPT = 3;
+
+    private final File file;
+    private final Map<Long, Callback> callbacks =
+            new ConcurrentHashMap<Long, Callback>();
+    // Guarded by this.
+    private final Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+    private long nextId = 1;
+    private int replayBatchSize = 1;
+    private RetryPolicy retryPolicy = DEFAULT_RETRY_POLICY;
+    private ExecutorService writer;
+    private boolean closed;
+    // Only used on the writer thread, once opened.
+    private FileOutputStream journal;
+
+    /**
+     * Opens the queue kept in the given file, creating it if needed. The
+     * file is read on the current thread, so the queue should not be
+     * opened on the main thread.
+     * @param file The journal file.
+     */
+    public OfflineQueue(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("The file cannot be null");
+        }
+        this.file = file;
+        synchronized (this) {
+            read();
+            compact(new ArrayList<Entry>(pending.values()));
+        }
+    }
+
+    /**
+     * Gets the maximum number of calls sent together in a batch when the
+     * queue is replayed.
+     * @return the number of calls.
+     */
+    public synchronized int getReplayBatchSize() {
+        return replayBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of calls sent together in a batch when the
+     * queue is replayed, see {@link RestAdapter#beginBatch()}. The default
+     * is 1, i.e. calls are sent one after the other. Only use batches if
+     * the server supports them, since all calls of a rejected batch are
+     * rejected.
+     * @param replayBatchSize The number of calls.
+     */
+    public synchronized void setReplayBatchSize(int replayBatchSize) {
+        if (replayBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid batch size: " + replayBatchSize);
+        }
+        this.replayBatchSize = replayBatchSize;
+    }
+
+    /**
+     * Gets the policy for sending calls again after they failed.
+     * @return the policy.
+     */
+    public synchronized RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy for sending calls again after they failed. After the
+     * <i>n</i>th replay in a row that failed, the queue is replayed again
+     * after {@link RetryPolicy#getDelay(int)} of <i>n - 1</i>. A call that
+     * the server answered with a transient error more than
+     * {@link RetryPolicy#getMaxRetries()} times is removed from the queue,
+     * and its callback receives the last error. Network errors don't count,
+     * since they are expected while the device is offline. The default is
+     * {@link #DEFAULT_RETRY_POLICY}.
+     * @param retryPolicy The policy.
+     */
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException(
+                    "The retry policy cannot be null");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the calls in the queue, in the order they were made.
+     * @return the calls.
+     */
+    public synchronized List<Entry> getPending() {
+        return Collections.unmodifiableList(
+                new ArrayList<Entry>(pending.values()));
+    }
+
+    /**
+     * Gets the number of calls in the queue.
+     * @return the number of calls.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Attaches the callback to invoke when a call completes, e.g. after the
+     * app was restarted. The callback must be attached before the call is
+     * sent again to be invoked when it completes.
+     * @param id The id of the call, see {@link Entry#getId()}.
+     * @param callback The callback, or <code>null</code> to detach it.
+     */
+    public void setCallback(long id, Callback callback) {
+        if (callback != null) {
+            callbacks.put(id, callback);
+        }
+        else {
+            callbacks.remove(id);
+        }
+    }
+
+    /**
+     * Gets the callback of a call.
+     * @return the callback, or <code>null</code> if there is none.
+     */
+    Callback getCallback(long id) {
+        return callbacks.get(id);
+    }
+
+    /**
+     * Detaches the callback of a call.
+     * @return the callback, or <code>null</code> if there is none.
+     */
+    Callback takeCallback(long id) {
+        return callbacks.remove(id);
+    }
+
+    /**
+     * Gets the first calls in the queue.
+     * @param count The maximum number of calls.
+     */
+    synchronized List<Entry> peek(int count) {
+        List<Entry> entries = new ArrayList<Entry>(
+                Math.min(count, pending.size()));
+        for (Entry entry : pending.values()) {
+            if (entries.size() == count) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Appends a call to the queue.
+     * @return the queued call.
+     * @throws IllegalArgumentException if the parameters cannot be
+     * converted to JSON.
+     * @throws IllegalStateException if the queue is closed.
+     */
+    synchronized Entry add(String method, String verb, String path,
+            Map<String, ? extends Object> parameters) {
+        if (closed) {
+            throw new IllegalStateException("The queue is closed");
+        }
+        Entry entry = new Entry(nextId, method, verb, path, parameters, 0);
+        byte[] record = toRecord(entry);
+        nextId++;
+        pending.put(entry.getId(), entry);
+        append(record);
+        return entry;
+    }
+
+    /**
+     * Removes a call from the queue once it completed.
+     */
+    synchronized void remove(long id) {
+        if (pending.remove(id) == null) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            final List<Entry> none = Collections.emptyList();
+            write(new Runnable() {
+
+                @Override
+                public void run() {
+                    compact(none);
+                }
+            });
+            return;
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        try {
+            out.writeByte(REMOVE);
+            out.writeLong(id);
+            out.flush();
+        }
+        catch (IOException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        append(record.toByteArray());
+    }
+
+    /**
+     * Counts a transient error the server answered a call with, and
+     * removes the call from the queue if the retry policy gives up on it.
+     * @return <code>true</code> if the call should be sent again.
+     */
+    synchronized boolean retry(long id) {
+        Entry entry = pending.get(id);
+        if (entry == null) {
+            return false;
+        }
+        int attempts = entry.getAttempts() + 1;
+        if (attempts > retryPolicy.getMaxRetries()) {
+            Log.w("OfflineQueue", "Gave up on " + entry.getVerb() + " " +
+                    entry.getPath() + " after " + attempts + " attempts");
+            remove(id);
+            return false;
+        }
+        pending.put(id, entry.withAttempts(attempts));
+        append(toAttemptRecord(id, attempts));
+        return true;
+    }
+
+    /**
+     * Writes the pending changes to the journal and closes it, e.g. before
+     * the queue is opened again from the same file. Calls can't be added
+     * afterwards.
+     */
+    public void close() {
+        ExecutorService writer;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writer = this.writer;
+        }
+        if (writer == null) {
+            return;
+        }
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                closeQuietly(journal);
+                journal = null;
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends a record to the journal on the writer thread.
+     */
+    private void append(final byte[] record) {
+        write(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    appendNow(record);
+                }
+                catch (IOException e) {
+                    // The call is still sent, it is only lost on a restart.
+                    Log.w("OfflineQueue", "Couldn't write queue entry", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a change of the journal on the writer thread, after those
+     * submitted before it. Only called while holding the lock, so that the
+     * journal is changed in the same order as the queue.
+     */
+    private void write(Runnable change) {
+        if (closed) {
+            return;
+        }
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OfflineQueue writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        writer.execute(change);
+    }
+
+    /**
+     * Appends a length-prefixed record to the journal, so that a record
+     * torn by a crash is detected and dropped when the journal is read.
+     */
+    private void appendNow(byte[] record) throws IOException {
+        if (journal == null) {
+            journal = new FileOutputStream(file, true);
+        }
+        writeRecord(journal, record);
+        journal.getFD().sync();
+    }
+
+    private static void writeRecord(OutputStream out, byte[] record)
+            throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(record.length);
+        data.write(record);
+        data.flush();
+    }
+
+    private static byte[] toRecord(Entry entry) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        try {
+            out.writeByte(ADD);
+            out.writeLong(entry.getId());
+            out.writeUTF(entry.getMethod());
+            out.writeUTF(entry.getVerb());
+            out.writeUTF(entry.getPath());
+            if (entry.getParameters() != null) {
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                JsonUtil.toJson(entry.getParameters(), json);
+                out.writeInt(json.size());
+                json.writeTo(out);
+            }
+            else {
+                out.writeInt(-1);
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        return record.toByteArray();
+    }
+
+    private static byte[] toAttemptRecord(long id, int attempts) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        try {
+            out.writeByte(ATTEMPT);
+            out.writeLong(id);
+            out.writeInt(attempts);
+            out.flush();
+        }
+        catch (IOException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        return record.toByteArray();
+    }
+
+    private void read() {
+        if (!file.exists()) {
+            return;
+        }
+        long validLength = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                readRecord(record);
+                validLength += 4 + length;
+            }
+        }
+        catch (IOException e) {
+            Log.w("OfflineQueue", "Dropped a torn queue entry", e);
+            truncate(validLength);
+        }
+        catch (JSONException e) {
+            Log.w("OfflineQueue", "Dropped an invalid queue entry", e);
+            truncate(validLength);
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void readRecord(byte[] record) throws IOException, JSONException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        if (type == REMOVE) {
+            pending.remove(id);
+            return;
+        }
+        if (type == ATTEMPT) {
+            int attempts = in.readInt();
+            Entry entry = pending.get(id);
+            if (entry != null) {
+                pending.put(id, entry.withAttempts(attempts));
+            }
+            return;
+        }
+        String method = in.readUTF();
+        String verb = in.readUTF();
+        String path = in.readUTF();
+        Map<String, Object> parameters = null;
+        int length = in.readInt();
+        if (length >= 0) {
+            byte[] json = new byte[length];
+            in.readFully(json);
+            parameters = JsonUtil.fromJson(
+                    new JSONObject(new String(json, "UTF-8")));
+        }
+        pending.put(id, new Entry(id, method, verb, path, parameters, 0));
+    }
+
+    private void truncate(long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+        }
+        catch (IOException e) {
+            Log.w("OfflineQueue", "Couldn't truncate the queue", e);
+        }
+        finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the given calls. If that fails, the
+     * old journal is kept.
+     */
+    private void compact(List<Entry> entries) {
+        closeQuietly(journal);
+        journal = null;
+        if (entries.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            for (Entry entry : entries) {
+                writeRecord(out, toRecord(entry));
+                if (entry.getAttempts() > 0) {
+                    writeRecord(out, toAttemptRecord(entry.getId(),
+                            entry.getAttempts()));
+                }
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + temp);
+            }
+        }
+        catch (IOException e) {
+            Log.w("OfflineQueue", "Couldn't compact the queue", e);
+            temp.delete();
+        }
+        finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+}
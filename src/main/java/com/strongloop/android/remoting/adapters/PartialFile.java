@@ -0,0 +1,73 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.File;
+
+/**
+ * A file parameter of a multipart request of which only the bytes from
+ * <code>offset</code> on are sent, to resume an interrupted upload.
+ * <p>
+ * The resume works as follows:
+ * <ol>
+ * <li>The client asks the server how many bytes of the upload it kept.
+ * How is specific to the server, e.g. a remote method that returns the
+ * size of the partial upload. A server that can't tell doesn't support
+ * resuming, and the file has to be sent again from offset 0.</li>
+ * <li>The client sends the multipart request with a
+ * <code>PartialFile</code> at that offset. The request carries an
+ * <code>Upload-Offset: offset</code> header, and the part holds the bytes
+ * from the offset on, under the usual part headers.</li>
+ * <li>The server appends the part to the bytes it kept if it has exactly
+ * <code>offset</code> of them, and answers <code>409 Conflict</code>
+ * otherwise, e.g. if it kept more bytes since step 1, so that the client
+ * starts over from step 1.</li>
+ * </ol>
+ * A request resumes the upload of a single file, so at most one
+ * <code>PartialFile</code> of a request can have an offset.
+ */
+public class PartialFile {
+
+    private final File file;
+    private final long offset;
+
+    /**
+     * Creates a new partial file.
+     * @param file The file.
+     * @param offset The number of bytes the server already has.
+     */
+    public PartialFile(File file, long offset) {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        if (offset < 0 || (offset > 0 && offset >= file.length())) {
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        }
+        this.file = file;
+        this.offset = offset;
+    }
+
+    /**
+     * Gets the file.
+     * @return the file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the offset of the first byte to send.
+     * @return the offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the length of the whole file.
+     * @return the length in bytes.
+     */
+    public long getLength() {
+        return file.length();
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A route pattern like <code>"/widgets/:id"</code>, split once into literal
+ * text and named parameters so that it can be rendered in a single pass.
+ *
+ * A parameter starts with <code>':'</code> and spans the longest run of
+ * letters, digits, <code>'_'</code> and <code>'$'</code> that follows it, so
+ * <code>":id"</code> never matches inside <code>":idx"</code>. Parameters
+ * without a value are rendered unchanged.
+ */
+final class PathTemplate {
+
+    private final String pattern;
+
+    // literals.length == names.length + 1; the rendered URL is
+    // literals[0] + value(names[0]) + literals[1] + ... + literals[n].
+    private final String[] literals;
+    private final String[] names;
+
+    private PathTemplate(String pattern, String[] literals, String[] names) {
+        this.pattern = pattern;
+        this.literals = literals;
+        this.names = names;
+    }
+
+    /**
+     * Parses <code>pattern</code> into a template.
+     * @param pattern The pattern to parse, e.g. <code>"/widgets/:id"</code>.
+     * @return the compiled template.
+     */
+    static PathTemplate compile(String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("Pattern cannot be null");
+        }
+
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+
+        int length = pattern.length();
+        int literalStart = 0;
+        int i = 0;
+        while (i < length) {
+            if (pattern.charAt(i) != ':') {
+                i++;
+                continue;
+            }
+            int nameStart = i + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < length &&
+                    isNameChar(pattern.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (nameEnd == nameStart) {
+                // A lone ':' is just part of the literal text.
+                i++;
+                continue;
+            }
+            literals.add(pattern.substring(literalStart, i));
+            names.add(pattern.substring(nameStart, nameEnd));
+            literalStart = nameEnd;
+            i = nameEnd;
+        }
+        literals.add(pattern.substring(literalStart));
+
+        return new PathTemplate(pattern,
+                literals.toArray(new String[literals.size()]),
+                names.toArray(new String[names.size()]));
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * Gets the pattern this template was compiled from.
+     * @return the pattern.
+     */
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Renders this template with the given parameters.
+     * @param parameters The values to render with. Can be <code>null</code>.
+     * @return the rendered URL.
+     */
+    String expand(Map<String, ? extends Object> parameters) {
+        if (names.length == 0 || parameters == null) {
+            return pattern;
+        }
+
+        StringBuilder url =
+                new StringBuilder(pattern.length() + 16 * names.length);
+        for (int i = 0; i < names.length; i++) {
+            url.append(literals[i]);
+            String name = names[i];
+            Object value = parameters.get(name);
+            if (value != null || parameters.containsKey(name)) {
+                url.append(String.valueOf(value));
+            }
+            else {
+                url.append(':').append(name);
+            }
+        }
+        url.append(literals[names.length]);
+        return url.toString();
+    }
+}
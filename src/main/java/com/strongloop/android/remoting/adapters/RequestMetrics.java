@@ -0,0 +1,284 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+/**
+ * The timings and sizes of a single remote method call, reported to a
+ * {@link MetricsListener}. All times are in nanoseconds, and are -1 if the
+ * step did not happen, e.g. a response that was served from the cache has
+ * no time to first byte.
+ * <p>
+ * The transports don't expose DNS and connection times, these are part of
+ * the time to first byte.
+ */
+public class RequestMetrics {
+
+    private final String method;
+    private final MetricsListener listener;
+    private final long startTime = System.nanoTime();
+    private volatile String verb;
+    private volatile String url;
+    private volatile long contractTime = -1;
+    private volatile long urlBuildTime = -1;
+    private volatile long serializationTime = -1;
+    private volatile long sendTime = -1;
+    private volatile long timeToFirstByte = -1;
+    private volatile long parseTime = -1;
+    private volatile long totalTime = -1;
+    private volatile long requestBytes = -1;
+    private volatile long responseBytes = -1;
+    private volatile int statusCode;
+    private volatile int retryCount;
+    private volatile boolean cacheHit;
+    private volatile boolean coalesced;
+    private volatile Throwable error;
+    private volatile boolean reported;
+
+    /**
+     * Starts measuring a call.
+     * @param method The remote method name, e.g.
+     * <code>"widgets.find"</code>.
+     * @param listener The listener to report the metrics to.
+     */
+    RequestMetrics(String method, MetricsListener listener) {
+        this.method = method;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the remote method name, e.g. <code>"widgets.find"</code>, or
+     * <code>"batch"</code> for a batch request.
+     * @return the method name.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets the HTTP verb.
+     * @return the verb, or <code>null</code> if the call failed before
+     * the request was built.
+     */
+    public String getVerb() {
+        return verb;
+    }
+
+    /**
+     * Gets the request URL, including the query string.
+     * @return the URL, or <code>null</code> if the call failed before the
+     * request was built.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Gets the time spent looking up the method in the contract and
+     * filling in its URL pattern.
+     * @return the time in nanoseconds.
+     */
+    public long getContractTime() {
+        return contractTime;
+    }
+
+    /**
+     * Gets the time spent building the complete URL, including the query
+     * string.
+     * @return the time in nanoseconds.
+     */
+    public long getUrlBuildTime() {
+        return urlBuildTime;
+    }
+
+    /**
+     * Gets the time spent serializing the request body. The body is
+     * streamed while it is sent, so this is the time of a separate pass
+     * that computes its length.
+     * @return the time in nanoseconds, or -1 if there is no body.
+     */
+    public long getSerializationTime() {
+        return serializationTime;
+    }
+
+    /**
+     * Gets the time from handing the request to the transport until the
+     * response headers of its last attempt were received, including
+     * queueing, DNS lookup, connecting and sending the body.
+     * @return the time in nanoseconds, or -1 if there was no response.
+     */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * Gets the time spent parsing the JSON response.
+     * @return the time in nanoseconds, or -1 if it was not parsed.
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * Gets the time from the call until its callback was scheduled,
+     * including retries.
+     * @return the time in nanoseconds.
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Gets the number of bytes of the request body sent in the last
+     * attempt, after compression.
+     * @return the number of bytes, or -1 if no request was sent.
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * Gets the number of bytes of the response body read, after
+     * decompression.
+     * @return the number of bytes, or -1 if there was no response.
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Gets the HTTP status code of the response.
+     * @return the status code, or 0 if there was no response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets the number of times the request was retried.
+     * @return the number of retries.
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Gets whether the response was served from the
+     * {@link ResponseCache} without a request.
+     * @return <code>true</code> for a cache hit.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * Gets whether the call shared the response of an identical request
+     * in flight, rather than sending its own.
+     * @return <code>true</code> if the request was coalesced.
+     */
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Gets the error the call failed with.
+     * @return the error, or <code>null</code> if it succeeded.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Gets whether the call succeeded.
+     * @return <code>true</code> unless there is an error.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + verb + " " + url + " " +
+                (error != null ? error.toString() : String.valueOf(statusCode)) +
+                " " + totalTime / 1000000 + " ms";
+    }
+
+    static long elapsed(long since) {
+        return System.nanoTime() - since;
+    }
+
+    void setRequest(String verb, String url) {
+        this.verb = verb;
+        this.url = url;
+    }
+
+    void setContractTime(long contractTime) {
+        this.contractTime = contractTime;
+    }
+
+    void setUrlBuildTime(long urlBuildTime) {
+        this.urlBuildTime = urlBuildTime;
+    }
+
+    void setSerializationTime(long serializationTime) {
+        this.serializationTime = serializationTime;
+    }
+
+    /**
+     * Records that an attempt was handed to the transport.
+     */
+    void markSent() {
+        sendTime = System.nanoTime();
+    }
+
+    /**
+     * Records that the response headers of an attempt were received.
+     */
+    void markResponse(int statusCode) {
+        this.statusCode = statusCode;
+        if (sendTime >= 0) {
+            timeToFirstByte = elapsed(sendTime);
+        }
+    }
+
+    void setParseTime(long parseTime) {
+        this.parseTime = parseTime;
+    }
+
+    void setRequestBytes(long requestBytes) {
+        this.requestBytes = requestBytes;
+    }
+
+    void setResponseBytes(long responseBytes) {
+        this.responseBytes = responseBytes;
+    }
+
+    void incrementRetryCount() {
+        retryCount++;
+    }
+
+    void setCacheHit() {
+        cacheHit = true;
+    }
+
+    void setCoalesced() {
+        coalesced = true;
+    }
+
+    void setError(Throwable error) {
+        this.error = error;
+    }
+
+    /**
+     * Completes the metrics and reports them, unless they already were.
+     */
+    void report() {
+        synchronized (this) {
+            if (reported) {
+                return;
+            }
+            reported = true;
+        }
+        totalTime = elapsed(startTime);
+        listener.onRequestCompleted(this);
+    }
+}
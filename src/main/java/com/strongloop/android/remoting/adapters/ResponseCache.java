@@ -0,0 +1,218 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of GET responses, keyed by the complete request URL including the
+ * query string. {@link RestAdapter} serves fresh entries without a request
+ * and revalidates stale ones with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, reusing the cached body on a
+ * <code>304 Not Modified</code> response.
+ * <p>
+ * Each entry records a digest of the headers its request was sent with,
+ * e.g. <code>Authorization</code> or an access token, and is only used for
+ * requests with the same headers, so that responses are never shared
+ * between users. This also honors any <code>Vary</code> header, except
+ * <code>Vary: *</code>, whose responses are not stored. The entry of a URL
+ * is removed once a <code>POST</code>, <code>PUT</code> or
+ * <code>DELETE</code> request to it has succeeded.
+ * <p>
+ * Subclasses provide the storage, the hit and miss counters are maintained
+ * by the adapter. The adapter calls the storage methods on background
+ * threads, so they may access the disk.
+ *
+ * @see LruResponseCache
+ * @see RestAdapter#setResponseCache(ResponseCache)
+ */
+public abstract class ResponseCache {
+
+    /**
+     * A single cached response.
+     */
+    public static class Entry {
+
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+        private final long expires;
+        private final String variant;
+
+        /**
+         * Creates a new entry for a request sent without headers.
+         * @param body The response body.
+         * @param etag The <code>ETag</code> header, or <code>null</code>.
+         * @param lastModified The <code>Last-Modified</code> header, or
+         * <code>null</code>.
+         * @param expires The time the entry must be revalidated after, in
+         * milliseconds since the epoch.
+         */
+        public Entry(String body, String etag, String lastModified,
+                long expires) {
+            this(body, etag, lastModified, expires, null);
+        }
+
+        /**
+         * Creates a new entry.
+         * @param body The response body.
+         * @param etag The <code>ETag</code> header, or <code>null</code>.
+         * @param lastModified The <code>Last-Modified</code> header, or
+         * <code>null</code>.
+         * @param expires The time the entry must be revalidated after, in
+         * milliseconds since the epoch.
+         * @param variant The digest of the request headers, see
+         * {@link #getVariant()}.
+         */
+        public Entry(String body, String etag, String lastModified,
+                long expires, String variant) {
+            if (body == null) {
+                throw new IllegalArgumentException("Body cannot be null");
+            }
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.variant = variant;
+        }
+
+        /**
+         * Gets the response body.
+         * @return the body.
+         */
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * Gets the <code>ETag</code> header of the response.
+         * @return the entity tag, or <code>null</code>.
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Gets the <code>Last-Modified</code> header of the response.
+         * @return the last modified date, or <code>null</code>.
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Gets the time this entry must be revalidated after.
+         * @return the expiration time in milliseconds since the epoch.
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+        /**
+         * Gets the digest of the headers the request was sent with. Only
+         * requests with the same digest use this entry.
+         * @return the digest, or <code>null</code> if the request had no
+         * headers.
+         */
+        public String getVariant() {
+            return variant;
+        }
+
+        /**
+         * Gets whether this entry can be used for a request.
+         * @param variant The digest of the request headers, or
+         * <code>null</code> if it has none.
+         * @return <code>true</code> if the digests are the same.
+         */
+        public boolean matches(String variant) {
+            return this.variant == null
+                    ? variant == null : this.variant.equals(variant);
+        }
+
+        /**
+         * Gets whether this entry can be used without revalidation.
+         * @param now The current time in milliseconds since the epoch.
+         * @return <code>true</code> if the entry is fresh.
+         */
+        public boolean isFresh(long now) {
+            return now < expires;
+        }
+
+        /**
+         * Gets whether this entry can be revalidated with a conditional
+         * request.
+         * @return <code>true</code> if the entry has a validator.
+         */
+        public boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger conditionalHitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * Gets the entry for the given URL.
+     * @param key The request URL.
+     * @return the entry, or <code>null</code> if there is none.
+     */
+    public abstract Entry get(String key);
+
+    /**
+     * Stores the entry for the given URL, replacing any existing one.
+     * @param key The request URL.
+     * @param entry The entry to store.
+     */
+    public abstract void put(String key, Entry entry);
+
+    /**
+     * Removes the entry for the given URL, if any.
+     * @param key The request URL.
+     */
+    public abstract void remove(String key);
+
+    /**
+     * Removes all entries.
+     */
+    public abstract void clear();
+
+    /**
+     * Gets the number of requests served from a fresh entry, without
+     * contacting the server.
+     * @return the hit count.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Gets the number of requests served from a stale entry after the
+     * server responded with <code>304 Not Modified</code>.
+     * @return the conditional hit count.
+     */
+    public int getConditionalHitCount() {
+        return conditionalHitCount.get();
+    }
+
+    /**
+     * Gets the number of requests for which the server sent a full
+     * response.
+     * @return the miss count.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordConditionalHit() {
+        conditionalHitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+}
@@ -0,0 +1,145 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of a remote method call, see
+ * {@link Adapter#invokeStaticMethod(String, java.util.Map)}. The result is
+ * the parsed JSON response, the same value a
+ * {@link Adapter.JsonCallback} receives.
+ * <p>
+ * The future is completed on the network thread, so {@link #get()} can be
+ * called on any thread, including one with a
+ * {@link android.os.Looper}, although blocking the main thread is not
+ * recommended. Several calls can be started at once and joined by getting
+ * each result in turn.
+ * <p>
+ * Cancelling the future also cancels the HTTP request, if it was sent on
+ * its own rather than in a batch.
+ */
+public class ResponseFuture extends Adapter.JsonCallback
+        implements Future<Object> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    // Guarded by this.
+    private Object result;
+    private Throwable error;
+    private boolean cancelled;
+    private boolean mayInterruptIfRunning;
+    private Future<?> request;
+    private Runnable cancelListener;
+
+    @Override
+    public void onSuccess(Object response) {
+        complete(response, null, false);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        complete(null, t, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Future<?> request;
+        Runnable cancelListener;
+        synchronized (this) {
+            if (!complete(null, null, true)) {
+                return false;
+            }
+            this.mayInterruptIfRunning = mayInterruptIfRunning;
+            request = this.request;
+            cancelListener = this.cancelListener;
+        }
+        if (request != null) {
+            request.cancel(mayInterruptIfRunning);
+        }
+        if (cancelListener != null) {
+            cancelListener.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public Object get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public Object get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException,
+            TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    /**
+     * Sets the HTTP request to cancel along with this future.
+     */
+    void setRequest(Future<?> request) {
+        synchronized (this) {
+            this.request = request;
+            if (!cancelled) {
+                return;
+            }
+        }
+        request.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * Sets the action to run when the future is cancelled, e.g. to end the
+     * replay of a queued call whose request may never complete. Runs it
+     * right away if the future is already cancelled.
+     */
+    void setCancelListener(Runnable cancelListener) {
+        synchronized (this) {
+            this.cancelListener = cancelListener;
+            if (!cancelled) {
+                return;
+            }
+        }
+        cancelListener.run();
+    }
+
+    private synchronized boolean complete(Object result, Throwable error,
+            boolean cancelled) {
+        if (isDone()) {
+            return false;
+        }
+        this.result = result;
+        this.error = error;
+        this.cancelled = cancelled;
+        done.countDown();
+        return true;
+    }
+
+    private synchronized Object getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+}
@@ -2,32 +2,62 @@
 
 package com.strongloop.android.remoting.adapters;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.message.BasicHeader;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.ConnectivityManager;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import com.loopj.android.http.AsyncHttpClient;
-import com.loopj.android.http.AsyncHttpResponseHandler;
-import com.loopj.android.http.BinaryHttpResponseHandler;
 import com.loopj.android.http.RequestParams;
 import com.strongloop.android.remoting.JsonUtil;
 
@@ -38,19 +68,112 @@ import com.strongloop.android.remoting.JsonUtil;
  * <code>RestAdapter</code> contains a single {@link RestContract} to map
  * remote methods to custom HTTP routes. This is only required if the HTTP
  * settings have been customized on the server. When in doubt, try without.
+ * <p>
+ * Requests are executed by an {@link HttpTransport}, a
+ * {@link LoopjTransport} unless another one is set. Responses are read and
+ * parsed on the transport's threads, and only the final delivery is posted
+ * to the callback thread: the looper of the thread that made the call, or
+ * the executor set with {@link #setCallbackExecutor(Executor)}.
  *
  * @see RestContract
  */
 public class RestAdapter extends Adapter {
 
     private HttpClient client;
+    private HttpTransport transport;
     private RestContract contract;
+    private ResponseCache responseCache;
+    private Codec codec;
+    private boolean encodeRequests;
+    private Executor callbackExecutor;
+    private int compressionThreshold = 1024;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+    private MetricsListener metricsListener;
+    private OfflineQueue offlineQueue;
+    private final Object offlineQueueLock = new Object();
+    // Guarded by offlineQueueLock.
+    private boolean replaying;
+    private int replayFailures;
+    private volatile Handler replayHandler;
+
+    private final Object batchLock = new Object();
+    private String batchPath = "batch";
+    private String routesPath = "routes";
+    private long batchWindow;
+    private boolean batchOpen;
+    private List<BatchedRequest> batch;
+    private Handler batchHandler;
+    private final Runnable batchFlusher = new Runnable() {
+
+        @Override
+        public void run() {
+            flushBatch();
+        }
+    };
 
     public RestAdapter(Context context, String url) {
         super(context, url);
         this.contract = new RestContract();
     }
 
+    /**
+     * Creates a new adapter that executes its requests with the given
+     * transport, connecting it to <code>url</code>.
+     * @param url The URL to connect to.
+     * @param transport The transport.
+     */
+    public RestAdapter(Context context, String url, HttpTransport transport) {
+        super(context, null);
+        this.contract = new RestContract();
+        setTransport(transport);
+        if (url != null) {
+            connect(context, url);
+        }
+    }
+
+    /**
+     * Creates a new adapter that executes its requests on
+     * <code>networkExecutor</code>, and invokes its callbacks on
+     * <code>callbackExecutor</code>, connecting it to <code>url</code>.
+     * @param url The URL to connect to.
+     * @param networkExecutor The executor for the HTTP requests.
+     * @param callbackExecutor The executor for the callbacks, or
+     * <code>null</code> for the looper of the calling thread.
+     */
+    public RestAdapter(Context context, String url,
+            ExecutorService networkExecutor, Executor callbackExecutor) {
+        this(context, url, new LoopjTransport(networkExecutor));
+        setCallbackExecutor(callbackExecutor);
+    }
+
+    /**
+     * Gets the transport used to execute requests.
+     * @return the transport, or <code>null</code> if the adapter has not
+     * been connected yet and none was set.
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used to execute requests, e.g. a
+     * {@link UrlConnectionTransport}. Requests already started are not
+     * affected.
+     * @param transport The transport.
+     */
+    public void setTransport(HttpTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null");
+        }
+        this.transport = transport;
+        if (client != null) {
+            client.setTransport(transport);
+        }
+    }
+
     /**
      * Gets this adapter's {@link RestContract}, a custom contract for
      * fine-grained route configuration.
@@ -69,12 +192,648 @@ public class RestAdapter extends Adapter {
         this.contract = contract;
     }
 
+    /**
+     * Gets the path of the server's batch handler, relative to the base URL.
+     * @return the batch path.
+     */
+    public String getBatchPath() {
+        return batchPath;
+    }
+
+    /**
+     * Sets the path of the server's batch handler, relative to the base URL.
+     * The default is <code>"batch"</code>.
+     * @param batchPath The batch path.
+     */
+    public void setBatchPath(String batchPath) {
+        if (batchPath == null) {
+            throw new IllegalArgumentException("Batch path cannot be null");
+        }
+        this.batchPath = batchPath;
+    }
+
+    /**
+     * Gets the path the server describes its routes at, relative to the
+     * base URL.
+     * @return the routes path.
+     */
+    public String getRoutesPath() {
+        return routesPath;
+    }
+
+    /**
+     * Sets the path the server describes its routes at, relative to the
+     * base URL, see {@link #discoverContract(File, long, Callback)}. The
+     * default is <code>"routes"</code>.
+     * @param routesPath The routes path.
+     */
+    public void setRoutesPath(String routesPath) {
+        if (routesPath == null) {
+            throw new IllegalArgumentException("Routes path cannot be null");
+        }
+        this.routesPath = routesPath;
+    }
+
+    /**
+     * Fills the contract with the routes the server describes at
+     * {@link #getRoutesPath()}, instead of adding each item by hand. The
+     * routes are kept in <code>cacheFile</code>, and loaded from it into
+     * the contract right away on the next start, before this method
+     * returns. They are only fetched again once they are older than
+     * <code>maxAge</code>, and then only sent again if the server has
+     * changed them, see {@link RestContract#addItemsFromRoutes(JSONArray)}.
+     * <p>
+     * Fetched routes are added to the contract on the callback thread,
+     * just before the callback is invoked. Until then, calls to methods
+     * without an item use the default routes.
+     * @param cacheFile The file to keep the routes in, e.g. in
+     * {@link Context#getCacheDir()}, or <code>null</code> to always fetch
+     * them.
+     * @param maxAge How long, in milliseconds, the routes in the file are
+     * used without asking the server.
+     * @param callback The callback to invoke with the version of the
+     * routes, once they are in the contract, or <code>null</code>.
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     */
+    public void discoverContract(File cacheFile, long maxAge,
+            Callback callback) {
+        if (contract == null) {
+            throw new IllegalStateException("Invalid contract");
+        }
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+        ContractDiscovery discovery = new ContractDiscovery(contract,
+                client.getUrl(routesPath), cacheFile, callback,
+                callbackExecutor);
+        if (discovery.isFresh(maxAge)) {
+            discovery.deliverCached();
+        }
+        else {
+            client.fetch(discovery);
+        }
+    }
+
+    /**
+     * Gets the time calls are queued for before they are sent as a single
+     * batch request.
+     * @return the batch window in milliseconds, 0 if disabled.
+     */
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Sets the time calls are queued for before they are sent as a single
+     * batch request. The window starts with the first queued call and the
+     * batch is sent from the thread that made it, or the main thread if that
+     * thread has no {@link android.os.Looper}.
+     * <p>
+     * Multipart calls are never batched.
+     * @param batchWindow The batch window in milliseconds, 0 to disable
+     * automatic batching (the default).
+     */
+    public void setBatchWindow(long batchWindow) {
+        if (batchWindow < 0) {
+            throw new IllegalArgumentException(
+                    "Batch window cannot be negative");
+        }
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * Starts queueing calls until {@link #flushBatch()} is called, at which
+     * point they are sent to the server as a single batch request. Each
+     * callback still receives its own response.
+     * <p>
+     * Multipart calls are never batched.
+     */
+    public void beginBatch() {
+        synchronized (batchLock) {
+            batchOpen = true;
+        }
+    }
+
+    /**
+     * Sends all queued calls as a single batch request and ends the batch
+     * started with {@link #beginBatch()}, if any. A single queued call is
+     * sent as a regular request.
+     */
+    public void flushBatch() {
+        List<BatchedRequest> requests;
+        synchronized (batchLock) {
+            requests = batch;
+            batch = null;
+            batchOpen = false;
+            if (batchHandler != null) {
+                batchHandler.removeCallbacks(batchFlusher);
+                batchHandler = null;
+            }
+        }
+        if (requests == null || requests.isEmpty()) {
+            return;
+        }
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+
+        if (requests.size() == 1) {
+            BatchedRequest request = requests.get(0);
+            client.request(request.verb, request.path, request.parameters,
+                    HttpClient.ParameterEncoding.JSON, request.options,
+                    request.callback);
+            return;
+        }
+
+        // The batch is only compressed if all of its routes accept that,
+        // and only retried if all of them are idempotent. It mixes routes,
+        // so it is not subject to their circuit breakers.
+        boolean compress = true;
+        boolean retry = true;
+        List<Object> items = new ArrayList<Object>(requests.size());
+        for (BatchedRequest request : requests) {
+            compress &= request.options.compressionThreshold >= 0;
+            retry &= request.options.retryPolicy != null;
+            Map<String, Object> item = new HashMap<String, Object>();
+            item.put("verb", request.verb.toUpperCase());
+            item.put("path", request.path);
+            if (request.parameters != null) {
+                if (hasQueryParameters(request.verb)) {
+                    item.put("query", buildUrlQueryParameters(
+                            request.parameters));
+                }
+                else {
+                    item.put("body", request.parameters);
+                }
+            }
+            items.add(item);
+        }
+        client.request("POST", batchPath,
+                Collections.singletonMap("requests", items),
+                HttpClient.ParameterEncoding.JSON,
+                new RequestOptions(compress ? compressionThreshold : -1,
+                        retry ? retryPolicy : null, null,
+                        createMetrics("batch"), null),
+                new BatchCallback(requests, callbackExecutor));
+    }
+
+    /**
+     * Gets the cache used for GET requests.
+     * @return the cache, or <code>null</code> if caching is disabled.
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache used for GET requests. Responses are cached according
+     * to their <code>Cache-Control</code>, <code>ETag</code> and
+     * <code>Last-Modified</code> headers. Multipart requests and requests
+     * with a {@link Adapter.StreamingCallback} are never cached.
+     * @param responseCache The cache, or <code>null</code> to disable
+     * caching (the default).
+     * @see LruResponseCache
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        if (client != null) {
+            client.setResponseCache(responseCache);
+        }
+    }
+
+    /**
+     * Gets the codec offered to the server as an alternative to JSON.
+     * @return the codec, or <code>null</code> if only JSON is used.
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets a codec, e.g. the {@link MessagePackCodec}, to offer to the
+     * server as an alternative to JSON. It is listed first in the
+     * <code>Accept</code> header of calls with a
+     * {@link Adapter.JsonCallback} or a future, and responses with its
+     * <code>Content-Type</code> are decoded with it. Request bodies are
+     * still sent as JSON, see {@link #setCodec(Codec, boolean)}.
+     * <p>
+     * Cached responses, downloads and calls with any other callback are
+     * still requested as JSON.
+     * @param codec The codec, or <code>null</code> to only use JSON (the
+     * default).
+     */
+    public void setCodec(Codec codec) {
+        setCodec(codec, false);
+    }
+
+    /**
+     * Sets a codec to offer to the server as an alternative to JSON, as
+     * {@link #setCodec(Codec)} does, and whether request bodies may be
+     * sent in it too.
+     * <p>
+     * Responding in a format doesn't mean a server accepts requests in it,
+     * so only enable this for servers known to. Request bodies are then
+     * sent in the codec's format once the server has responded in it. If
+     * the server rejects one with <code>415 Unsupported Media Type</code>,
+     * the request is sent again as JSON, and so are all those after it,
+     * until the codec is set again.
+     * @param codec The codec, or <code>null</code> to only use JSON (the
+     * default).
+     * @param encodeRequests Whether to send request bodies in the codec's
+     * format.
+     */
+    public void setCodec(Codec codec, boolean encodeRequests) {
+        this.codec = codec;
+        this.encodeRequests = codec != null && encodeRequests;
+        if (client != null) {
+            client.setCodec(codec, this.encodeRequests);
+        }
+    }
+
+    /**
+     * Gets whether request bodies may be sent in the format of the codec.
+     * @return <code>true</code> if they may, or <code>false</code> if they
+     * are always sent as JSON (the default).
+     */
+    public boolean isEncodingRequests() {
+        return encodeRequests;
+    }
+
+    /**
+     * Gets the executor that callbacks are invoked on.
+     * @return the executor, or <code>null</code> if callbacks are invoked
+     * on the looper of the thread that made the call.
+     */
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Sets the executor that callbacks are invoked on. By default, they are
+     * posted to the looper of the thread that made the call, or invoked on
+     * the network thread if it has none. Either way, responses are parsed
+     * before, on the network thread.
+     * @param callbackExecutor The executor, or <code>null</code> for the
+     * default.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        if (client != null) {
+            client.setCallbackExecutor(callbackExecutor);
+        }
+    }
+
+    /**
+     * Gets the listener that receives the metrics of every request.
+     * @return the listener, or <code>null</code> if none is set.
+     */
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the listener that receives the metrics of every request, e.g. a
+     * {@link HistogramMetricsListener}. Requests sent in a batch are
+     * reported as a single request of the <code>"batch"</code> method.
+     * @param metricsListener The listener, or <code>null</code> to stop
+     * collecting metrics.
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Gets the queue that mutating calls are kept in until they are sent.
+     * @return the queue, or <code>null</code> if there is none.
+     */
+    public OfflineQueue getOfflineQueue() {
+        return offlineQueue;
+    }
+
+    /**
+     * Sets the queue that mutating calls are kept in until they are sent,
+     * so that they are not lost while there is no network, and starts
+     * replaying the calls left in it. Only calls with JSON parameters are
+     * queued; multipart uploads and calls with a
+     * {@link Adapter.StreamingCallback} are sent as usual. Replays that
+     * continue after a call completes are started on the thread that set
+     * the queue, if it has a looper.
+     * @param offlineQueue The queue, or <code>null</code> to send calls
+     * right away.
+     */
+    public void setOfflineQueue(OfflineQueue offlineQueue) {
+        Looper looper = Looper.myLooper();
+        this.replayHandler = looper != null ? new Handler(looper) : null;
+        this.offlineQueue = offlineQueue;
+        replayOfflineQueue();
+    }
+
+    /**
+     * Sends the calls in the offline queue, in order, until the queue is
+     * empty or a call fails with a transient error, in which case the
+     * queue is replayed again after a delay, see
+     * {@link OfflineQueue#setRetryPolicy(RetryPolicy)}. Does nothing if the
+     * queue is already being replayed, or waiting to be.
+     */
+    public void replayOfflineQueue() {
+        OfflineQueue queue = offlineQueue;
+        if (queue == null || !isConnected()) {
+            return;
+        }
+        List<OfflineQueue.Entry> entries;
+        synchronized (offlineQueueLock) {
+            if (replaying) {
+                return;
+            }
+            entries = peekReplayable(queue);
+            if (entries.isEmpty()) {
+                return;
+            }
+            replaying = true;
+        }
+        if (LOG) {
+            Log.i("RestAdapter", "Replaying " + entries.size() +
+                    " queued calls");
+        }
+        ReplayRound round = new ReplayRound(entries.size());
+        if (entries.size() > 1) {
+            beginBatch();
+        }
+        for (OfflineQueue.Entry entry : entries) {
+            String method = entry.getMethod();
+            boolean isCompressed = contract != null &&
+                    contract.getIsCompressedForMethod(method);
+            request(entry.getPath(), entry.getVerb(), entry.getParameters(),
+                    new RequestOptions(
+                            isCompressed ? compressionThreshold : -1,
+                            null, getCircuitBreaker(method),
+                            createMetrics(method), contract != null
+                                    ? contract.getHeadersForMethod(method)
+                                    : null),
+                    createReplayCallback(new QueuedCall(queue, entry, round)));
+        }
+        if (entries.size() > 1) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Gets the next calls to replay, dropping those whose future was
+     * cancelled while they were waiting.
+     */
+    private static List<OfflineQueue.Entry> peekReplayable(
+            OfflineQueue queue) {
+        while (true) {
+            List<OfflineQueue.Entry> entries =
+                    queue.peek(queue.getReplayBatchSize());
+            List<OfflineQueue.Entry> replayable =
+                    new ArrayList<OfflineQueue.Entry>(entries.size());
+            for (OfflineQueue.Entry entry : entries) {
+                ResponseFuture future =
+                        getFuture(queue.getCallback(entry.getId()));
+                if (future != null && future.isCancelled()) {
+                    queue.remove(entry.getId());
+                    queue.takeCallback(entry.getId());
+                }
+                else {
+                    replayable.add(entry);
+                }
+            }
+            if (replayable.size() == entries.size()) {
+                return replayable;
+            }
+        }
+    }
+
+    /**
+     * Wraps the callback of a queued call, keeping its type, so that the
+     * call is sent like any other.
+     */
+    private Callback createReplayCallback(final QueuedCall call) {
+        ResponseFuture future = getFuture(call.callback);
+        if (future != null) {
+            // The request may never complete once cancelled.
+            future.setCancelListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    call.complete(new CancellationException());
+                }
+            });
+        }
+        if (call.callback instanceof JsonCallback) {
+            return new ReplayJsonCallback(call);
+        }
+        return new ReplayCallback(call);
+    }
+
+    /**
+     * Replays the offline queue again once a round of calls has completed:
+     * right away if all of them did, or after the delay of the queue's
+     * retry policy if some failed.
+     */
+    private void endReplayRound(OfflineQueue queue, boolean failed) {
+        long delay = 0;
+        synchronized (offlineQueueLock) {
+            if (failed) {
+                delay = queue.getRetryPolicy().getDelay(replayFailures++);
+            }
+            else {
+                replayFailures = 0;
+            }
+        }
+        if (LOG && failed) {
+            Log.i("RestAdapter", "Replaying queued calls in " + delay +
+                    " ms");
+        }
+        Runnable replay = new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (offlineQueueLock) {
+                    replaying = false;
+                }
+                replayOfflineQueue();
+            }
+        };
+        Handler handler = replayHandler;
+        if (handler != null) {
+            handler.postDelayed(replay, delay);
+        }
+        else if (delay > 0) {
+            getRetryScheduler().schedule(replay, delay,
+                    TimeUnit.MILLISECONDS);
+        }
+        else {
+            replay.run();
+        }
+    }
+
+    /**
+     * Replays the offline queue whenever the device connects to a network.
+     * The receiver must be unregistered with
+     * {@link Context#unregisterReceiver(BroadcastReceiver)} when the
+     * adapter is no longer used.
+     * @param context The context to register the receiver with.
+     * @return the receiver.
+     */
+    public BroadcastReceiver registerConnectivityReceiver(Context context) {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!intent.getBooleanExtra(
+                        ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                    replayOfflineQueue();
+                }
+            }
+        };
+        context.registerReceiver(receiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        return receiver;
+    }
+
+    /**
+     * Appends a call to the offline queue, if it is mutating and can be
+     * queued, and sends the queue.
+     * @return <code>true</code> if the call was queued.
+     */
+    private boolean enqueue(String method, String verb, String path,
+            Map<String, ? extends Object> parameters, boolean isMultipart,
+            Callback callback) {
+        OfflineQueue queue = offlineQueue;
+        boolean isMutating = "POST".equalsIgnoreCase(verb) ||
+                "PUT".equalsIgnoreCase(verb) ||
+                "DELETE".equalsIgnoreCase(verb);
+        if (queue == null || !isMutating || isMultipart ||
+                callback instanceof StreamingCallback) {
+            return false;
+        }
+        OfflineQueue.Entry entry = queue.add(method, verb, path, parameters);
+        queue.setCallback(entry.getId(), callback);
+        replayOfflineQueue();
+        return true;
+    }
+
+    /**
+     * Gets the policy for retrying failed requests.
+     * @return the policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying failed requests to idempotent routes
+     * that don't have their own, see
+     * {@link RestContractItem#setRetryPolicy(RetryPolicy)}. The default is
+     * {@link RetryPolicy#DEFAULT}.
+     * @param retryPolicy The policy, or <code>null</code> to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null
+                ? retryPolicy : RetryPolicy.NONE;
+    }
+
+    /**
+     * Gets the policy for stopping requests to failing routes.
+     * @return the policy, or <code>null</code> if circuit breakers are
+     * disabled.
+     */
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * Sets the policy for stopping requests to failing routes. Each method
+     * of the contract gets its own {@link CircuitBreaker}, so that requests
+     * for healthy routes are still sent, and don't wait for connections
+     * held by slow ones. Requests sent in a batch are not subject to
+     * circuit breakers. Circuit breakers are disabled by default.
+     * @param circuitBreakerPolicy The policy, e.g.
+     * {@link CircuitBreakerPolicy#DEFAULT}, or <code>null</code> to disable
+     * circuit breakers.
+     */
+    public void setCircuitBreakerPolicy(
+            CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        circuitBreakers.clear();
+    }
+
+    /**
+     * Gets the circuit breaker for the given method, creating it if
+     * needed.
+     * @param method The method name, e.g. <code>"widgets.find"</code>.
+     * @return the circuit breaker, or <code>null</code> if circuit breakers
+     * are disabled.
+     */
+    public CircuitBreaker getCircuitBreaker(String method) {
+        CircuitBreakerPolicy policy = circuitBreakerPolicy;
+        if (policy == null) {
+            return null;
+        }
+        CircuitBreaker breaker = circuitBreakers.get(method);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(method, policy);
+            breaker = circuitBreakers.putIfAbsent(method, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Gets the number of times a failed request was sent again, see
+     * {@link #setRetryPolicy(RetryPolicy)}.
+     * @return the number of retries since the adapter connected.
+     */
+    public int getRetryCount() {
+        return client != null ? client.getRetryCount() : 0;
+    }
+
+    /**
+     * Gets the minimum size of a request body to compress.
+     * @return the threshold in bytes.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size of a request body to compress. Only bodies sent
+     * to routes marked with {@link RestContractItem#setIsCompressed(boolean)}
+     * are compressed, smaller ones are not worth the CPU time. The default
+     * is 1024 bytes.
+     * @param compressionThreshold The threshold in bytes.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException(
+                    "Compression threshold cannot be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Gets the number of GET requests that were not sent because an
+     * identical request was already in flight. Such requests receive the
+     * response of the pending one, so that e.g. several fragments loading
+     * the same models at once cost a single round trip.
+     * @return the number of requests saved since the adapter connected.
+     */
+    public int getCoalescedRequestCount() {
+        return client != null ? client.getCoalescedRequestCount() : 0;
+    }
+
     public void setAccessToken(Object accessToken) {
-        client.addHeader("Authorization", accessToken.toString());
+        client.setHeader("Authorization", accessToken.toString());
     }
     
     public void removeAccessToken() {
-        client.addHeader("Authorization", null);
+        client.removeHeader("Authorization");
     }
     
     @Override
@@ -83,8 +842,13 @@ public class RestAdapter extends Adapter {
             client = null;
         }
         else {
-            client = new HttpClient(context, url);
-            client.addHeader("Accept", "application/json");
+            if (transport == null) {
+                transport = new LoopjTransport();
+            }
+            client = new HttpClient(context, url, transport);
+            client.setResponseCache(responseCache);
+            client.setCodec(codec, encodeRequests);
+            client.setCallbackExecutor(callbackExecutor);
         }
     }
 
@@ -108,15 +872,21 @@ public class RestAdapter extends Adapter {
             throw new IllegalStateException("Invalid contract");
         }
 
+        RequestMetrics metrics = createMetrics(method);
+        long start = System.nanoTime();
+
         String verb = contract.getVerbForMethod(method);
         String path = contract.getUrlForMethod(method, parameters);
 
         boolean isMultipart = contract.getIsMultipartForMethod(method);
-        
-        if ( isMultipart )
-            requestMultipart(path, verb, parameters, callback);
-        else        
-            request(path, verb, parameters, callback);
+        boolean isCompressed = contract.getIsCompressedForMethod(method);
+        RetryPolicy retryPolicy = getRetryPolicyForMethod(method);
+        CircuitBreaker circuitBreaker = getCircuitBreaker(method);
+        Map<String, String> headers = contract.getHeadersForMethod(method);
+        send(method, verb, path, parameters, isMultipart,
+                new RequestOptions(isCompressed ? compressionThreshold : -1,
+                        retryPolicy, circuitBreaker, metrics, headers),
+                start, callback);
     }
 
     /**
@@ -135,6 +905,9 @@ public class RestAdapter extends Adapter {
             throw new IllegalStateException("Invalid contract");
         }
 
+        RequestMetrics metrics = createMetrics(method);
+        long start = System.nanoTime();
+
         Map<String, Object> combinedParameters = new HashMap<String, Object>();
         if (constructorParameters != null) {
             combinedParameters.putAll(constructorParameters);
@@ -147,47 +920,307 @@ public class RestAdapter extends Adapter {
         String path = contract.getUrlForMethod(method, combinedParameters);
 
         boolean isMultipart = contract.getIsMultipartForMethod(method);
-        
-        if ( isMultipart )
-            requestMultipart(path, verb, combinedParameters, callback);
-        else
-            request(path, verb, combinedParameters, callback);
+        boolean isCompressed = contract.getIsCompressedForMethod(method);
+        RetryPolicy retryPolicy = getRetryPolicyForMethod(method);
+        CircuitBreaker circuitBreaker = getCircuitBreaker(method);
+        Map<String, String> headers = contract.getHeadersForMethod(method);
+        send(method, verb, path, combinedParameters, isMultipart,
+                new RequestOptions(isCompressed ? compressionThreshold : -1,
+                        retryPolicy, circuitBreaker, metrics, headers),
+                start, callback);
     }
 
-    private void request(String path, String verb,
-            Map<String, ? extends Object> parameters, Callback callback) {
-        if (!isConnected()) {
-            throw new IllegalStateException("Adapter not connected");
-        }
-
-        client.request(verb, path, parameters,
-                HttpClient.ParameterEncoding.JSON, callback);
-    }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The handle keeps the route of the method and its compiled pattern.
+     * The contract is only consulted again after items were added to it,
+     * or it was replaced.
+     */
+    @Override
+    public MethodHandle bindStaticMethod(String method) {
+        return new RestMethodHandle(method, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The handle keeps the route of the method and its compiled pattern.
+     * The contract is only consulted again after items were added to it,
+     * or it was replaced.
+     */
+    @Override
+    public MethodHandle bindInstanceMethod(String method) {
+        return new RestMethodHandle(method, false);
+    }
+
+    /**
+     * Sends a call once its route has been resolved, unless it is queued
+     * for later.
+     */
+    private void send(String method, String verb, String path,
+            Map<String, ? extends Object> parameters, boolean isMultipart,
+            RequestOptions options, long start, Callback callback) {
+        if (options.metrics != null) {
+            options.metrics.setContractTime(RequestMetrics.elapsed(start));
+        }
+        if (enqueue(method, verb, path, parameters, isMultipart, callback)) {
+            return;
+        }
+
+        if ( isMultipart )
+            requestMultipart(path, verb, parameters, options, callback);
+        else
+            request(path, verb, parameters, options, callback);
+    }
+
+    /**
+     * A method bound to this adapter, with its route resolved from the
+     * contract.
+     */
+    private class RestMethodHandle extends MethodHandle {
+
+        /**
+         * What a method resolves to in a given state of the contract.
+         */
+        private final class Route {
+            final RestContract contract;
+            final int modCount;
+            final RestContractItem item;
+            final String verb;
+            final PathTemplate template;
+            final String path;
+
+            Route(RestContract contract) {
+                this.contract = contract;
+                this.modCount = contract.getModCount();
+                this.item = contract.getItemForMethod(getMethod());
+                this.verb = item != null ? item.getVerb() : "POST";
+                this.template = item != null ? item.getTemplate() : null;
+                this.path = template == null
+                        ? contract.getUrlForMethodWithoutItem(getMethod())
+                        : null;
+            }
+        }
+
+        private volatile Route route;
+
+        RestMethodHandle(String method, boolean isStatic) {
+            super(RestAdapter.this, method, isStatic);
+        }
+
+        private Route getRoute() {
+            RestContract contract = RestAdapter.this.contract;
+            if (contract == null) {
+                throw new IllegalStateException("Invalid contract");
+            }
+            Route result = route;
+            if (result == null || result.contract != contract ||
+                    result.modCount != contract.getModCount()) {
+                result = new Route(contract);
+                route = result;
+            }
+            return result;
+        }
+
+        @Override
+        public void invoke(Map<String, ? extends Object> constructorParameters,
+                Map<String, ? extends Object> parameters,
+                Callback callback) {
+            String method = getMethod();
+            RequestMetrics metrics = createMetrics(method);
+            long start = System.nanoTime();
+            Route route = getRoute();
+
+            Map<String, ? extends Object> combinedParameters = parameters;
+            if (!isStatic() && constructorParameters != null &&
+                    !constructorParameters.isEmpty()) {
+                Map<String, Object> combined = new HashMap<String, Object>(
+                        constructorParameters);
+                if (parameters != null) {
+                    combined.putAll(parameters);
+                }
+                combinedParameters = combined;
+            }
+
+            RestContractItem item = route.item;
+            String path = route.template != null
+                    ? route.template.expand(combinedParameters) : route.path;
+            boolean isMultipart = item != null && item.getIsMultipart();
+            boolean isCompressed = item != null && item.getIsCompressed();
+            RetryPolicy retryPolicy = null;
+            if (item != null && item.getIsIdempotent()) {
+                retryPolicy = item.getRetryPolicy();
+                if (retryPolicy == null) {
+                    retryPolicy = RestAdapter.this.retryPolicy;
+                }
+            }
+            CircuitBreaker circuitBreaker = getCircuitBreaker(method);
+            Map<String, String> headers = item != null
+                    ? item.getHeaders() : HeaderProfile.EMPTY;
+            send(method, route.verb, path, combinedParameters, isMultipart,
+                    new RequestOptions(
+                            isCompressed ? compressionThreshold : -1,
+                            retryPolicy, circuitBreaker, metrics, headers),
+                    start, callback);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The route of the method must use <code>GET</code>. The parameters
+     * are sent in the query string, and the headers of the adapter and the
+     * route are sent as with other calls. Reconnection delays follow the
+     * retry policy, see {@link #setRetryPolicy(RetryPolicy)}, or
+     * {@link RetryPolicy#DEFAULT} if retries are disabled.
+     *
+     * @throws IllegalStateException if the contract is not set
+     * (see {@link #setContract(RestContract)})
+     * or the adapter is not connected.
+     * @throws IllegalArgumentException if the route does not use
+     * <code>GET</code>.
+     */
+    @Override
+    public EventStream subscribe(String method,
+            Map<String, ? extends Object> parameters, String lastEventId,
+            EventStream.Listener listener) {
+        if (contract == null) {
+            throw new IllegalStateException("Invalid contract");
+        }
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+        String verb = contract.getVerbForMethod(method);
+        if (!"GET".equalsIgnoreCase(verb)) {
+            throw new IllegalArgumentException("Illegal method: " + verb +
+                    ". Only GET supported for subscriptions.");
+        }
+        String path = contract.getUrlForMethod(method, parameters);
+        Map<String, String> headers = contract.getHeadersForMethod(method);
+        RetryPolicy reconnectPolicy = retryPolicy.getMaxRetries() > 0
+                ? retryPolicy : RetryPolicy.DEFAULT;
+        return client.subscribe(path, parameters, headers, lastEventId,
+                reconnectPolicy, listener);
+    }
+
+    /**
+     * Starts measuring a call of the given method, if there is a metrics
+     * listener.
+     * @return the metrics, or <code>null</code>.
+     */
+    private RequestMetrics createMetrics(String method) {
+        MetricsListener listener = metricsListener;
+        return listener != null ? new RequestMetrics(method, listener) : null;
+    }
+
+    /**
+     * Gets the policy for retrying requests for the given method.
+     * @return the policy, or <code>null</code> if the method is not
+     * idempotent.
+     */
+    private RetryPolicy getRetryPolicyForMethod(String method) {
+        if (!contract.getIsIdempotentForMethod(method)) {
+            return null;
+        }
+        RetryPolicy policy = contract.getRetryPolicyForMethod(method);
+        return policy != null ? policy : retryPolicy;
+    }
+
+    private void request(String path, String verb,
+            Map<String, ? extends Object> parameters, RequestOptions options,
+            Callback callback) {
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+
+        synchronized (batchLock) {
+            if (batchOpen || batchWindow > 0) {
+                if (batch == null) {
+                    batch = new ArrayList<BatchedRequest>();
+                    if (!batchOpen) {
+                        Looper looper = Looper.myLooper();
+                        batchHandler = new Handler(looper != null
+                                ? looper : Looper.getMainLooper());
+                        batchHandler.postDelayed(batchFlusher, batchWindow);
+                    }
+                }
+                batch.add(new BatchedRequest(path, verb, parameters,
+                        options, callback));
+                return;
+            }
+        }
+
+        client.request(verb, path, parameters,
+                HttpClient.ParameterEncoding.JSON, options, callback);
+    }
 
     private void requestMultipart(String path, String verb,
-            Map<String, ? extends Object> parameters, Callback callback) {
+            Map<String, ? extends Object> parameters, RequestOptions options,
+            Callback callback) {
         if (!isConnected()) {
             throw new IllegalStateException("Adapter not connected");
         }
 
         client.request(verb, path, parameters,
-                HttpClient.ParameterEncoding.FORM_MULTIPART, callback);
+                HttpClient.ParameterEncoding.FORM_MULTIPART, options,
+                callback);
+    }
+
+    /**
+     * The settings of a single request that come from its route, rather
+     * than from the client.
+     */
+    private static final class RequestOptions {
+
+        /**
+         * The minimum size of a body to gzip, or -1 to never compress it.
+         */
+        final int compressionThreshold;
+        /**
+         * The policy for retrying the request, or <code>null</code> if it
+         * is not idempotent.
+         */
+        final RetryPolicy retryPolicy;
+        /**
+         * The circuit breaker of the route, or <code>null</code>.
+         */
+        final CircuitBreaker circuitBreaker;
+        /**
+         * The metrics to record, or <code>null</code>.
+         */
+        final RequestMetrics metrics;
+        /**
+         * The headers of the route, sent in addition to the client's, or
+         * <code>null</code>.
+         */
+        final Map<String, String> headers;
+
+        RequestOptions(int compressionThreshold, RetryPolicy retryPolicy,
+                CircuitBreaker circuitBreaker, RequestMetrics metrics,
+                Map<String, String> headers) {
+            this.compressionThreshold = compressionThreshold;
+            this.retryPolicy = retryPolicy;
+            this.circuitBreaker = circuitBreaker;
+            this.metrics = metrics;
+            this.headers = headers;
+        }
     }
     
     
     //
     // Mimic AFNetworking as much as possible.
     //
-    // Internally, it's using "Android Asynchronous Http Client".
+    // The requests are built here and executed by an HttpTransport, by
+    // default the "Android Asynchronous Http Client".
     // http://loopj.com/android-async-http/
     // The benefit is connection pools, persistent cookies,
     // an asynchronous API, Android bug workarounds, etc.
-    // The drawback is it doesn't support HEAD or OPTION.
     //
 
     private static final boolean LOG = false;
 
-    private static class HttpClient extends AsyncHttpClient {
+    private static class HttpClient {
 
         enum ParameterEncoding {
             FORM_URL,
@@ -219,27 +1252,56 @@ public class RestAdapter extends Adapter {
             return deviceName;
         }
 
-        private Context context;
         private String baseUrl;
+        private HttpTransport transport;
+        private ResponseCache responseCache;
+        private volatile Negotiation negotiation;
+        private Executor callbackExecutor;
+        private volatile HeaderProfile headers;
+        private final ConcurrentMap<String, CallbackResponseHandler> inFlight =
+                new ConcurrentHashMap<String, CallbackResponseHandler>();
+        private final AtomicInteger coalescedRequestCount =
+                new AtomicInteger();
+        private final AtomicInteger retryCount = new AtomicInteger();
 
-        public HttpClient(Context context, String baseUrl) {
+        public HttpClient(Context context, String baseUrl,
+                HttpTransport transport) {
             if (baseUrl == null) {
                 throw new IllegalArgumentException(
                         "The baseUrl cannot be null");
             }
 
-            this.context = context;
             this.baseUrl = baseUrl;
+            setTransport(transport);
 
             // Make sure base url ends with a trailing slash.
             if (!this.baseUrl.endsWith("/")) {
                 this.baseUrl += "/";
             }
 
+            headers = getDefaultHeaders(context);
+        }
+
+        private static HeaderProfile defaultHeaders;
+        private static String defaultHeadersPackage;
+
+        /**
+         * Gets the headers every client starts with. They are computed
+         * once per process, as the package and the device don't change.
+         */
+        private static synchronized HeaderProfile getDefaultHeaders(
+                Context context) {
+            String appPackageName =
+                    context != null ? context.getPackageName() : null;
+            if (defaultHeaders != null &&
+                    (appPackageName == null ? defaultHeadersPackage == null
+                            : appPackageName.equals(defaultHeadersPackage))) {
+                return defaultHeaders;
+            }
+
             // More useful User-Agent, similar to AFNetworing.
             String appName;
             if (context != null) {
-                String appPackageName = context.getPackageName();
                 String appVersion = getVersionName(context);
                 appName = appPackageName + "/" + appVersion;
             }
@@ -251,115 +1313,133 @@ public class RestAdapter extends Adapter {
                     "/API-" + android.os.Build.VERSION.SDK_INT;
             String userAgent = appName + " (" + deviceName +
                     " Android " + androidVersion + ")";
-            setUserAgent(userAgent);
+            defaultHeaders = HeaderProfile.EMPTY
+                    .with("User-Agent", userAgent)
+                    .with("Accept", "application/json");
+            defaultHeadersPackage = appPackageName;
+            return defaultHeaders;
+        }
+
+        public void setTransport(HttpTransport transport) {
+            if (transport == null) {
+                throw new IllegalArgumentException(
+                        "The transport cannot be null");
+            }
+            this.transport = transport;
+        }
+
+        public void setResponseCache(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+        }
+
+        public void setCodec(Codec codec, boolean encodeRequests) {
+            negotiation = codec != null
+                    ? new Negotiation(codec, encodeRequests) : null;
+        }
+
+        public void setCallbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+        }
+
+        /**
+         * Sets a header sent with every request.
+         */
+        public synchronized void setHeader(String name, String value) {
+            headers = headers.with(name, value);
         }
 
+        public synchronized void removeHeader(String name) {
+            headers = headers.with(name, null);
+        }
+
+        public int getCoalescedRequestCount() {
+            return coalescedRequestCount.get();
+        }
+
+        public int getRetryCount() {
+            return retryCount.get();
+        }
+
+        /**
+         * Attaches a handler to an identical request in flight, if there is
+         * one, or else records its request as in flight.
+         * @param key The method, URL and headers of the request.
+         * @return <code>true</code> if the handler was attached, and the
+         * request must not be sent.
+         */
+        private boolean coalesce(String key, CallbackResponseHandler handler) {
+            CallbackResponseHandler pending;
+            while ((pending = inFlight.putIfAbsent(key, handler)) != null) {
+                if (pending.addFollower(handler)) {
+                    coalescedRequestCount.incrementAndGet();
+                    if (LOG) {
+                        Log.i("RestAdapter", "Coalesced: " + key);
+                    }
+                    return true;
+                }
+                // Delivered in the meantime.
+                inFlight.remove(key, pending);
+            }
+            handler.setInFlight(inFlight, key);
+            return false;
+        }
+
+        /**
+         * @param options The settings of the request that come from its
+         * route.
+         */
         public void request(String method, String path,
                 Map<String, ? extends Object> parameters,
                 ParameterEncoding parameterEncoding,
+                RequestOptions options,
                 final Callback callback) {
-            Uri.Builder uri = Uri.parse(baseUrl).buildUpon();
-            if (path != null) {
-                if (path.startsWith("/")) {
-                    uri.appendEncodedPath(path.substring(1));
-                }
-                else {
-                    uri.appendEncodedPath(path);
-                }
+            int compressionThreshold = options.compressionThreshold;
+            RetryPolicy retryPolicy = options.retryPolicy;
+            CircuitBreaker circuitBreaker = options.circuitBreaker;
+            RequestMetrics metrics = options.metrics;
+            Map<String, String> routeHeaders = options.headers;
+            if (!"GET".equalsIgnoreCase(method) &&
+                    !"DELETE".equalsIgnoreCase(method) &&
+                    !"POST".equalsIgnoreCase(method) &&
+                    !"PUT".equalsIgnoreCase(method)) {
+                throw new IllegalArgumentException("Illegal method: " +
+                        method + ". Only GET, POST, PUT, DELETE supported.");
             }
-            String contentType = null;
-            HttpEntity body = null;
-            String charset = "utf-8";
-            AsyncHttpResponseHandler httpCallback =
-                    new AsyncHttpResponseHandler() {
-               
-                @Override
-                public void onSuccess(String response) {
-                    if (LOG) {
-                        Log.i("RestAdapter", "Success: " + response);
-                    }
-                    try {
-                        callback.onSuccess(response);
-                    } catch (Throwable t) {
-                        callback.onError(t);
-                    }
-                }
 
-                @Override
-                public void onFailure(Throwable e, String response) {
-                    if (LOG) {
-                        Log.i("RestAdapter", "Error: " + response);
-                    }
-                    callback.onError(e);
-                }                
-            };
+            long start = System.nanoTime();
+            Uri.Builder uri = buildUpon(path);
+            String charset = "utf-8";
+            HttpTransport.RequestBody body = null;
+            // The body to send again as JSON if the codec is rejected.
+            HttpTransport.RequestBody fallbackBody = null;
+            HttpTransport.ResponseHandler handler = null;
+            boolean coalesce = false;
+            HeaderProfile requestHeaders = routeHeaders != null
+                    ? headers.merge(HeaderProfile.of(routeHeaders)) : headers;
 
-            boolean isMulti = false;
-            
             if (parameters != null) {
-                             
                 if (parameterEncoding == ParameterEncoding.FORM_MULTIPART) {
-                    
-                    isMulti = true;
-                    contentType = "multipart/form-data";
-
-                    String url = uri.build().toString();
-                    
                     if ("POST".equalsIgnoreCase(method)) {
-                        
-                        RequestParams requestParams;
-                        try {
-                            requestParams = putInRequestParams(parameters);
-                        } catch (FileNotFoundException e1) {
-                           throw new IllegalArgumentException("Invalid File parameter");
-
+                        MultipartBody multipart =
+                                new MultipartBody(parameters);
+                        if (multipart.getUploadOffset() > 0) {
+                            requestHeaders = requestHeaders.with(
+                                    "Upload-Offset", String.valueOf(
+                                            multipart.getUploadOffset()));
                         }
-                        post(url, requestParams, httpCallback);                        
-                    } 
+                        body = multipart;
+                    }
                     else if ("GET".equalsIgnoreCase(method)) {
-                        
-                        get(url, new BinaryHttpResponseHandler(
-                                new String[]{"image/jpeg", 
-                                        "application/json", 
-                                        "text/plain",
-                                        "image/gif",
-                                        "text/html"}) {                            
-                            
-                            @Override
-                            public void onFailure(Throwable error, byte[] binaryData) {
-                                if (LOG) {
-                                    Log.i("RestAdapter", "BinaryError: " + error.toString());
-                                }
-                                callback.onError(error);                                                    
-                            }
-                            
-                            @Override
-                            public void onSuccess(byte[] binaryData) {
-                                if (LOG) {
-                                    Log.i("RestAdapter", "Binary Response Success");
-                                }
-                                try {
-                                    ByteBuffer bb = ByteBuffer.wrap(binaryData);
-                                    callback.onSuccess(null, bb);
-                                } catch (Throwable t) {
-                                    callback.onError(t);
-                                }                                
-                            }
-                            
-                        });
-                        
+                        handler = new BinaryResponseHandler(callback,
+                                callbackExecutor);
                     }
                     // TODO - Delete?
                     else {
                         throw new IllegalArgumentException("Illegal method for multiform: " +
-                                method + ". Only GET, POST, DELETE supported.");                        
+                                method + ". Only GET, POST, DELETE supported.");
                     }
-                        
-                }            
-                else if ("GET".equalsIgnoreCase(method) ||
-                        "HEAD".equalsIgnoreCase(method) ||
-                        "DELETE".equalsIgnoreCase(method)) {
-
+                }
+                else if (hasQueryParameters(method)) {
                     for (Map.Entry<String, ? extends Object> entry :
                             buildUrlQueryParameters(parameters).entrySet()) {
                         uri.appendQueryParameter(entry.getKey(),
@@ -369,21 +1449,23 @@ public class RestAdapter extends Adapter {
                 else if (parameterEncoding == ParameterEncoding.FORM_URL) {
                     // NOTE: Code for "x-www-form-urlencoded" is not used
                     // and is untested.
-                    contentType =
-                            "application/x-www-form-urlencoded; charset=" +
-                            charset;
-
-                    List<NameValuePair> nameValuePairs =
-                            new ArrayList<NameValuePair>();
-                    for (Map.Entry<String, ? extends Object> entry :
-                        parameters.entrySet()) {
-                        nameValuePairs.add(
-                                new BasicNameValuePair(entry.getKey(),
-                                        String.valueOf(entry.getValue())));
-                    }
+                    StringBuilder form = new StringBuilder();
                     try {
-                        body = new UrlEncodedFormEntity(nameValuePairs,
-                                charset);
+                        for (Map.Entry<String, ? extends Object> entry :
+                                parameters.entrySet()) {
+                            if (form.length() > 0) {
+                                form.append('&');
+                            }
+                            form.append(URLEncoder.encode(entry.getKey(),
+                                    charset));
+                            form.append('=');
+                            form.append(URLEncoder.encode(
+                                    String.valueOf(entry.getValue()),
+                                    charset));
+                        }
+                        body = HttpTransport.RequestBody.create(
+                                "application/x-www-form-urlencoded; charset=" +
+                                charset, form.toString().getBytes(charset));
                     }
                     catch (UnsupportedEncodingException e) {
                         // Won't happen
@@ -391,92 +1473,1950 @@ public class RestAdapter extends Adapter {
                     }
                 }
                 else if (parameterEncoding == ParameterEncoding.JSON) {
-                    contentType = "application/json; charset=" + charset;
-                    String s = "";
-                    try {
-                        s = String.valueOf(JsonUtil.toJson(parameters));
+                    Negotiation negotiation = this.negotiation;
+                    body = new EncodedBody(parameters, JsonCodec.INSTANCE);
+                    if (negotiation != null && negotiation.encodeRequests &&
+                            negotiation.accepted.get() &&
+                            !negotiation.rejected.get()) {
+                        fallbackBody = body;
+                        body = new EncodedBody(parameters, negotiation.codec);
                     }
-                    catch (JSONException e) {
-                        Log.e("RestAdapter",
-                                "Couldn't convert parameters to JSON", e);
+                }
+            }
+
+            if (metrics != null) {
+                metrics.setUrlBuildTime(RequestMetrics.elapsed(start));
+                if (body != null) {
+                    // The length is kept, so this is not done twice.
+                    start = System.nanoTime();
+                    body.getContentLength();
+                    metrics.setSerializationTime(
+                            RequestMetrics.elapsed(start));
+                }
+            }
+
+            if (body != null && compressionThreshold >= 0 &&
+                    parameterEncoding != ParameterEncoding.FORM_MULTIPART &&
+                    body.getContentLength() >= compressionThreshold) {
+                body = HttpTransport.RequestBody.gzip(body);
+            }
+            if (fallbackBody != null && compressionThreshold >= 0 &&
+                    fallbackBody.getContentLength() >= compressionThreshold) {
+                fallbackBody = HttpTransport.RequestBody.gzip(fallbackBody);
+            }
+
+            String url = uri.build().toString();
+            if (LOG) {
+                Log.i("RestAdapter", method + " " + url);
+            }
+            if (metrics != null) {
+                metrics.setRequest(method.toUpperCase(), url);
+            }
+
+            if (callback instanceof DownloadCallback) {
+                DownloadCallback download = (DownloadCallback)callback;
+                long offset = download.getResumeOffset();
+                if (offset > 0) {
+                    requestHeaders = requestHeaders.with("Range",
+                            "bytes=" + offset + "-");
+                }
+                handler = new DownloadResponseHandler(download, offset,
+                        callbackExecutor);
+            }
+            else if (handler != null) {
+                // Already chosen.
+            }
+            else if (callback instanceof StreamingCallback) {
+                handler = new StreamingResponseHandler(
+                        (StreamingCallback)callback, callbackExecutor);
+            }
+            else if (responseCache != null && "GET".equalsIgnoreCase(method)) {
+                // Created here, to call back on the current thread's looper.
+                CachingResponseHandler caching = new CachingResponseHandler(
+                        callback, callbackExecutor, responseCache, url,
+                        getVariant(requestHeaders));
+                if (metrics != null) {
+                    caching.setMetrics(metrics);
+                }
+                lookUp(requestHeaders, caching, options, callback);
+                return;
+            }
+            else {
+                CallbackResponseHandler callbackHandler =
+                        new CallbackResponseHandler(callback, callbackExecutor);
+                Negotiation negotiation = this.negotiation;
+                if (negotiation != null && callback instanceof JsonCallback) {
+                    requestHeaders = requestHeaders.merge(negotiation.headers);
+                    callbackHandler.setNegotiation(negotiation);
+                }
+                handler = callbackHandler;
+                coalesce = "GET".equalsIgnoreCase(method);
+            }
+
+            if (metrics != null && handler instanceof CallbackResponseHandler) {
+                ((CallbackResponseHandler)handler).setMetrics(metrics);
+            }
+
+            dispatch(new HttpTransport.Request(method, url, requestHeaders,
+                    body), fallbackBody, handler, coalesce, options, callback);
+        }
+
+        /**
+         * Looks up a GET request in the response cache on the cache thread,
+         * since the cache may read the disk. A fresh entry is delivered
+         * right away, and a stale one is revalidated.
+         */
+        private void lookUp(final HeaderProfile requestHeaders,
+                final CachingResponseHandler handler,
+                final RequestOptions options, final Callback callback) {
+            getCacheExecutor().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    String url = handler.key;
+                    ResponseCache.Entry entry = handler.cache.get(url);
+                    if (entry != null && !entry.matches(handler.variant)) {
+                        entry = null;
                     }
-                    try {
-                        body = new StringEntity(s, charset);
+                    RequestMetrics metrics = options.metrics;
+                    if (entry != null &&
+                            entry.isFresh(System.currentTimeMillis())) {
+                        if (LOG) {
+                            Log.i("RestAdapter", "Cache hit: " + url);
+                        }
+                        handler.cache.recordHit();
+                        if (metrics != null) {
+                            metrics.setCacheHit();
+                        }
+                        handler.deliverSuccess(entry.getBody());
+                        if (metrics != null) {
+                            metrics.report();
+                        }
+                        return;
                     }
-                    catch (UnsupportedEncodingException e) {
-                        // Won't happen
-                        Log.e("RestAdapter", "Couldn't encode JSON params", e);
+                    HeaderProfile conditionalHeaders = requestHeaders;
+                    if (entry != null) {
+                        if (entry.getEtag() != null) {
+                            conditionalHeaders = conditionalHeaders.with(
+                                    "If-None-Match", entry.getEtag());
+                        }
+                        if (entry.getLastModified() != null) {
+                            conditionalHeaders = conditionalHeaders.with(
+                                    "If-Modified-Since",
+                                    entry.getLastModified());
+                        }
+                        handler.setEntry(entry);
                     }
+                    dispatch(new HttpTransport.Request("GET", url,
+                            conditionalHeaders, null), null, handler, true,
+                            options, callback);
                 }
+            });
+        }
 
-            }
-            
-            if ( !isMulti )
-            {
-                Header[] headers = {
-                        new BasicHeader("Accept", "application/json"),
-                };
-    
-                String url = uri.build().toString();
-                if (LOG) {
-                    Log.i("RestAdapter", method + " " + url);
+        /**
+         * Sends a request with its handler, once the handler was chosen.
+         * @param fallbackBody The JSON body to send the request with again
+         * if the server rejects the format of its body, or
+         * <code>null</code>.
+         * @param coalesce Whether to attach the handler to an identical
+         * request in flight instead, if there is one.
+         */
+        private void dispatch(HttpTransport.Request request,
+                HttpTransport.RequestBody fallbackBody,
+                HttpTransport.ResponseHandler handler, boolean coalesce,
+                RequestOptions options, Callback callback) {
+            String method = request.getMethod();
+            String url = request.getUrl();
+            HeaderProfile requestHeaders =
+                    HeaderProfile.of(request.getHeaders());
+            HttpTransport.RequestBody body = request.getBody();
+            RetryPolicy retryPolicy = options.retryPolicy;
+            CircuitBreaker circuitBreaker = options.circuitBreaker;
+            RequestMetrics metrics = options.metrics;
+
+            // A future can cancel its request, which must not leave the
+            // requests attached to it without a response.
+            if (coalesce && getFuture(callback) == null &&
+                    coalesce(method + " " + url + " " + requestHeaders,
+                            (CallbackResponseHandler)handler)) {
+                if (metrics != null) {
+                    // Reported once the shared response is delivered.
+                    metrics.setCoalesced();
                 }
-                if ("GET".equalsIgnoreCase(method)) {
-                    get(context, url, headers, null, httpCallback);
+                return;
+            }
+
+            if (body instanceof MultipartBody &&
+                    callback instanceof ProgressCallback &&
+                    handler instanceof CallbackResponseHandler) {
+                ((MultipartBody)body).setProgressListener(
+                        new UploadProgressListener(
+                                (ProgressCallback)callback,
+                                (CallbackResponseHandler)handler));
+            }
+
+            if (metrics != null) {
+                if (body != null) {
+                    body = new MeteredRequestBody(body, metrics);
                 }
-                else if ("DELETE".equalsIgnoreCase(method)) {
-                    delete(context, url, headers, httpCallback);
+                if (fallbackBody != null) {
+                    fallbackBody = new MeteredRequestBody(fallbackBody,
+                            metrics);
                 }
-                else if ("POST".equalsIgnoreCase(method)) {
-                    post(context, url, headers, body, contentType, httpCallback);                    
-                    
+                handler = new MetricsResponseHandler(handler, metrics);
+            }
+
+            ResponseCache responseCache = this.responseCache;
+            if (responseCache != null && !"GET".equalsIgnoreCase(method)) {
+                handler = new InvalidatingResponseHandler(handler,
+                        responseCache, url);
+            }
+
+            request = new HttpTransport.Request(method, url, requestHeaders,
+                    body);
+
+            if (fallbackBody != null) {
+                handler = new CodecFallbackResponseHandler(
+                        new HttpTransport.Request(method, url, requestHeaders,
+                                fallbackBody),
+                        handler, circuitBreaker, metrics, callback);
+            }
+
+            // A download resumes where it stopped instead.
+            if (retryPolicy != null && retryPolicy.getMaxRetries() > 0 &&
+                    !(callback instanceof DownloadCallback) &&
+                    (body == null || body.isRepeatable())) {
+                handler = new RetryingResponseHandler(request, handler,
+                        retryPolicy, circuitBreaker, metrics, callback);
+            }
+
+            Future<?> future = execute(request, handler, circuitBreaker,
+                    metrics);
+            ResponseFuture responseFuture = getFuture(callback);
+            if (future != null && responseFuture != null) {
+                responseFuture.setRequest(future);
+            }
+        }
+
+        /**
+         * Opens a stream of server-sent events, which bypasses the response
+         * cache, coalescing and circuit breakers.
+         * @param routeHeaders The headers of the route, sent in addition to
+         * the client's, or <code>null</code>.
+         */
+        public EventStream subscribe(String path,
+                Map<String, ? extends Object> parameters,
+                Map<String, String> routeHeaders, String lastEventId,
+                RetryPolicy reconnectPolicy, EventStream.Listener listener) {
+            Uri.Builder uri = buildUpon(path);
+            if (parameters != null) {
+                for (Map.Entry<String, ? extends Object> entry :
+                        buildUrlQueryParameters(parameters).entrySet()) {
+                    uri.appendQueryParameter(entry.getKey(),
+                            String.valueOf(entry.getValue()));
                 }
-                else if ("PUT".equalsIgnoreCase(method)) {
-                    put(context, url, headers, body, contentType, httpCallback);
+            }
+            HeaderProfile requestHeaders = routeHeaders != null
+                    ? headers.merge(HeaderProfile.of(routeHeaders)) : headers;
+            EventStream stream = new EventStream(transport,
+                    uri.build().toString(), requestHeaders, lastEventId,
+                    reconnectPolicy, listener, callbackExecutor);
+            stream.open();
+            return stream;
+        }
+
+        /**
+         * Fetches the routes of the server, bypassing the response cache.
+         */
+        public void fetch(ContractDiscovery discovery) {
+            discovery.fetch(transport, headers);
+        }
+
+        public String getUrl(String path) {
+            return buildUpon(path).build().toString();
+        }
+
+        private Uri.Builder buildUpon(String path) {
+            Uri.Builder uri = Uri.parse(baseUrl).buildUpon();
+            if (path != null) {
+                if (path.startsWith("/")) {
+                    uri.appendEncodedPath(path.substring(1));
                 }
                 else {
-                    throw new IllegalArgumentException("Illegal method: " +
-                            method + ". Only GET, POST, PUT, DELETE supported.");
+                    uri.appendEncodedPath(path);
                 }
             }
+            return uri;
         }
 
-        private Map<String, Object> buildUrlQueryParameters(
-                final Map<String, ? extends Object> parameters) {
-            return buildUrlQueryParameters(null, parameters);
+        /**
+         * Executes a request, if its circuit breaker admits it.
+         * @return a Future to cancel the request with, or <code>null</code>
+         * if it was rejected.
+         */
+        private Future<?> execute(HttpTransport.Request request,
+                HttpTransport.ResponseHandler handler,
+                CircuitBreaker circuitBreaker, RequestMetrics metrics) {
+            if (metrics != null) {
+                metrics.markSent();
+            }
+            if (circuitBreaker == null) {
+                return transport.execute(request, handler);
+            }
+            CircuitBreaker.State admittedIn;
+            try {
+                admittedIn = circuitBreaker.acquire();
+            }
+            catch (CircuitOpenException e) {
+                if (LOG) {
+                    Log.i("RestAdapter", e.getMessage());
+                }
+                handler.onFailure(e);
+                return null;
+            }
+            return transport.execute(request,
+                    new CircuitBreakerResponseHandler(handler,
+                            circuitBreaker, admittedIn));
         }
 
-        @SuppressWarnings("unchecked")
-        private Map<String, Object> buildUrlQueryParameters(
-                final String keyPrefix,
-                final Map<String, ? extends Object> parameters) {
+        /**
+         * Sends a request again with a JSON body if the server rejected the
+         * format of its body, and from then on sends request bodies as JSON.
+         */
+        private class CodecFallbackResponseHandler
+                implements HttpTransport.ResponseHandler {
+
+            private final HttpTransport.Request fallback;
+            private final HttpTransport.ResponseHandler handler;
+            private final CircuitBreaker circuitBreaker;
+            private final RequestMetrics metrics;
+            private final Callback callback;
 
-            // This method converts nested maps into a flat list
-            //   Input:  { "here": { "lat": 10, "lng": 20 }
-            //   Output: { "here[lat]": 10, "here[lng]": 20 }
+            public CodecFallbackResponseHandler(
+                    HttpTransport.Request fallback,
+                    HttpTransport.ResponseHandler handler,
+                    CircuitBreaker circuitBreaker, RequestMetrics metrics,
+                    Callback callback) {
+                this.fallback = fallback;
+                this.handler = handler;
+                this.circuitBreaker = circuitBreaker;
+                this.metrics = metrics;
+                this.callback = callback;
+            }
+
+            @Override
+            public void onResponse(HttpTransport.Response response)
+                    throws Exception {
+                if (response.getStatusCode() != 415) {
+                    handler.onResponse(response);
+                    return;
+                }
+                Negotiation negotiation = HttpClient.this.negotiation;
+                if (negotiation != null) {
+                    negotiation.rejected.set(true);
+                }
+                if (LOG) {
+                    Log.i("RestAdapter", "Sending as JSON: " +
+                            fallback.getUrl());
+                }
+                // Answered straight to the wrapped handler, so it is only
+                // sent again once.
+                Future<?> future = execute(fallback, handler, circuitBreaker,
+                        metrics);
+                ResponseFuture responseFuture = getFuture(callback);
+                if (future != null && responseFuture != null) {
+                    responseFuture.setRequest(future);
+                }
+            }
 
-            Map<String, Object> result = new HashMap<String, Object>();
+            @Override
+            public void onFailure(Throwable t) {
+                handler.onFailure(t);
+            }
+        }
 
-            for (Map.Entry<String, ? extends Object> entry
-                    : parameters.entrySet()) {
+        /**
+         * Sends a request again after a transient error, with a growing
+         * delay, until it succeeds or the retry policy gives up. Only the
+         * final outcome is passed on to the wrapped handler.
+         */
+        private class RetryingResponseHandler
+                implements HttpTransport.ResponseHandler {
 
-                String key = keyPrefix != null
-                        ? keyPrefix + "[" + entry.getKey() + "]"
-                        : entry.getKey();
+            private final HttpTransport.Request request;
+            private final HttpTransport.ResponseHandler handler;
+            private final RetryPolicy policy;
+            private final CircuitBreaker circuitBreaker;
+            private final RequestMetrics metrics;
+            private final Callback callback;
+            // Only one attempt is in flight at a time.
+            private volatile int retries;
+            private volatile boolean delegated;
 
-                Object value = entry.getValue();
+            public RetryingResponseHandler(HttpTransport.Request request,
+                    HttpTransport.ResponseHandler handler, RetryPolicy policy,
+                    CircuitBreaker circuitBreaker, RequestMetrics metrics,
+                    Callback callback) {
+                this.request = request;
+                this.handler = handler;
+                this.policy = policy;
+                this.circuitBreaker = circuitBreaker;
+                this.metrics = metrics;
+                this.callback = callback;
+            }
 
-                if (value instanceof Map) {
-                    result.putAll(buildUrlQueryParameters(key, (Map)value));
-                } else {
-                    result.put(key, value);
+            @Override
+            public void onResponse(HttpTransport.Response response)
+                    throws Exception {
+                if (policy.isRetryable(response.getStatusCode()) &&
+                        retry(getRetryAfter(response))) {
+                    return;
                 }
+                delegated = true;
+                handler.onResponse(response);
             }
 
-            return result;
-        }
-    }
+            @Override
+            public void onFailure(Throwable t) {
+                // Failures of the wrapped handler itself are final.
+                if (!delegated && policy.isRetryable(t) && retry(-1)) {
+                    return;
+                }
+                handler.onFailure(t);
+            }
 
+            /**
+             * Schedules the next attempt, if there is one.
+             * @param retryAfter The delay the server asked for, in
+             * milliseconds, or -1 to use the policy's.
+             * @return <code>true</code> if the request will be sent again.
+             */
+            private boolean retry(long retryAfter) {
+                if (retries >= policy.getMaxRetries() || isCancelled()) {
+                    return false;
+                }
+                long delay = retryAfter >= 0
+                        ? retryAfter : policy.getDelay(retries);
+                if (delay > policy.getMaxDelay()) {
+                    return false;
+                }
+                retries++;
+                retryCount.incrementAndGet();
+                if (metrics != null) {
+                    metrics.incrementRetryCount();
+                }
+                if (LOG) {
+                    Log.i("RestAdapter", "Retry " + retries + " in " +
+                            delay + " ms: " + request.getUrl());
+                }
+                getRetryScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCancelled()) {
+                            handler.onFailure(new InterruptedIOException(
+                                    "Request cancelled"));
+                            return;
+                        }
+                        Future<?> future = execute(request,
+                                RetryingResponseHandler.this, circuitBreaker,
+                                metrics);
+                        if (future != null &&
+                                callback instanceof ResponseFuture) {
+                            ((ResponseFuture)callback).setRequest(future);
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return true;
+            }
+
+            private boolean isCancelled() {
+                if (callback instanceof ResponseFuture) {
+                    return ((ResponseFuture)callback).isDone();
+                }
+                return callback instanceof ProgressCallback &&
+                        ((ProgressCallback)callback).isCancelled();
+            }
+        }
+    }
+
+    /**
+     * Records the outcome and duration of a request with its circuit
+     * breaker, and passes the response on.
+     */
+    private static class CircuitBreakerResponseHandler
+            implements HttpTransport.ResponseHandler {
+
+        private final HttpTransport.ResponseHandler handler;
+        private final CircuitBreaker circuitBreaker;
+        private final CircuitBreaker.State admittedIn;
+        private final long startTime;
+        private volatile boolean released;
+
+        public CircuitBreakerResponseHandler(
+                HttpTransport.ResponseHandler handler,
+                CircuitBreaker circuitBreaker,
+                CircuitBreaker.State admittedIn) {
+            this.handler = handler;
+            this.circuitBreaker = circuitBreaker;
+            this.admittedIn = admittedIn;
+            this.startTime = circuitBreaker.now();
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            CircuitBreakerPolicy policy = circuitBreaker.getPolicy();
+            release(policy.isFailure(response.getStatusCode()) ||
+                    circuitBreaker.now() - startTime >
+                            policy.getSlowCallDuration());
+            handler.onResponse(response);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            // Already released if the handler failed to process a response.
+            release(true);
+            handler.onFailure(t);
+        }
+
+        private void release(boolean failed) {
+            if (!released) {
+                released = true;
+                circuitBreaker.release(admittedIn, failed);
+            }
+        }
+    }
+
+    /**
+     * Removes the cached response of a URL once a request that changes what
+     * the URL returns, e.g. a <code>PUT</code>, has succeeded, so that the
+     * next <code>GET</code> asks the server.
+     */
+    private static class InvalidatingResponseHandler
+            implements HttpTransport.ResponseHandler {
+
+        private final HttpTransport.ResponseHandler handler;
+        private final ResponseCache cache;
+        private final String url;
+
+        public InvalidatingResponseHandler(
+                HttpTransport.ResponseHandler handler, ResponseCache cache,
+                String url) {
+            this.handler = handler;
+            this.cache = cache;
+            this.url = url;
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            if (response.getStatusCode() < 400) {
+                cache.remove(url);
+            }
+            handler.onResponse(response);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            handler.onFailure(t);
+        }
+    }
+
+    /**
+     * Records the time to first byte, status and size of a response in the
+     * metrics of its request, and reports them once the response was
+     * handled or the request failed.
+     */
+    private static class MetricsResponseHandler
+            implements HttpTransport.ResponseHandler {
+
+        private final HttpTransport.ResponseHandler handler;
+        private final RequestMetrics metrics;
+        private volatile boolean responded;
+
+        public MetricsResponseHandler(HttpTransport.ResponseHandler handler,
+                RequestMetrics metrics) {
+            this.handler = handler;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void onResponse(final HttpTransport.Response response)
+                throws Exception {
+            responded = true;
+            int status = response.getStatusCode();
+            metrics.markResponse(status);
+            if (status >= 400) {
+                metrics.setError(new HttpResponseException(status,
+                        response.getReasonPhrase()));
+            }
+            final CountingInputStream[] body = new CountingInputStream[1];
+            try {
+                handler.onResponse(new HttpTransport.Response() {
+
+                    @Override
+                    public int getStatusCode() {
+                        return response.getStatusCode();
+                    }
+
+                    @Override
+                    public String getReasonPhrase() {
+                        return response.getReasonPhrase();
+                    }
+
+                    @Override
+                    public String getHeader(String name) {
+                        return response.getHeader(name);
+                    }
+
+                    @Override
+                    public InputStream getBody() throws IOException {
+                        if (body[0] == null) {
+                            body[0] = new CountingInputStream(
+                                    response.getBody());
+                        }
+                        return body[0];
+                    }
+                });
+            }
+            catch (Exception e) {
+                metrics.setError(e);
+                throw e;
+            }
+            finally {
+                metrics.setResponseBytes(body[0] != null ? body[0].count : 0);
+                metrics.report();
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (responded) {
+                // The handler failed to process the response.
+                handler.onFailure(t);
+                return;
+            }
+            metrics.setError(t);
+            handler.onFailure(t);
+            metrics.report();
+        }
+    }
+
+    /**
+     * Records the number of bytes of a request body that were sent.
+     */
+    private static class MeteredRequestBody
+            extends HttpTransport.RequestBody {
+
+        private final HttpTransport.RequestBody body;
+        private final RequestMetrics metrics;
+
+        public MeteredRequestBody(HttpTransport.RequestBody body,
+                RequestMetrics metrics) {
+            this.body = body;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public String getContentType() {
+            return body.getContentType();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return body.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getContentLength();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final long[] count = new long[1];
+            try {
+                body.writeTo(new FilterOutputStream(out) {
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        count[0]++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                            throws IOException {
+                        out.write(b, off, len);
+                        count[0] += len;
+                    }
+                });
+            }
+            finally {
+                metrics.setRequestBytes(count[0]);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private volatile long count;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static ScheduledExecutorService retryScheduler;
+
+    /**
+     * Gets the thread that waits out the delays between retries, creating
+     * it when it is first needed. Also used to delay reconnecting
+     * {@link EventStream}s.
+     */
+    static synchronized ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "RestAdapter retry");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return retryScheduler;
+    }
+
+    private static ExecutorService cacheExecutor;
+
+    /**
+     * Gets the thread that looks up requests in response caches, creating
+     * it when it is first needed.
+     */
+    static synchronized ExecutorService getCacheExecutor() {
+        if (cacheExecutor == null) {
+            cacheExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "RestAdapter cache");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return cacheExecutor;
+    }
+
+    /**
+     * Gets the digest of request headers a cached response is kept for, see
+     * {@link ResponseCache.Entry#getVariant()}. The headers themselves are
+     * not kept, since they may hold credentials.
+     * @return the digest, or <code>null</code> if there are no headers.
+     */
+    static String getVariant(HeaderProfile headers) {
+        if (headers.isEmpty()) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(headers.toString().getBytes("UTF-8"));
+            StringBuilder variant = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                variant.append(Character.forDigit((b >> 4) & 0xf, 16));
+                variant.append(Character.forDigit(b & 0xf, 16));
+            }
+            return variant.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the delay a response asks for in its <code>Retry-After</code>
+     * header, given either in seconds or as an HTTP date.
+     * @return the delay in milliseconds, or -1 if there is none.
+     */
+    static long getRetryAfter(HttpTransport.Response response) {
+        String value = response.getHeader("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        }
+        catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtils.parseDate(value.trim()).getTime()
+                        - System.currentTimeMillis());
+            }
+            catch (DateParseException e2) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns whether parameters of the given HTTP verb are sent in the
+     * query string rather than in the request body.
+     */
+    static boolean hasQueryParameters(String method) {
+        return "GET".equalsIgnoreCase(method) ||
+                "HEAD".equalsIgnoreCase(method) ||
+                "DELETE".equalsIgnoreCase(method);
+    }
+
+    static Map<String, Object> buildUrlQueryParameters(
+            final Map<String, ? extends Object> parameters) {
+        return buildUrlQueryParameters(null, parameters);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> buildUrlQueryParameters(
+            final String keyPrefix,
+            final Map<String, ? extends Object> parameters) {
+
+        // This method converts nested maps into a flat list
+        //   Input:  { "here": { "lat": 10, "lng": 20 }
+        //   Output: { "here[lat]": 10, "here[lng]": 20 }
+        // The keys are sorted, so that equal parameters always give
+        // the same URL (and cache key).
+
+        Map<String, Object> result = new TreeMap<String, Object>();
+
+        for (Map.Entry<String, ? extends Object> entry
+                : parameters.entrySet()) {
+
+            String key = keyPrefix != null
+                    ? keyPrefix + "[" + entry.getKey() + "]"
+                    : entry.getKey();
+
+            Object value = entry.getValue();
+
+            if (value instanceof Map) {
+                result.putAll(buildUrlQueryParameters(key, (Map)value));
+            } else {
+                result.put(key, value);
+            }
+        }
+
+        return result;
+    }
+
+    private static class BatchedRequest {
+
+        private final String path;
+        private final String verb;
+        private final Map<String, ? extends Object> parameters;
+        private final RequestOptions options;
+        private final Callback callback;
+
+        public BatchedRequest(String path, String verb,
+                Map<String, ? extends Object> parameters,
+                RequestOptions options, Callback callback) {
+            this.path = path;
+            this.verb = verb;
+            this.parameters = parameters;
+            this.options = options;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * The calls sent together when replaying the offline queue.
+     */
+    private static class ReplayRound {
+
+        private final AtomicInteger remaining;
+        private volatile boolean interrupted;
+
+        public ReplayRound(int count) {
+            remaining = new AtomicInteger(count);
+        }
+    }
+
+    /**
+     * A call of the offline queue being replayed, with the callback that
+     * was attached to it when it was sent.
+     */
+    private class QueuedCall {
+
+        private final OfflineQueue queue;
+        private final OfflineQueue.Entry entry;
+        private final ReplayRound round;
+        private final Callback callback;
+        private boolean completed;
+
+        public QueuedCall(OfflineQueue queue, OfflineQueue.Entry entry,
+                ReplayRound round) {
+            this.queue = queue;
+            this.entry = entry;
+            this.round = round;
+            this.callback = queue.getCallback(entry.getId());
+        }
+
+        /**
+         * Removes the call from the queue, unless it failed with a
+         * transient error and may be sent again, and replays the queue
+         * again once the round is over.
+         * @return <code>true</code> if the outcome is final and should be
+         * passed on to the callback, if there is one.
+         */
+        public boolean complete(Throwable t) {
+            synchronized (this) {
+                if (completed) {
+                    return false;
+                }
+                completed = true;
+            }
+            boolean again;
+            if (t instanceof HttpResponseException && isTransientError(t)) {
+                // The server answered, so this counts as an attempt.
+                again = queue.retry(entry.getId());
+            }
+            else {
+                again = t != null && isTransientError(t);
+                if (!again) {
+                    queue.remove(entry.getId());
+                }
+            }
+            if (again) {
+                if (LOG) {
+                    Log.i("RestAdapter", "Queued call failed: " + t);
+                }
+                round.interrupted = true;
+            }
+            else {
+                queue.takeCallback(entry.getId());
+            }
+            if (round.remaining.decrementAndGet() == 0) {
+                endReplayRound(queue, round.interrupted);
+            }
+            return !again && callback != null;
+        }
+    }
+
+    /**
+     * Passes the outcome of a replayed call on to a plain callback once it
+     * is final, see {@link QueuedCall#complete(Throwable)}.
+     */
+    private static class ReplayCallback implements Callback {
+
+        private final QueuedCall call;
+
+        public ReplayCallback(QueuedCall call) {
+            this.call = call;
+        }
+
+        @Override
+        public void onSuccess(String response, Object...data) {
+            if (call.complete(null)) {
+                try {
+                    call.callback.onSuccess(response, data);
+                } catch (Throwable t) {
+                    call.callback.onError(t);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (call.complete(t)) {
+                call.callback.onError(t);
+            }
+        }
+    }
+
+    /**
+     * Passes the outcome of a replayed call on to a JSON callback once it
+     * is final. The response is still parsed by the callback on the
+     * network thread, and a {@link ResponseFuture} still cancels the
+     * request, see {@link RestAdapter#getFuture(Callback)}.
+     */
+    private static class ReplayJsonCallback extends JsonCallback {
+
+        private final QueuedCall call;
+        private final JsonCallback callback;
+
+        public ReplayJsonCallback(QueuedCall call) {
+            this.call = call;
+            this.callback = (JsonCallback)call.callback;
+        }
+
+        @Override
+        Object parse(String response) throws JSONException {
+            return callback.parse(response);
+        }
+
+        @Override
+        public void onSuccess(Object response) {
+            if (call.complete(null)) {
+                try {
+                    callback.onSuccess(response);
+                } catch (Throwable t) {
+                    callback.onError(t);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (call.complete(t)) {
+                callback.onError(t);
+            }
+        }
+    }
+
+    /**
+     * Gets the future a callback completes, looking through the wrapper of
+     * a replayed call.
+     * @return the future, or <code>null</code> if there is none.
+     */
+    private static ResponseFuture getFuture(Callback callback) {
+        if (callback instanceof ReplayJsonCallback) {
+            callback = ((ReplayJsonCallback)callback).callback;
+        }
+        return callback instanceof ResponseFuture
+                ? (ResponseFuture)callback : null;
+    }
+
+    /**
+     * Returns whether a call that failed with the given error may succeed
+     * when it is sent again later.
+     */
+    static boolean isTransientError(Throwable t) {
+        if (t instanceof HttpResponseException) {
+            int status = ((HttpResponseException)t).getStatusCode();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return t instanceof IOException;
+    }
+
+    /**
+     * Splits the response of a batch request, a JSON array of
+     * <code>{ "status": 200, "body": "..." }</code> objects in request order,
+     * back to the callbacks of the individual requests. The response is
+     * split and parsed on the network thread.
+     */
+    private static class BatchCallback implements StreamingCallback {
+
+        private final List<BatchedRequest> requests;
+        private final List<CallbackResponseHandler> handlers;
+
+        /**
+         * @param executor The executor to invoke the callbacks on, or
+         * <code>null</code> for the looper of the current thread.
+         */
+        public BatchCallback(List<BatchedRequest> requests,
+                Executor executor) {
+            this.requests = requests;
+            this.handlers =
+                    new ArrayList<CallbackResponseHandler>(requests.size());
+            for (BatchedRequest request : requests) {
+                handlers.add(new CallbackResponseHandler(request.callback,
+                        executor));
+            }
+        }
+
+        @Override
+        public void onResponse(InputStream body, String charset)
+                throws IOException {
+            onSuccess(new String(readBytes(body), charset));
+        }
+
+        @Override
+        public void onSuccess(String response, Object...data) {
+            JSONArray responses;
+            try {
+                Object json = response != null
+                        ? new JSONTokener(response).nextValue() : null;
+                if (!(json instanceof JSONArray) ||
+                        ((JSONArray)json).length() != requests.size()) {
+                    throw new JSONException(
+                            "Invalid batch response: " + response);
+                }
+                responses = (JSONArray)json;
+            }
+            catch (JSONException e) {
+                onError(e);
+                return;
+            }
+
+            for (int i = 0; i < requests.size(); i++) {
+                CallbackResponseHandler handler = handlers.get(i);
+                JSONObject item = responses.optJSONObject(i);
+                int status = item != null ? item.optInt("status", 500) : 500;
+                String body = item != null && !item.isNull("body")
+                        ? item.optString("body") : null;
+                if (status >= 300) {
+                    handler.deliverError(new HttpResponseException(status,
+                            String.valueOf(body)));
+                }
+                else {
+                    handler.deliverSuccess(body);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            for (CallbackResponseHandler handler : handlers) {
+                handler.deliverError(t);
+            }
+        }
+    }
+
+    /**
+     * Gets the charset of a <code>Content-Type</code> header.
+     */
+    private static String getCharset(String contentType,
+            String defaultCharset) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String charset = param.substring(8).replace("\"", "");
+                    if (charset.length() > 0) {
+                        return charset;
+                    }
+                }
+            }
+        }
+        return defaultCharset;
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static String readString(HttpTransport.Response response)
+            throws IOException {
+        return new String(readBytes(response.getBody()),
+                getCharset(response.getHeader("Content-Type"), "utf-8"));
+    }
+
+    /**
+     * A codec offered to the server, and whether the server accepts it.
+     */
+    private static final class Negotiation {
+
+        final Codec codec;
+        final HeaderProfile headers;
+        // Whether request bodies may be sent in the codec's format.
+        final boolean encodeRequests;
+        // Set once the server has responded in the codec's format.
+        final AtomicBoolean accepted = new AtomicBoolean();
+        // Set once the server has rejected a request body in it.
+        final AtomicBoolean rejected = new AtomicBoolean();
+
+        Negotiation(Codec codec, boolean encodeRequests) {
+            this.codec = codec;
+            this.encodeRequests = encodeRequests;
+            this.headers = HeaderProfile.EMPTY.with("Accept",
+                    codec.getContentType() + ", application/json;q=0.5");
+        }
+
+        /**
+         * Gets whether a response is in the codec's format.
+         */
+        boolean matches(HttpTransport.Response response) {
+            String contentType = response.getHeader("Content-Type");
+            if (contentType == null) {
+                return false;
+            }
+            int semicolon = contentType.indexOf(';');
+            String mediaType = semicolon >= 0
+                    ? contentType.substring(0, semicolon) : contentType;
+            String expected = codec.getContentType();
+            semicolon = expected.indexOf(';');
+            if (semicolon >= 0) {
+                expected = expected.substring(0, semicolon);
+            }
+            return mediaType.trim().equalsIgnoreCase(expected.trim());
+        }
+    }
+
+    /**
+     * Delivers a response to an {@link Adapter.Callback}, on the thread that
+     * made the request if it has a {@link android.os.Looper}.
+     */
+    private static class CallbackResponseHandler
+            implements HttpTransport.ResponseHandler {
+
+        protected final Callback callback;
+        private final Executor executor;
+        private final Handler handler;
+        // Guarded by this.
+        private List<CallbackResponseHandler> followers;
+        private boolean delivered;
+        private ConcurrentMap<String, CallbackResponseHandler> inFlight;
+        private String key;
+        private volatile RequestMetrics metrics;
+        private volatile Negotiation negotiation;
+
+        /**
+         * @param executor The executor to invoke the callback on, or
+         * <code>null</code> for the looper of the current thread.
+         */
+        public CallbackResponseHandler(Callback callback, Executor executor) {
+            this.callback = callback;
+            if (getFuture(callback) != null) {
+                // Completed on the network thread, without a thread hop.
+                this.executor = null;
+                this.handler = null;
+            }
+            else {
+                this.executor = executor;
+                Looper looper = executor == null ? Looper.myLooper() : null;
+                this.handler = looper != null ? new Handler(looper) : null;
+            }
+        }
+
+        /**
+         * Sets the metrics to record the parse time in.
+         */
+        public void setMetrics(RequestMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * Sets the codec offered for this handler's request, to decode the
+         * response with if the server chose it.
+         */
+        public void setNegotiation(Negotiation negotiation) {
+            this.negotiation = negotiation;
+        }
+
+        /**
+         * Sets the map this handler's request is recorded in as in flight,
+         * to remove it from once the response is delivered.
+         */
+        public synchronized void setInFlight(
+                ConcurrentMap<String, CallbackResponseHandler> inFlight,
+                String key) {
+            this.inFlight = inFlight;
+            this.key = key;
+        }
+
+        /**
+         * Attaches the handler of an identical request, to deliver the same
+         * response to, on its own thread.
+         * @return <code>false</code> if the response was already delivered.
+         */
+        public synchronized boolean addFollower(
+                CallbackResponseHandler follower) {
+            if (delivered) {
+                return false;
+            }
+            if (followers == null) {
+                followers = new ArrayList<CallbackResponseHandler>();
+            }
+            followers.add(follower);
+            return true;
+        }
+
+        private synchronized List<CallbackResponseHandler> takeFollowers() {
+            delivered = true;
+            if (inFlight != null) {
+                inFlight.remove(key, this);
+            }
+            List<CallbackResponseHandler> result = followers;
+            followers = null;
+            return result != null
+                    ? result : Collections.<CallbackResponseHandler>emptyList();
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            Negotiation negotiation = this.negotiation;
+            if (negotiation != null && response.getStatusCode() < 300 &&
+                    negotiation.matches(response)) {
+                negotiation.accepted.set(true);
+                long start = System.nanoTime();
+                Object value;
+                try {
+                    value = negotiation.codec.decode(response.getBody());
+                }
+                catch (IOException e) {
+                    if (metrics != null) {
+                        metrics.setError(e);
+                    }
+                    deliverError(e);
+                    return;
+                }
+                deliverDecoded(value, start);
+                return;
+            }
+            String body = readString(response);
+            int status = response.getStatusCode();
+            if (status >= 300) {
+                if (LOG) {
+                    Log.i("RestAdapter", "Error: " + body);
+                }
+                deliverError(new HttpResponseException(status,
+                        response.getReasonPhrase()));
+            }
+            else {
+                deliverSuccess(body);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            deliverError(t);
+        }
+
+        /**
+         * Delivers a response, whether or not it came from the network.
+         */
+        public void deliverSuccess(final String response,
+                final Object...data) {
+            for (CallbackResponseHandler follower : takeFollowers()) {
+                follower.deliverSuccess(response, data);
+            }
+            if (callback instanceof JsonCallback) {
+                deliverJson(response);
+                reportCoalesced();
+                return;
+            }
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (LOG) {
+                        Log.i("RestAdapter", "Success: " + response);
+                    }
+                    try {
+                        callback.onSuccess(response, data);
+                    } catch (Throwable t) {
+                        callback.onError(t);
+                    }
+                }
+            });
+            reportCoalesced();
+        }
+
+        /**
+         * Delivers a response decoded by a codec. JSON callbacks receive it
+         * converted to JSON objects, without parsing any text, and other
+         * callbacks as JSON text.
+         * @param start When decoding started, to record the parse time.
+         */
+        public void deliverDecoded(Object value, long start) {
+            if (!(callback instanceof JsonCallback)) {
+                String text;
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    JsonUtil.toJson(value, out);
+                    text = out.toString("UTF-8");
+                }
+                catch (IOException e) {
+                    deliverError(e);
+                    return;
+                }
+                deliverSuccess(text);
+                return;
+            }
+            for (CallbackResponseHandler follower : takeFollowers()) {
+                follower.deliverDecoded(value, System.nanoTime());
+            }
+            final JsonCallback jsonCallback = (JsonCallback)callback;
+            final Object json;
+            try {
+                json = JsonUtil.toJson(value);
+            }
+            catch (JSONException e) {
+                if (metrics != null) {
+                    metrics.setError(e);
+                }
+                deliverError(e);
+                return;
+            }
+            if (metrics != null) {
+                metrics.setParseTime(RequestMetrics.elapsed(start));
+            }
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        jsonCallback.onSuccess(json);
+                    } catch (Throwable t) {
+                        jsonCallback.onError(t);
+                    }
+                }
+            });
+            reportCoalesced();
+        }
+
+        /**
+         * Parses a JSON response on the current thread, and only invokes
+         * the callback on the callback thread.
+         */
+        private void deliverJson(final String response) {
+            final JsonCallback jsonCallback = (JsonCallback)callback;
+            final Object json;
+            long start = System.nanoTime();
+            try {
+                json = jsonCallback.parse(response);
+            }
+            catch (JSONException e) {
+                if (metrics != null) {
+                    metrics.setError(e);
+                }
+                deliverError(e);
+                return;
+            }
+            if (metrics != null) {
+                metrics.setParseTime(RequestMetrics.elapsed(start));
+            }
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (LOG) {
+                        Log.i("RestAdapter", "Success: " + response);
+                    }
+                    try {
+                        jsonCallback.onSuccess(json);
+                    } catch (Throwable t) {
+                        jsonCallback.onError(t);
+                    }
+                }
+            });
+        }
+
+        public void deliverError(final Throwable t) {
+            for (CallbackResponseHandler follower : takeFollowers()) {
+                follower.deliverError(t);
+            }
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.onError(t);
+                }
+            });
+            if (metrics != null && metrics.isCoalesced()) {
+                metrics.setError(t);
+                reportCoalesced();
+            }
+        }
+
+        /**
+         * Reports the metrics of a request that shared the response of
+         * another. The metrics of other requests are reported by a
+         * {@link MetricsResponseHandler}.
+         */
+        private void reportCoalesced() {
+            RequestMetrics metrics = this.metrics;
+            if (metrics != null && metrics.isCoalesced()) {
+                metrics.report();
+            }
+        }
+
+        protected void post(Runnable runnable) {
+            if (executor != null) {
+                executor.execute(runnable);
+            }
+            else if (handler != null) {
+                handler.post(runnable);
+            }
+            else {
+                runnable.run();
+            }
+        }
+    }
+
+    /**
+     * Posts the progress of a multipart upload to a
+     * {@link ProgressCallback}, and aborts the upload once it is cancelled.
+     */
+    private static class UploadProgressListener
+            implements MultipartBody.ProgressListener {
+
+        private final ProgressCallback callback;
+        private final CallbackResponseHandler handler;
+
+        public UploadProgressListener(ProgressCallback callback,
+                CallbackResponseHandler handler) {
+            this.callback = callback;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onProgress(final long bytesWritten,
+                final long totalBytes) throws IOException {
+            if (callback.isCancelled()) {
+                throw new InterruptedIOException("Upload cancelled");
+            }
+            handler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.onProgress(bytesWritten, totalBytes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Delivers a multipart GET response as a {@link ByteBuffer}, whatever
+     * its content type. Large responses should use a
+     * {@link DownloadCallback} instead.
+     */
+    private static class BinaryResponseHandler
+            extends CallbackResponseHandler {
+
+        public BinaryResponseHandler(Callback callback, Executor executor) {
+            super(callback, executor);
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            int status = response.getStatusCode();
+            byte[] body = readBytes(response.getBody());
+            if (status >= 300) {
+                onFailure(new HttpResponseException(status,
+                        response.getReasonPhrase()));
+            }
+            else {
+                if (LOG) {
+                    Log.i("RestAdapter", "Binary Response Success");
+                }
+                deliverSuccess(null, ByteBuffer.wrap(body));
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (LOG) {
+                Log.i("RestAdapter", "BinaryError: " + t.toString());
+            }
+            super.onFailure(t);
+        }
+    }
+
+    /**
+     * Writes the response body to the destination of a
+     * {@link DownloadCallback} on the worker thread, and delivers the
+     * progress and outcome on the thread that made the request.
+     */
+    private static class DownloadResponseHandler
+            extends CallbackResponseHandler {
+
+        private static final long PROGRESS_INTERVAL = 64 * 1024;
+
+        private final DownloadCallback download;
+        private final long offset;
+
+        /**
+         * @param offset The offset the download was requested from.
+         */
+        public DownloadResponseHandler(DownloadCallback download,
+                long offset, Executor executor) {
+            super(download, executor);
+            this.download = download;
+            this.offset = offset;
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            int status = response.getStatusCode();
+            long start = 0;
+            long total = -1;
+            String contentRange = response.getHeader("Content-Range");
+
+            if (status == 206) {
+                long[] range = parseContentRange(contentRange);
+                if (range == null || range[0] != offset) {
+                    deliverError(new HttpResponseException(status,
+                            "Invalid Content-Range: " + contentRange));
+                    return;
+                }
+                start = offset;
+                total = range[1];
+            }
+            else if (status == 416 && offset > 0) {
+                // Requested Range Not Satisfiable, possibly because the
+                // file is complete already.
+                long[] range = parseContentRange(contentRange);
+                if (range != null && range[1] == offset) {
+                    deliverSuccess(null, Long.valueOf(offset));
+                }
+                else {
+                    deliverError(new HttpResponseException(status,
+                            response.getReasonPhrase()));
+                }
+                return;
+            }
+            else if (status >= 300) {
+                deliverError(new HttpResponseException(status,
+                        response.getReasonPhrase()));
+                return;
+            }
+            else if (response.getHeader("Content-Encoding") == null) {
+                // A decoded body has a different length.
+                total = parseLong(response.getHeader("Content-Length"));
+            }
+
+            long written = start;
+            long reported = start;
+            long interval = Math.max(PROGRESS_INTERVAL, total / 100);
+            WritableByteChannel out = download.open(start > 0);
+            try {
+                InputStream in = response.getBody();
+                byte[] buffer = new byte[8192];
+                ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    if (download.isCancelled()) {
+                        throw new InterruptedIOException(
+                                "Download cancelled");
+                    }
+                    wrapper.clear();
+                    wrapper.limit(count);
+                    while (wrapper.hasRemaining()) {
+                        out.write(wrapper);
+                    }
+                    written += count;
+                    if (written - reported >= interval) {
+                        reported = written;
+                        postProgress(written, total);
+                    }
+                }
+            }
+            finally {
+                download.close(out);
+            }
+            if (written != reported) {
+                postProgress(written, total);
+            }
+            deliverSuccess(null, Long.valueOf(written));
+        }
+
+        private void postProgress(final long written, final long total) {
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    download.onProgress(written, total);
+                }
+            });
+        }
+
+        private static long parseLong(String value) {
+            if (value != null) {
+                try {
+                    return Long.parseLong(value.trim());
+                }
+                catch (NumberFormatException e) {
+                    // Treat as unknown
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Parses a <code>Content-Range</code> header, e.g.
+         * <code>bytes 100-199/300</code> or <code>bytes *&#47;300</code>.
+         * @return the first byte (-1 for "*") and the total length (-1 for
+         * "*"), or <code>null</code> if the header is invalid.
+         */
+        private static long[] parseContentRange(String contentRange) {
+            if (contentRange == null ||
+                    !contentRange.regionMatches(true, 0, "bytes ", 0, 6)) {
+                return null;
+            }
+            String range = contentRange.substring(6).trim();
+            int slash = range.indexOf('/');
+            if (slash < 0) {
+                return null;
+            }
+            String first = range.substring(0, slash);
+            int dash = first.indexOf('-');
+            if (dash >= 0) {
+                first = first.substring(0, dash);
+            }
+            else if (!"*".equals(first)) {
+                return null;
+            }
+            String total = range.substring(slash + 1);
+            return new long[] {
+                "*".equals(first) ? -1 : parseLong(first),
+                "*".equals(total) ? -1 : parseLong(total)
+            };
+        }
+    }
+
+    /**
+     * Streams the response body to a {@link StreamingCallback}, on the
+     * worker thread. A {@link TypedCallback} or a
+     * {@link JsonArrayStreamCallback} reads the body there too, but its
+     * outcome is delivered on the thread that made the request, like
+     * errors.
+     */
+    private static class StreamingResponseHandler
+            extends CallbackResponseHandler {
+
+        /**
+         * @param executor The executor to invoke the callback on, or
+         * <code>null</code> for the looper of the current thread.
+         */
+        public StreamingResponseHandler(StreamingCallback callback,
+                Executor executor) {
+            super(callback, executor);
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            int status = response.getStatusCode();
+            if (status >= 300) {
+                if (LOG) {
+                    Log.i("RestAdapter", "Stream Error: " + status);
+                }
+                deliverError(new HttpResponseException(status,
+                        response.getReasonPhrase()));
+                return;
+            }
+            String charset =
+                    getCharset(response.getHeader("Content-Type"), "utf-8");
+            if (callback instanceof TypedCallback) {
+                final TypedCallback<?> typedCallback =
+                        (TypedCallback<?>)callback;
+                final Object value = typedCallback.parse(
+                        new InputStreamReader(response.getBody(), charset));
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            typedCallback.deliver(value);
+                        } catch (Throwable t) {
+                            typedCallback.onError(t);
+                        }
+                    }
+                });
+            }
+            else if (callback instanceof JsonArrayStreamCallback) {
+                final JsonArrayStreamCallback arrayCallback =
+                        (JsonArrayStreamCallback)callback;
+                final int count;
+                try {
+                    count = arrayCallback.parse(new InputStreamReader(
+                            response.getBody(), charset));
+                }
+                catch (JSONException e) {
+                    deliverError(e);
+                    return;
+                }
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            arrayCallback.onSuccess(count);
+                        } catch (Throwable t) {
+                            arrayCallback.onError(t);
+                        }
+                    }
+                });
+            }
+            else {
+                ((StreamingCallback)callback).onResponse(response.getBody(),
+                        charset);
+            }
+        }
+    }
+
+    /**
+     * Stores GET responses in a {@link ResponseCache}, and answers
+     * <code>304 Not Modified</code> responses from it.
+     */
+    private static class CachingResponseHandler
+            extends CallbackResponseHandler {
+
+        private final ResponseCache cache;
+        private final String key;
+        private final String variant;
+        private volatile ResponseCache.Entry entry;
+
+        /**
+         * @param variant The digest of the request headers, see
+         * {@link ResponseCache.Entry#getVariant()}.
+         */
+        public CachingResponseHandler(Callback callback, Executor executor,
+                ResponseCache cache, String key, String variant) {
+            super(callback, executor);
+            this.cache = cache;
+            this.key = key;
+            this.variant = variant;
+        }
+
+        /**
+         * Sets the stale entry being revalidated.
+         */
+        public void setEntry(ResponseCache.Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void onResponse(HttpTransport.Response response)
+                throws Exception {
+            int status = response.getStatusCode();
+            long now = System.currentTimeMillis();
+            ResponseCache.Entry entry = this.entry;
+
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED &&
+                    entry != null) {
+                cache.recordConditionalHit();
+                long expires = getExpires(response, now);
+                if (expires >= 0) {
+                    cache.put(key, new ResponseCache.Entry(entry.getBody(),
+                            getHeader(response, "ETag", entry.getEtag()),
+                            getHeader(response, "Last-Modified",
+                                    entry.getLastModified()),
+                            expires, variant));
+                }
+                else {
+                    cache.remove(key);
+                }
+                deliverSuccess(entry.getBody());
+                return;
+            }
+
+            String body = readString(response);
+            if (status >= 300) {
+                deliverError(new HttpResponseException(status,
+                        response.getReasonPhrase()));
+                return;
+            }
+
+            cache.recordMiss();
+            ResponseCache.Entry newEntry = null;
+            long expires = getExpires(response, now);
+            if (expires >= 0) {
+                newEntry = new ResponseCache.Entry(body,
+                        getHeader(response, "ETag", null),
+                        getHeader(response, "Last-Modified", null),
+                        expires, variant);
+            }
+            if (newEntry != null &&
+                    (newEntry.isFresh(now) || newEntry.hasValidator())) {
+                cache.put(key, newEntry);
+            }
+            else {
+                cache.remove(key);
+            }
+            deliverSuccess(body);
+        }
+
+        private static String getHeader(HttpTransport.Response response,
+                String name, String defaultValue) {
+            String value = response.getHeader(name);
+            return value != null ? value : defaultValue;
+        }
+
+        /**
+         * Gets the time the response must be revalidated after, based on
+         * its <code>Cache-Control</code> header.
+         * @return the expiration time, or -1 if the response must not be
+         * stored, also when it varies with anything but the request
+         * headers.
+         */
+        private static long getExpires(HttpTransport.Response response,
+                long now) {
+            String vary = response.getHeader("Vary");
+            if (vary != null && "*".equals(vary.trim())) {
+                return -1;
+            }
+            long maxAge = 0;
+            String cacheControl = response.getHeader("Cache-Control");
+            if (cacheControl != null) {
+                for (String directive : cacheControl.split(",")) {
+                    String name = directive.trim();
+                    String value = null;
+                    int equals = name.indexOf('=');
+                    if (equals >= 0) {
+                        value = name.substring(equals + 1).trim()
+                                .replace("\"", "");
+                        name = name.substring(0, equals).trim();
+                    }
+                    if ("no-store".equalsIgnoreCase(name)) {
+                        return -1;
+                    }
+                    else if ("no-cache".equalsIgnoreCase(name)) {
+                        return now;
+                    }
+                    else if ("max-age".equalsIgnoreCase(name) &&
+                            value != null) {
+                        try {
+                            maxAge = Long.parseLong(value);
+                        }
+                        catch (NumberFormatException e) {
+                            // Treat as expired
+                        }
+                    }
+                }
+            }
+            return now + Math.max(maxAge, 0) * 1000;
+        }
+    }
+
+    /**
+     * @deprecated Multipart requests no longer use loopj's
+     * {@link RequestParams}.
+     */
+    @Deprecated
     static protected RequestParams putInRequestParams(Map<String, ? extends Object> parameters) throws FileNotFoundException
     {
         RequestParams requestParams = new RequestParams();
@@ -3,8 +3,13 @@
 package com.strongloop.android.remoting.adapters;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 /**
  * A contract specifies how remote method names map to HTTP routes.
  *
@@ -36,6 +41,7 @@ public class RestContract {
 
     private Map<String, RestContractItem> items =
             new HashMap<String, RestContractItem>();
+    private volatile int modCount;
 
     /**
      * Adds a single item to this contract. The item can be shared among
@@ -56,7 +62,10 @@ public class RestContract {
             throw new IllegalArgumentException(
                     "Neither item nor method can be null");
         }
+        // Parse the pattern now rather than on the first request.
+        item.getTemplate();
         items.put(method, item);
+        modCount++;
     }
 
     /**
@@ -69,6 +78,61 @@ public class RestContract {
             throw new IllegalArgumentException("Contract cannot be null");
         }
         items.putAll(contract.items);
+        modCount++;
+    }
+
+    /**
+     * Adds an item for each route a server describes, e.g. as fetched by
+     * {@link RestAdapter#discoverContract(java.io.File, long,
+     * Adapter.Callback)}. Each route is an object like
+     * <code>{"method": "widgets.find", "path": "/widgets", "verb": "GET"}</code>,
+     * its verb defaulting to <code>"POST"</code>. An item already in this
+     * contract with the same pattern and verb is kept, together with its
+     * settings, e.g. its retry policy.
+     * @param routes The routes.
+     * @throws JSONException if a route has no method or path.
+     */
+    public void addItemsFromRoutes(JSONArray routes) throws JSONException {
+        if (routes == null) {
+            throw new IllegalArgumentException("Routes cannot be null");
+        }
+        for (int i = 0; i < routes.length(); i++) {
+            JSONObject route = routes.getJSONObject(i);
+            String method = route.getString("method");
+            String pattern = route.getString("path");
+            String verb = route.optString("verb", "POST")
+                    .toUpperCase(Locale.US);
+            if (verb.equals("DEL")) {
+                verb = "DELETE";
+            }
+            else if (verb.equals("ALL")) {
+                verb = "POST";
+            }
+            RestContractItem item = items.get(method);
+            if (item != null && pattern.equals(item.getPattern()) &&
+                    verb.equalsIgnoreCase(item.getVerb())) {
+                continue;
+            }
+            addItem(new RestContractItem(pattern, verb), method);
+        }
+    }
+
+    /**
+     * Gets the item added for the given method.
+     * @param method The method to resolve.
+     * @return the item, or <code>null</code> if none was added.
+     */
+    RestContractItem getItemForMethod(String method) {
+        return items.get(method);
+    }
+
+    /**
+     * Gets the number of times items were added to this contract, so that
+     * what was resolved from it can be checked cheaply for staleness.
+     * @return the count.
+     */
+    int getModCount() {
+        return modCount;
     }
 
     /**
@@ -117,7 +181,70 @@ public class RestContract {
 
         return item != null ? item.getIsMultipart() : false;        
     }
+
+    /**
+     * Gets a boolean to indicate if request bodies for the given method
+     * may be gzip compressed.
+     * @param method The method to resolve.
+     * @return A boolean indicating compression or not.
+     */
+    public boolean getIsCompressedForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getIsCompressed() : false;
+    }
     
+    /**
+     * Gets a boolean to indicate if requests for the given method can
+     * safely be sent more than once.
+     * @param method The method to resolve.
+     * @return A boolean indicating idempotency or not. Methods without an
+     * item are POST requests, and not idempotent.
+     */
+    public boolean getIsIdempotentForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getIsIdempotent() : false;
+    }
+
+    /**
+     * Gets the policy for retrying requests for the given method.
+     * @param method The method to resolve.
+     * @return The policy, or <code>null</code> if none was set.
+     */
+    public RetryPolicy getRetryPolicyForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getRetryPolicy() : null;
+    }
+
+    /**
+     * Gets the headers sent with requests for the given method.
+     * @param method The method to resolve.
+     * @return The headers, empty if none were set.
+     */
+    public Map<String, String> getHeadersForMethod(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Method cannot be null");
+        }
+
+        RestContractItem item = items.get(method);
+
+        return item != null ? item.getHeaders() : HeaderProfile.EMPTY;
+    }
+
     /**
      * Resolves a specific method, replacing pattern fragments with the optional
      * parameters as appropriate.
@@ -131,10 +258,10 @@ public class RestContract {
             throw new IllegalArgumentException("Method cannot be null");
         }
 
-        String pattern = getPatternForMethod(method);
+        RestContractItem item = items.get(method);
 
-        if (pattern != null) {
-            return getUrl(pattern, parameters);
+        if (item != null && item.getPattern() != null) {
+            return item.getTemplate().expand(parameters);
         }
         else {
             return getUrlForMethodWithoutItem(method);
@@ -160,6 +287,10 @@ public class RestContract {
      * example, the pattern <code>"/widgets/:id"</code> with the parameters
      * that contain the value <code>"57"</code> for key <code>"id"</code>,
      * begets <code>"/widgets/57"</code>.
+     * <p>
+     * Patterns of items added to this contract are parsed only once, see
+     * {@link #getUrlForMethod(String, Map)}; this method parses
+     * <code>pattern</code> on every call.
      * @param pattern The pattern to render.
      * @param parameters The values to render with.
      * @return The rendered URL.
@@ -170,18 +301,6 @@ public class RestContract {
             throw new IllegalArgumentException("Pattern cannot be null");
         }
 
-        String url = pattern;
-        if (parameters == null) {
-            return url;
-        }
-
-        for (Map.Entry<String, ? extends Object> entry :
-            parameters.entrySet()) {
-            String key = ":" + entry.getKey();
-            String value = String.valueOf(entry.getValue());
-            url = url.replace(key, value);
-        }
-
-        return url;
+        return PathTemplate.compile(pattern).expand(parameters);
     }
 }
@@ -1,5 +1,7 @@
 package com.strongloop.android.remoting.adapters;
 
+import java.util.Map;
+
 /**
  * A single item within a larger SLRESTContract, encapsulation a single route's
  * verb and pattern, e.g. GET /widgets/:id.
@@ -9,6 +11,11 @@ public class RestContractItem {
     private final String pattern;
     private final String verb;
     private final boolean isMultipart;
+    private volatile boolean isCompressed;
+    private volatile Boolean isIdempotent;
+    private volatile RetryPolicy retryPolicy;
+    private volatile HeaderProfile headers = HeaderProfile.EMPTY;
+    private volatile PathTemplate template;
 
     /**
      * Creates a new item encapsulating the given pattern and the default verb,
@@ -70,4 +77,102 @@ public class RestContractItem {
     public boolean getIsMultipart() {
         return isMultipart;
     }
+
+    /**
+     * Gets a boolean that indicates if request bodies sent to this route
+     * may be gzip compressed.
+     * @return true if the server accepts compressed request bodies.
+     */
+    public boolean getIsCompressed() {
+        return isCompressed;
+    }
+
+    /**
+     * Sets a boolean that indicates if request bodies sent to this route
+     * may be gzip compressed, i.e. the server accepts
+     * <code>Content-Encoding: gzip</code>. The default is false.
+     * @param isCompressed true if the server accepts compressed request
+     * bodies.
+     * @see RestAdapter#setCompressionThreshold(int)
+     */
+    public void setIsCompressed(boolean isCompressed) {
+        this.isCompressed = isCompressed;
+    }
+
+    /**
+     * Gets a boolean that indicates if requests to this route can safely be
+     * sent more than once.
+     * @return true if the route is idempotent.
+     */
+    public boolean getIsIdempotent() {
+        Boolean result = isIdempotent;
+        if (result != null) {
+            return result;
+        }
+        return !"POST".equalsIgnoreCase(verb);
+    }
+
+    /**
+     * Sets a boolean that indicates if requests to this route can safely be
+     * sent more than once, and so be retried after an error. By default,
+     * all routes except POST routes are idempotent.
+     * @param isIdempotent true if the route is idempotent.
+     * @see RetryPolicy
+     */
+    public void setIsIdempotent(boolean isIdempotent) {
+        this.isIdempotent = isIdempotent;
+    }
+
+    /**
+     * Gets the policy for retrying requests to this route.
+     * @return the policy, or <code>null</code> for the adapter's.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying requests to this route, if it is
+     * idempotent.
+     * @param retryPolicy The policy, or <code>null</code> for the
+     * adapter's (the default).
+     * @see RestAdapter#setRetryPolicy(RetryPolicy)
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the headers sent with every request to this route.
+     * @return the headers, which cannot be modified.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Sets headers sent with every request to this route, in addition to
+     * the adapter's, e.g. a <code>Cache-Control</code> header or an API
+     * version. They replace adapter headers of the same name. Requests
+     * sent in a batch only carry the adapter's headers.
+     * @param headers The headers, or <code>null</code> for none.
+     */
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = HeaderProfile.of(headers);
+    }
+
+    /**
+     * Gets the compiled form of {@link #getPattern()}. The pattern is parsed
+     * on first use only, normally when the item is added to a
+     * {@link RestContract}.
+     * @return the template, or <code>null</code> if there is no pattern.
+     */
+    PathTemplate getTemplate() {
+        PathTemplate result = template;
+        if (result == null && pattern != null) {
+            result = PathTemplate.compile(pattern);
+            template = result;
+        }
+        return result;
+    }
 }
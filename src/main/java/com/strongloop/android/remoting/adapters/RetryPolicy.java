@@ -0,0 +1,131 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Decides whether and when {@link RestAdapter} retries a failed request.
+ * <p>
+ * Requests are retried after network errors and after responses that
+ * indicate a transient condition: <code>408</code>, <code>429</code>,
+ * <code>500</code>, <code>502</code>, <code>503</code> and
+ * <code>504</code>. The delay grows exponentially from the initial delay
+ * up to the maximum delay, and is randomized so that clients that failed
+ * together don't retry together. A <code>Retry-After</code> header
+ * overrides the delay; if it asks for more than the maximum delay, the
+ * request is not retried.
+ * <p>
+ * Only idempotent requests are retried, see
+ * {@link RestContractItem#setIsIdempotent(boolean)}.
+ */
+public class RetryPolicy {
+
+    /**
+     * A policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    /**
+     * The default policy: up to 3 retries, after about 0.5, 1 and 2
+     * seconds, waiting 30 seconds at most.
+     */
+    public static final RetryPolicy DEFAULT =
+            new RetryPolicy(3, 500, 30 * 1000);
+
+    private static final Random random = new Random();
+
+    private final int maxRetries;
+    private final long initialDelay;
+    private final long maxDelay;
+
+    /**
+     * Creates a new policy.
+     * @param maxRetries The maximum number of retries of a request.
+     * @param initialDelay The delay before the first retry, in
+     * milliseconds.
+     * @param maxDelay The maximum delay before a retry, in milliseconds.
+     */
+    public RetryPolicy(int maxRetries, long initialDelay, long maxDelay) {
+        if (maxRetries < 0 || initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxRetries = maxRetries;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Gets the maximum number of retries of a request.
+     * @return the number of retries.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Gets the delay before the first retry.
+     * @return the delay in milliseconds.
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Gets the maximum delay before a retry.
+     * @return the delay in milliseconds.
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Gets whether a request that failed with the given error should be
+     * retried.
+     * @param t The error.
+     * @return <code>true</code> for network errors, but not if the
+     * request was not sent because its circuit is open.
+     */
+    public boolean isRetryable(Throwable t) {
+        return t instanceof IOException &&
+                !(t instanceof CircuitOpenException);
+    }
+
+    /**
+     * Gets whether a request that received a response with the given
+     * status code should be retried.
+     * @param statusCode The status code.
+     * @return <code>true</code> if the status indicates a transient error.
+     */
+    public boolean isRetryable(int statusCode) {
+        switch (statusCode) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the delay before a retry: a random value between half and all
+     * of <code>initialDelay * 2^retry</code>, capped by the maximum delay.
+     * @param retry The number of retries so far, 0 before the first one.
+     * @return the delay in milliseconds.
+     */
+    public long getDelay(int retry) {
+        long delay = initialDelay << Math.min(retry, 30);
+        if (delay > maxDelay || delay < 0) {
+            delay = maxDelay;
+        }
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long)(random.nextDouble() * (delay - half));
+        }
+    }
+}
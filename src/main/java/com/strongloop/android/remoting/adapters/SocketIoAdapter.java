@@ -0,0 +1,619 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.strongloop.android.remoting.JsonUtil;
+
+/**
+ * An adapter that invokes remote methods over a single, persistent
+ * socket.io connection, as served by the <code>socket-io</code> handler of
+ * strong-remoting, rather than making an HTTP request per call.
+ * <p>
+ * Invocations are sent as <code>invoke</code> events, each with its own
+ * acknowledgement id, so that any number of them can be in flight on the
+ * connection at once; their results are matched by id, in whatever order
+ * the server sends them. The connection is opened on the first call, and
+ * opened again by the next call after it was lost. Calls in flight when
+ * the connection is lost fail with an {@link IOException}.
+ * <p>
+ * The socket.io 0.9 protocol is spoken over the WebSocket transport only.
+ * Like {@link RestAdapter}, callbacks are invoked on the looper of the
+ * thread that made the call, unless a callback executor is set.
+ */
+public class SocketIoAdapter extends Adapter {
+
+    /**
+     * The error a remote method returned.
+     */
+    public static class InvocationException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object error;
+
+        InvocationException(Object error) {
+            super(getMessage(error));
+            this.error = error;
+        }
+
+        private static String getMessage(Object error) {
+            if (error instanceof JSONObject) {
+                String message = ((JSONObject)error).optString("message");
+                if (message.length() > 0) {
+                    return message;
+                }
+            }
+            return String.valueOf(error);
+        }
+
+        /**
+         * Gets the error, as sent by the server.
+         * @return the error, e.g. a {@link JSONObject} or a String.
+         */
+        public Object getError() {
+            return error;
+        }
+    }
+
+    private static final boolean LOG = false;
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    // Used by connect(), which runs before the field initializers.
+    private String url;
+    private Connection connection;
+    private ExecutorService writer;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private Executor callbackExecutor;
+
+    public SocketIoAdapter(Context context, String url) {
+        super(context, url);
+    }
+
+    /**
+     * Gets the executor that callbacks are invoked on.
+     * @return the executor, or <code>null</code> if callbacks are invoked
+     * on the looper of the thread that made the call.
+     */
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Sets the executor that callbacks are invoked on. By default, they are
+     * posted to the looper of the thread that made the call, or invoked on
+     * the socket thread if it has none.
+     * @param callbackExecutor The executor, or <code>null</code> for the
+     * default.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The connection is only opened by the first call. Connecting to
+     * <code>null</code> closes the connection.
+     */
+    @Override
+    public void connect(Context context, String url) {
+        final Connection old;
+        synchronized (this) {
+            if (url != null && url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            this.url = url;
+            old = connection;
+            connection = null;
+        }
+        if (old != null) {
+            // Closing may write to the socket, so not on this thread.
+            getWriter().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    old.close();
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return url != null;
+    }
+
+    @Override
+    public void invokeStaticMethod(String method,
+            Map<String, ? extends Object> parameters, Callback callback) {
+        invoke(method, null, parameters, callback);
+    }
+
+    @Override
+    public void invokeInstanceMethod(String method,
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters, Callback callback) {
+        invoke(method, constructorParameters, parameters, callback);
+    }
+
+    private void invoke(String method,
+            Map<String, ? extends Object> constructorParameters,
+            Map<String, ? extends Object> parameters, Callback callback) {
+        if (!isConnected()) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+        final Call call = new Call(callback, callbackExecutor);
+        final String event;
+        try {
+            JSONArray args = new JSONArray();
+            args.put(method);
+            args.put(toJson(constructorParameters));
+            args.put(toJson(parameters));
+            JSONObject json = new JSONObject();
+            json.put("name", "invoke");
+            json.put("args", args);
+            event = json.toString();
+        }
+        catch (JSONException e) {
+            call.deliverError(e);
+            return;
+        }
+        // Sockets can't be written on the main thread, and a single writer
+        // keeps the events in the order they were made.
+        getWriter().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                Connection connection;
+                try {
+                    connection = getConnection();
+                }
+                catch (IOException e) {
+                    call.deliverError(e);
+                    return;
+                }
+                connection.send(nextId.getAndIncrement(), event, call);
+            }
+        });
+    }
+
+    private static Object toJson(Map<String, ? extends Object> parameters)
+            throws JSONException {
+        return parameters != null ? JsonUtil.toJson(parameters)
+                : new JSONObject();
+    }
+
+    private synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SocketIoAdapter writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Gets the open connection, opening a new one if needed. Only called on
+     * the writer thread, so that a single connection is opened at a time.
+     */
+    private Connection getConnection() throws IOException {
+        String url;
+        synchronized (this) {
+            if (connection != null && !connection.isClosed()) {
+                return connection;
+            }
+            url = this.url;
+        }
+        if (url == null) {
+            throw new IOException("Adapter disconnected");
+        }
+        Connection opened = Connection.open(url);
+        synchronized (this) {
+            if (url.equals(this.url)) {
+                connection = opened;
+                return opened;
+            }
+        }
+        // Reconnected to another URL in the meantime.
+        opened.close();
+        throw new IOException("Adapter disconnected");
+    }
+
+    /**
+     * A socket.io session and its calls in flight.
+     */
+    private static class Connection implements WebSocket.Listener {
+
+        private final Map<Long, Call> pending =
+                new ConcurrentHashMap<Long, Call>();
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private final WebSocket socket;
+        private volatile boolean closed;
+        private volatile IOException error;
+
+        private Connection(WebSocket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Performs the socket.io handshake, then opens the WebSocket and
+         * waits for the server to acknowledge the session.
+         */
+        public static Connection open(String url) throws IOException {
+            String[] session = handshake(url);
+            if (!Arrays.asList(session[3].split(",")).contains("websocket")) {
+                throw new IOException(
+                        "The server does not support WebSocket");
+            }
+            URI uri;
+            try {
+                uri = new URI(url.replaceFirst("^http", "ws")
+                        + "/socket.io/1/websocket/" + session[0]);
+            }
+            catch (URISyntaxException e) {
+                throw new IOException("Invalid URL: " + url);
+            }
+            final Connection connection = new Connection(
+                    WebSocket.open(uri, CONNECT_TIMEOUT));
+            Thread reader = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    connection.socket.read(connection);
+                }
+            }, "SocketIoAdapter reader");
+            reader.setDaemon(true);
+            reader.start();
+            boolean acknowledged;
+            try {
+                acknowledged = connection.connected.await(CONNECT_TIMEOUT,
+                        TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                acknowledged = false;
+            }
+            if (!acknowledged || connection.closed) {
+                connection.close();
+                IOException error = connection.error;
+                throw error != null ? error
+                        : new IOException("socket.io connect timed out");
+            }
+            return connection;
+        }
+
+        /**
+         * Gets the session id, heartbeat timeout, close timeout and
+         * transports of a new session.
+         */
+        private static String[] handshake(String url) throws IOException {
+            HttpURLConnection http = (HttpURLConnection)new URL(
+                    url + "/socket.io/1/?t=" + System.currentTimeMillis())
+                    .openConnection();
+            http.setConnectTimeout(CONNECT_TIMEOUT);
+            http.setReadTimeout(CONNECT_TIMEOUT);
+            try {
+                int status = http.getResponseCode();
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException(
+                            "socket.io handshake failed: " + status);
+                }
+                InputStream in = http.getInputStream();
+                StringBuilder body = new StringBuilder();
+                byte[] buffer = new byte[256];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    body.append(new String(buffer, 0, count, "UTF-8"));
+                }
+                String[] session = body.toString().trim().split(":", 4);
+                if (session.length < 4) {
+                    throw new IOException(
+                            "Invalid socket.io handshake: " + body);
+                }
+                return session;
+            }
+            finally {
+                http.disconnect();
+            }
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Sends an event whose acknowledgement completes the call.
+         */
+        public void send(long id, String event, Call call) {
+            synchronized (pending) {
+                if (closed) {
+                    call.deliverError(getFailure());
+                    return;
+                }
+                pending.put(id, call);
+            }
+            try {
+                socket.send("5:" + id + "+::" + event);
+            }
+            catch (IOException e) {
+                if (pending.remove(id) != null) {
+                    call.deliverError(e);
+                }
+                close();
+            }
+        }
+
+        public void close() {
+            socket.close();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            if (LOG) {
+                Log.i("SocketIoAdapter", "Received: " + message);
+            }
+            // type ':' [id ['+']] ':' [endpoint] [':' data]
+            int typeEnd = message.indexOf(':');
+            int idEnd = typeEnd < 0 ? -1 : message.indexOf(':', typeEnd + 1);
+            int endpointEnd = idEnd < 0 ? -1 : message.indexOf(':', idEnd + 1);
+            String type = typeEnd < 0 ? message
+                    : message.substring(0, typeEnd);
+            String data = endpointEnd < 0 ? ""
+                    : message.substring(endpointEnd + 1);
+
+            if (type.equals("1")) {
+                connected.countDown();
+            }
+            else if (type.equals("2")) {
+                try {
+                    socket.send("2::");
+                }
+                catch (IOException e) {
+                    close();
+                }
+            }
+            else if (type.equals("6")) {
+                onAck(data);
+            }
+            else if (type.equals("7")) {
+                error = new IOException("socket.io error: " + data);
+                close();
+            }
+            else if (type.equals("0")) {
+                close();
+            }
+            // Other messages are not used by strong-remoting.
+        }
+
+        private void onAck(String data) {
+            int plus = data.indexOf('+');
+            Call call;
+            try {
+                call = pending.remove(Long.parseLong(
+                        plus < 0 ? data : data.substring(0, plus)));
+            }
+            catch (NumberFormatException e) {
+                return;
+            }
+            if (call == null) {
+                return;
+            }
+            try {
+                JSONArray args = plus < 0 ? new JSONArray()
+                        : new JSONArray(data.substring(plus + 1));
+                call.deliver(args);
+            }
+            catch (JSONException e) {
+                call.deliverError(e);
+            }
+        }
+
+        @Override
+        public void onClose(IOException error) {
+            if (error != null && this.error == null) {
+                this.error = error;
+            }
+            closed = true;
+            connected.countDown();
+            List<Call> calls;
+            synchronized (pending) {
+                calls = new ArrayList<Call>(pending.values());
+                pending.clear();
+            }
+            IOException failure = getFailure();
+            for (Call call : calls) {
+                call.deliverError(failure);
+            }
+        }
+
+        private IOException getFailure() {
+            IOException error = this.error;
+            return error != null ? error
+                    : new IOException("socket.io connection closed");
+        }
+    }
+
+    /**
+     * Delivers the result of a call, on the thread that made it if it has
+     * a {@link android.os.Looper}.
+     */
+    private static class Call {
+
+        private final Callback callback;
+        private final Executor executor;
+        private final Handler handler;
+
+        public Call(Callback callback, Executor executor) {
+            this.callback = callback;
+            if (callback instanceof ResponseFuture) {
+                // Completed on the socket thread, without a thread hop.
+                this.executor = null;
+                this.handler = null;
+            }
+            else {
+                this.executor = executor;
+                Looper looper = executor == null ? Looper.myLooper() : null;
+                this.handler = looper != null ? new Handler(looper) : null;
+            }
+        }
+
+        /**
+         * Delivers the arguments of an acknowledgement, i.e.
+         * <code>[error, result]</code>.
+         */
+        public void deliver(JSONArray args) {
+            Object error = args.opt(0);
+            if (error != null && error != JSONObject.NULL) {
+                deliverError(new InvocationException(error));
+                return;
+            }
+            Object result = args.opt(1);
+            final String response = result == null ? "null"
+                    : result instanceof String
+                    ? JSONObject.quote((String)result) : result.toString();
+            if (callback instanceof JsonCallback) {
+                final JsonCallback jsonCallback = (JsonCallback)callback;
+                final Object json;
+                try {
+                    json = jsonCallback.parse(response);
+                }
+                catch (JSONException e) {
+                    deliverError(e);
+                    return;
+                }
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            jsonCallback.onSuccess(json);
+                        } catch (Throwable t) {
+                            jsonCallback.onError(t);
+                        }
+                    }
+                });
+                return;
+            }
+            if (callback instanceof TypedCallback) {
+                final TypedCallback<?> typedCallback =
+                        (TypedCallback<?>)callback;
+                final Object value;
+                try {
+                    value = typedCallback.parse(new StringReader(response));
+                }
+                catch (IOException e) {
+                    deliverError(e);
+                    return;
+                }
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            typedCallback.deliver(value);
+                        } catch (Throwable t) {
+                            typedCallback.onError(t);
+                        }
+                    }
+                });
+                return;
+            }
+            if (callback instanceof JsonArrayStreamCallback) {
+                final JsonArrayStreamCallback arrayCallback =
+                        (JsonArrayStreamCallback)callback;
+                final int count;
+                try {
+                    count = arrayCallback.parse(new StringReader(response));
+                }
+                catch (IOException e) {
+                    deliverError(e);
+                    return;
+                }
+                catch (JSONException e) {
+                    deliverError(e);
+                    return;
+                }
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            arrayCallback.onSuccess(count);
+                        } catch (Throwable t) {
+                            arrayCallback.onError(t);
+                        }
+                    }
+                });
+                return;
+            }
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        callback.onSuccess(response);
+                    } catch (Throwable t) {
+                        callback.onError(t);
+                    }
+                }
+            });
+        }
+
+        public void deliverError(final Throwable t) {
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.onError(t);
+                }
+            });
+        }
+
+        private void post(Runnable runnable) {
+            if (executor != null) {
+                executor.execute(runnable);
+            }
+            else if (handler != null) {
+                handler.post(runnable);
+            }
+            else {
+                runnable.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An {@link HttpTransport} based on {@link HttpURLConnection}.
+ * <p>
+ * On Android 4.0 and later, <code>HttpURLConnection</code> pools
+ * connections and caches SSL sessions, with a smaller footprint than the
+ * Apache HttpClient. Request bodies of known length are streamed without
+ * buffering. Responses are requested with gzip or deflate encoding and
+ * decompressed while they are read.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private final ExecutorService executor;
+    private int connectTimeout = 10 * 1000;
+    private int readTimeout = 10 * 1000;
+
+    /**
+     * Creates a transport that executes requests on its own thread pool.
+     */
+    public UrlConnectionTransport() {
+        this(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Creates a transport that executes requests on the given executor.
+     * @param executor The executor.
+     */
+    public UrlConnectionTransport(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the connect timeout.
+     * @return the timeout in milliseconds.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the connect timeout. The default is 10 seconds.
+     * @param connectTimeout The timeout in milliseconds, 0 for none.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Gets the read timeout.
+     * @return the timeout in milliseconds.
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the read timeout. The default is 10 seconds.
+     * @param readTimeout The timeout in milliseconds, 0 for none.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public Future<?> execute(final Request request,
+            final ResponseHandler handler) {
+        final AtomicReference<HttpURLConnection> active =
+                new AtomicReference<HttpURLConnection>();
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+
+            @Override
+            public void run() {
+                HttpURLConnection connection = null;
+                InputStream body = null;
+                try {
+                    connection = open(request);
+                    active.set(connection);
+                    send(connection, request);
+                    final HttpURLConnection response = connection;
+                    final int status = connection.getResponseCode();
+                    body = status >= 400
+                            ? connection.getErrorStream()
+                            : connection.getInputStream();
+                    if (body != null) {
+                        body = decode(body,
+                                connection.getContentEncoding());
+                    }
+                    final InputStream responseBody =
+                            body != null ? body : EMPTY_STREAM;
+                    handler.onResponse(new Response() {
+
+                        @Override
+                        public int getStatusCode() {
+                            return status;
+                        }
+
+                        @Override
+                        public String getReasonPhrase() {
+                            try {
+                                return response.getResponseMessage();
+                            }
+                            catch (IOException e) {
+                                return null;
+                            }
+                        }
+
+                        @Override
+                        public String getHeader(String name) {
+                            return UrlConnectionTransport.getHeader(
+                                    response, name);
+                        }
+
+                        @Override
+                        public InputStream getBody() {
+                            return responseBody;
+                        }
+                    });
+                }
+                catch (Throwable t) {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                    handler.onFailure(t);
+                }
+                finally {
+                    // Closing the stream, rather than disconnecting, returns
+                    // the connection to the pool.
+                    if (body != null) {
+                        try {
+                            body.close();
+                        }
+                        catch (IOException e) {
+                            // Do nothing
+                        }
+                    }
+                }
+            }
+        }, null) {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                HttpURLConnection connection = active.get();
+                if (cancelled && connection != null) {
+                    // Unblocks the thread executing the request.
+                    connection.disconnect();
+                }
+                return cancelled;
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    private HttpURLConnection open(Request request) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection)new URL(request.getUrl()).openConnection();
+        connection.setRequestMethod(request.getMethod());
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        // Setting this disables the platform's transparent gzip support,
+        // which doesn't cover deflate.
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        for (Map.Entry<String, String> header :
+                request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    private static void send(HttpURLConnection connection, Request request)
+            throws IOException {
+        RequestBody body = request.getBody();
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type",
+                    body.getContentType());
+            if (body.getContentEncoding() != null) {
+                connection.setRequestProperty("Content-Encoding",
+                        body.getContentEncoding());
+            }
+            long length = body.getContentLength();
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int)length);
+            }
+            else {
+                connection.setChunkedStreamingMode(0);
+            }
+            OutputStream out = connection.getOutputStream();
+            try {
+                body.writeTo(out);
+            }
+            catch (IOException e) {
+                // Closing a fixed length stream that is short fails too,
+                // which would hide why the body wasn't written, e.g. a
+                // cancelled upload.
+                connection.disconnect();
+                throw e;
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Wraps a response body in a stream that decompresses it, as needed.
+     */
+    private static InputStream decode(InputStream body,
+            String contentEncoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(contentEncoding) ||
+                "x-gzip".equalsIgnoreCase(contentEncoding)) {
+            try {
+                return new GZIPInputStream(body, 8192);
+            }
+            catch (EOFException e) {
+                // An empty body, e.g. of a 304 response.
+                return body;
+            }
+        }
+        else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            return new InflaterInputStream(body);
+        }
+        return body;
+    }
+
+    private static String getHeader(HttpURLConnection connection,
+            String name) {
+        StringBuilder value = null;
+        for (Map.Entry<String, List<String>> header :
+                connection.getHeaderFields().entrySet()) {
+            // The status line has a null key.
+            if (!name.equalsIgnoreCase(header.getKey())) {
+                continue;
+            }
+            for (String v : header.getValue()) {
+                if (value == null) {
+                    value = new StringBuilder(v);
+                }
+                else {
+                    value.append(", ").append(v);
+                }
+            }
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    private static final InputStream EMPTY_STREAM = new InputStream() {
+
+        @Override
+        public int read() {
+            return -1;
+        }
+    };
+}
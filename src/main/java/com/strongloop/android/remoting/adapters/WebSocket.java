@@ -0,0 +1,353 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.adapters;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import android.util.Base64;
+
+/**
+ * A minimal WebSocket client (RFC 6455), since the platform does not have
+ * one. Only text messages are supported; pings are answered and
+ * fragmented messages are reassembled.
+ * <p>
+ * {@link #send(String)} may be called on any thread, while
+ * {@link #read(Listener)} blocks the thread it is called on until the
+ * socket is closed.
+ */
+final class WebSocket {
+
+    /**
+     * Receives the messages of a socket.
+     */
+    interface Listener {
+
+        /**
+         * The method invoked on the reading thread for each text message.
+         * @param message The message.
+         */
+        void onMessage(String message);
+
+        /**
+         * The method invoked once the socket is closed.
+         * @param error The error that closed the socket, or
+         * <code>null</code> if it was closed normally.
+         */
+        void onClose(IOException error);
+    }
+
+    private static final String ACCEPT_GUID =
+            "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_MESSAGE_LENGTH = 16 * 1024 * 1024;
+
+    private static final int CONTINUATION = 0x0;
+    private static final int TEXT = 0x1;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final SecureRandom random = new SecureRandom();
+    // Guarded by this.
+    private boolean closed;
+
+    private WebSocket(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Opens a socket, performing the opening handshake.
+     * @param uri The <code>ws</code> or <code>wss</code> URI.
+     * @param timeout The connect and handshake timeout, in milliseconds.
+     * @return the socket.
+     * @throws IOException if the server could not be reached or does not
+     * accept the handshake.
+     */
+    public static WebSocket open(URI uri, int timeout) throws IOException {
+        boolean secure = "wss".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+        Socket socket = secure ? SSLSocketFactory.getDefault().createSocket()
+                : new Socket();
+        try {
+            socket.connect(new InetSocketAddress(uri.getHost(), port),
+                    timeout);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeout);
+            if (secure) {
+                SSLSocket ssl = (SSLSocket)socket;
+                ssl.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(
+                        uri.getHost(), ssl.getSession())) {
+                    throw new IOException(
+                            "Hostname not verified: " + uri.getHost());
+                }
+            }
+            WebSocket webSocket = new WebSocket(socket);
+            webSocket.handshake(uri, port, secure);
+            socket.setSoTimeout(0);
+            return webSocket;
+        }
+        catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private void handshake(URI uri, int port, boolean secure)
+            throws IOException {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String key = Base64.encodeToString(nonce, Base64.NO_WRAP);
+        String path = uri.getRawPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        String host = uri.getHost();
+        if (port != (secure ? 443 : 80)) {
+            host += ":" + port;
+        }
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "\r\n";
+        out.write(request.getBytes("ISO-8859-1"));
+        out.flush();
+
+        String status = readLine();
+        if (!status.startsWith("HTTP/1.1 101")) {
+            throw new IOException("WebSocket handshake failed: " + status);
+        }
+        String accept = null;
+        for (String line = readLine(); line.length() > 0;
+                line = readLine()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim()
+                    .toLowerCase(Locale.US).equals("sec-websocket-accept")) {
+                accept = line.substring(colon + 1).trim();
+            }
+        }
+        if (!getAccept(key).equals(accept)) {
+            throw new IOException("Invalid Sec-WebSocket-Accept: " + accept);
+        }
+    }
+
+    private static String getAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest(
+                    (key + ACCEPT_GUID).getBytes("ISO-8859-1"));
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+        catch (IOException e) {
+            // Won't happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int c = in.read();
+            if (c == -1) {
+                throw new EOFException("Connection closed during handshake");
+            }
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append((char)c);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Sends a text message.
+     * @param message The message.
+     * @throws IOException if the socket is closed or the message could not
+     * be written.
+     */
+    public void send(String message) throws IOException {
+        sendFrame(TEXT, message.getBytes("UTF-8"));
+    }
+
+    /**
+     * Closes the socket. Pending calls to {@link #read(Listener)} return.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                // Status 1000: normal closure.
+                sendFrame(CLOSE, new byte[] { 0x03, (byte)0xE8 });
+            }
+            catch (IOException e) {
+                // Do nothing
+            }
+            closed = true;
+        }
+        closeQuietly(socket);
+    }
+
+    /**
+     * Reads messages until the socket is closed, by either side.
+     * @param listener The listener to deliver the messages to.
+     */
+    public void read(Listener listener) {
+        IOException error = null;
+        try {
+            readFrames(listener);
+        }
+        catch (IOException e) {
+            synchronized (this) {
+                if (!closed) {
+                    error = e;
+                }
+                closed = true;
+            }
+        }
+        closeQuietly(socket);
+        listener.onClose(error);
+    }
+
+    private void readFrames(Listener listener) throws IOException {
+        ByteArrayOutputStream message = null;
+        while (true) {
+            int first = in.readUnsignedByte();
+            int second = in.readUnsignedByte();
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            }
+            else if (length == 127) {
+                length = in.readLong();
+            }
+            if (length < 0 || length > MAX_MESSAGE_LENGTH) {
+                throw new IOException("WebSocket frame too large: " + length);
+            }
+            byte[] mask = null;
+            if ((second & 0x80) != 0) {
+                mask = new byte[4];
+                in.readFully(mask);
+            }
+            byte[] payload = new byte[(int)length];
+            in.readFully(payload);
+            if (mask != null) {
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+
+            switch (opcode) {
+            case CLOSE:
+                close();
+                return;
+            case PING:
+                sendFrame(PONG, payload);
+                break;
+            case TEXT:
+            case CONTINUATION:
+                if (opcode == TEXT) {
+                    message = new ByteArrayOutputStream(payload.length);
+                }
+                if (message == null) {
+                    throw new IOException("Unexpected continuation frame");
+                }
+                if (message.size() + payload.length > MAX_MESSAGE_LENGTH) {
+                    throw new IOException("WebSocket message too large");
+                }
+                message.write(payload);
+                if (fin) {
+                    listener.onMessage(message.toString("UTF-8"));
+                    message = null;
+                }
+                break;
+            default:
+                // Pongs and binary messages are ignored.
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes a single, masked frame, as clients must.
+     */
+    private synchronized void sendFrame(int opcode, byte[] payload)
+            throws IOException {
+        if (closed) {
+            throw new IOException("WebSocket closed");
+        }
+        int length = payload.length;
+        int header = 2 + (length < 126 ? 0 : length <= 0xFFFF ? 2 : 8) + 4;
+        byte[] frame = new byte[header + length];
+        int i = 0;
+        frame[i++] = (byte)(0x80 | opcode);
+        if (length < 126) {
+            frame[i++] = (byte)(0x80 | length);
+        }
+        else if (length <= 0xFFFF) {
+            frame[i++] = (byte)(0x80 | 126);
+            frame[i++] = (byte)(length >>> 8);
+            frame[i++] = (byte)length;
+        }
+        else {
+            frame[i++] = (byte)(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame[i++] = (byte)((long)length >>> shift);
+            }
+        }
+        byte[] mask = new byte[4];
+        random.nextBytes(mask);
+        System.arraycopy(mask, 0, frame, i, 4);
+        i += 4;
+        for (int j = 0; j < length; j++) {
+            frame[i + j] = (byte)(payload[j] ^ mask[j & 3]);
+        }
+        out.write(frame);
+        out.flush();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Do nothing
+        }
+    }
+}
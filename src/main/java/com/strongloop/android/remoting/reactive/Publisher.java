@@ -0,0 +1,26 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.reactive;
+
+/**
+ * A provider of a potentially unbounded number of elements, published
+ * according to the demand received from its {@link Subscriber}s.
+ * <p>
+ * The interfaces of this package follow the
+ * <a href="http://www.reactive-streams.org/">Reactive Streams</a>
+ * specification, so that they can be bridged to RxJava or
+ * <code>java.util.concurrent.Flow</code> with a thin wrapper, without
+ * adding a dependency to this library.
+ *
+ * @param <T> The type of the elements.
+ * @see RemotePublishers
+ */
+public interface Publisher<T> {
+
+    /**
+     * Requests the publisher to start streaming elements to the
+     * subscriber. Each call starts a new, independent subscription.
+     * @param subscriber The subscriber.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
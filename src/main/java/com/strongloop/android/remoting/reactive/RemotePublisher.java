@@ -0,0 +1,246 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.reactive;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.strongloop.android.remoting.adapters.Adapter;
+import com.strongloop.android.remoting.adapters.ResponseFuture;
+
+/**
+ * Publishes the response of a remote method, or the elements of a paged
+ * list, one page at a time.
+ */
+class RemotePublisher implements Publisher<Object> {
+
+    /**
+     * Invokes the remote method.
+     */
+    interface Invoker {
+        void invoke(Map<String, ? extends Object> parameters,
+                Adapter.Callback callback);
+    }
+
+    private final Invoker invoker;
+    private final Map<String, ? extends Object> parameters;
+    private final int pageSize;
+
+    /**
+     * @param pageSize The number of elements per page, or 0 to publish the
+     * response as a single element.
+     */
+    public RemotePublisher(Invoker invoker,
+            Map<String, ? extends Object> parameters, int pageSize) {
+        if (invoker == null) {
+            throw new IllegalArgumentException("Invoker cannot be null");
+        }
+        if (pageSize < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid page size: " + pageSize);
+        }
+        this.invoker = invoker;
+        this.parameters = parameters;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Object> subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Subscriber cannot be null");
+        }
+        subscriber.onSubscribe(new RemoteSubscription(subscriber));
+    }
+
+    /**
+     * Gets the parameters of a page, with <code>limit</code> and
+     * <code>skip</code> added to the <code>filter</code> parameter, as
+     * LoopBack's <code>find</code> methods expect them.
+     */
+    private Map<String, Object> getPageParameters(long skip) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        if (parameters != null) {
+            params.putAll(parameters);
+        }
+        Map<String, Object> filter = new HashMap<String, Object>();
+        Object existing = params.get("filter");
+        if (existing instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)existing).entrySet()) {
+                filter.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        }
+        filter.put("limit", pageSize);
+        filter.put("skip", skip);
+        params.put("filter", filter);
+        return params;
+    }
+
+    /**
+     * Fetches a page when the subscriber has requested more elements than
+     * are buffered, and emits the elements of a page as they are
+     * requested. Only one page is buffered at a time.
+     */
+    private class RemoteSubscription implements Subscription {
+
+        private final Subscriber<? super Object> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // The number of pending drain() calls, only one of which runs.
+        private final AtomicInteger wip = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Object> queue =
+                new ConcurrentLinkedQueue<Object>();
+        private volatile boolean fetching;
+        private volatile boolean lastPage;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private volatile ResponseFuture call;
+        // Only accessed by drain().
+        private long skip;
+        private boolean done;
+
+        public RemoteSubscription(Subscriber<? super Object> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException(
+                        "Non-positive request: " + n);
+            }
+            else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!requested.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            ResponseFuture call = this.call;
+            if (call != null) {
+                call.cancel(true);
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (cancelled || done) {
+                    queue.clear();
+                    return;
+                }
+                Throwable t = error;
+                if (t != null) {
+                    done = true;
+                    queue.clear();
+                    cancel();
+                    subscriber.onError(t);
+                    return;
+                }
+
+                long r = requested.get();
+                long emitted = 0;
+                while (emitted != r) {
+                    Object element = queue.poll();
+                    if (element == null) {
+                        break;
+                    }
+                    subscriber.onNext(element);
+                    emitted++;
+                    if (cancelled) {
+                        return;
+                    }
+                }
+                if (emitted != 0 && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+
+                if (queue.isEmpty() && !fetching) {
+                    if (lastPage) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (requested.get() > 0) {
+                        fetch();
+                        // A cached response may have arrived already.
+                        continue;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void fetch() {
+            fetching = true;
+            Map<String, ? extends Object> params = pageSize > 0
+                    ? getPageParameters(skip) : parameters;
+            skip += pageSize;
+            ResponseFuture call = new ResponseFuture() {
+
+                @Override
+                public void onSuccess(Object response) {
+                    super.onSuccess(response);
+                    onPage(response);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    super.onError(t);
+                    error = t;
+                    fetching = false;
+                    drain();
+                }
+            };
+            this.call = call;
+            try {
+                invoker.invoke(params, call);
+            }
+            catch (RuntimeException e) {
+                error = e;
+                fetching = false;
+            }
+        }
+
+        private void onPage(Object response) {
+            if (pageSize == 0) {
+                queue.offer(response);
+                lastPage = true;
+            }
+            else if (response instanceof JSONArray) {
+                JSONArray page = (JSONArray)response;
+                for (int i = 0; i < page.length(); i++) {
+                    queue.offer(page.opt(i));
+                }
+                lastPage = page.length() < pageSize;
+            }
+            else if (response == JSONObject.NULL) {
+                lastPage = true;
+            }
+            else {
+                error = new JSONException(
+                        "Expecting a JSON array: " + response);
+            }
+            fetching = false;
+            drain();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.reactive;
+
+import java.util.Map;
+
+import com.strongloop.android.remoting.Repository;
+import com.strongloop.android.remoting.VirtualObject;
+import com.strongloop.android.remoting.adapters.Adapter;
+
+/**
+ * Exposes remote methods as {@link Publisher}s. Nothing is sent until the
+ * subscriber requests an element, and cancelling the subscription cancels
+ * the request in progress. Elements are the parsed JSON values an
+ * {@link Adapter.JsonCallback} receives: {@link org.json.JSONObject},
+ * {@link org.json.JSONArray}, String, Number, Boolean or
+ * {@link org.json.JSONObject#NULL}. They are published on the network
+ * thread.
+ * <p>
+ * Paged publishers invoke a list method, e.g. <code>"find"</code>, once
+ * per page, with <code>limit</code> and <code>skip</code> added to its
+ * <code>filter</code> parameter. The next page is only fetched once the
+ * elements of the previous one have been requested, so that a slow
+ * subscriber never holds more than a page in memory. The stream completes
+ * after the first page with fewer than <code>pageSize</code> elements.
+ * <pre>
+ * {@code
+ * RemotePublishers.pages(widgets, "find", null, 50).subscribe(
+ *         new Subscriber<Object>() { ... });
+ * }
+ * </pre>
+ */
+public class RemotePublishers {
+
+    private RemotePublishers() {
+    }
+
+    /**
+     * Publishes the response of a static method as a single element.
+     * @see Repository#invokeStaticMethod(String, Map, Adapter.Callback)
+     * @param repository The repository.
+     * @param method The method to invoke (without the class name).
+     * @param parameters The parameters to invoke with.
+     * @return the publisher.
+     */
+    public static Publisher<Object> invokeStaticMethod(Repository repository,
+            String method, Map<String, ? extends Object> parameters) {
+        return new RemotePublisher(staticInvoker(repository, method),
+                parameters, 0);
+    }
+
+    /**
+     * Publishes the response of an instance method as a single element.
+     * @see VirtualObject#invokeMethod(String, Map, Adapter.Callback)
+     * @param object The object.
+     * @param method The method to invoke (without the repository).
+     * @param parameters The parameters to invoke with.
+     * @return the publisher.
+     */
+    public static Publisher<Object> invokeMethod(VirtualObject object,
+            String method, Map<String, ? extends Object> parameters) {
+        return new RemotePublisher(instanceInvoker(object, method),
+                parameters, 0);
+    }
+
+    /**
+     * Publishes the elements of the JSON array pages returned by a static
+     * method.
+     * @param repository The repository.
+     * @param method The list method to invoke (without the class name),
+     * e.g. <code>"find"</code>.
+     * @param parameters The parameters to invoke with.
+     * @param pageSize The number of elements per page.
+     * @return the publisher.
+     */
+    public static Publisher<Object> pages(Repository repository,
+            String method, Map<String, ? extends Object> parameters,
+            int pageSize) {
+        return new RemotePublisher(staticInvoker(repository, method),
+                parameters, checkPageSize(pageSize));
+    }
+
+    /**
+     * Publishes the elements of the JSON array pages returned by an
+     * instance method, e.g. the related models of a relation.
+     * @param object The object.
+     * @param method The list method to invoke (without the repository).
+     * @param parameters The parameters to invoke with.
+     * @param pageSize The number of elements per page.
+     * @return the publisher.
+     */
+    public static Publisher<Object> pages(VirtualObject object,
+            String method, Map<String, ? extends Object> parameters,
+            int pageSize) {
+        return new RemotePublisher(instanceInvoker(object, method),
+                parameters, checkPageSize(pageSize));
+    }
+
+    private static int checkPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid page size: " + pageSize);
+        }
+        return pageSize;
+    }
+
+    private static RemotePublisher.Invoker staticInvoker(
+            final Repository repository, final String method) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null");
+        }
+        return new RemotePublisher.Invoker() {
+
+            @Override
+            public void invoke(Map<String, ? extends Object> parameters,
+                    Adapter.Callback callback) {
+                repository.invokeStaticMethod(method, parameters, callback);
+            }
+        };
+    }
+
+    private static RemotePublisher.Invoker instanceInvoker(
+            final VirtualObject object, final String method) {
+        if (object == null) {
+            throw new IllegalArgumentException("Object cannot be null");
+        }
+        return new RemotePublisher.Invoker() {
+
+            @Override
+            public void invoke(Map<String, ? extends Object> parameters,
+                    Adapter.Callback callback) {
+                object.invokeMethod(method, parameters, callback);
+            }
+        };
+    }
+}
@@ -0,0 +1,39 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.reactive;
+
+/**
+ * Receives the elements of a {@link Publisher}, no more than it requested
+ * through its {@link Subscription}. The methods are never invoked
+ * concurrently, but not necessarily on the same thread.
+ *
+ * @param <T> The type of the elements.
+ */
+public interface Subscriber<T> {
+
+    /**
+     * Invoked once, before any other method.
+     * @param subscription The subscription, to request elements with.
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Invoked for each element, in response to
+     * {@link Subscription#request(long)}.
+     * @param element The element, never <code>null</code>.
+     */
+    void onNext(T element);
+
+    /**
+     * Invoked once if the stream fails, after which no other method is
+     * invoked.
+     * @param t The error.
+     */
+    void onError(Throwable t);
+
+    /**
+     * Invoked once after the last element, after which no other method is
+     * invoked.
+     */
+    void onComplete();
+}
@@ -0,0 +1,24 @@
+// Copyright (c) 2013 StrongLoop. All rights reserved.
+
+package com.strongloop.android.remoting.reactive;
+
+/**
+ * The link between a {@link Publisher} and one of its {@link Subscriber}s.
+ * Both methods may be invoked from any thread, including from within the
+ * subscriber's methods.
+ */
+public interface Subscription {
+
+    /**
+     * Requests more elements. Demand is cumulative, and
+     * {@link Long#MAX_VALUE} means unbounded.
+     * @param n The number of elements, strictly positive.
+     */
+    void request(long n);
+
+    /**
+     * Stops the stream, and cancels any request in progress. The subscriber
+     * may still receive signals that were already on their way.
+     */
+    void cancel();
+}
@@ -1,5 +1,12 @@
+var crypto = require('crypto');
+var http = require('http');
+var querystring = require('querystring');
+var url = require('url');
+var zlib = require('zlib');
 var remotes = require('strong-remoting').create();
 
+var PORT = 3001;
+
 remotes.exports = {
   simple: require('./simple'),
   contract: require('./contract'),
@@ -7,8 +14,471 @@ remotes.exports = {
   ContractClass: require('./contract-class')
 };
 
-var server = require('http')
-  .createServer(remotes.handler('rest'))
-  .listen(3001);
+var rest = remotes.handler('rest');
+
+var server = http
+  .createServer(function(req, res) {
+    if (req.method === 'POST' && req.url === '/batch') {
+      return batch(req, res);
+    }
+    if (req.headers['content-encoding'] === 'gzip') {
+      return inflate(req, res);
+    }
+    if (req.method === 'GET' && req.url === '/download') {
+      return download(req, res);
+    }
+    if (req.method === 'GET' && req.url === '/events') {
+      return events(req, res);
+    }
+    if (req.method === 'GET' && req.url === '/routes') {
+      return routes(req, res);
+    }
+    if (req.url.indexOf('/outbox/') === 0) {
+      return outbox(req, res);
+    }
+    if (req.url.indexOf('/upload/') === 0) {
+      return upload(req, res);
+    }
+    if (req.method === 'POST' && req.url.indexOf('/msgpack/') === 0) {
+      return msgpack(req, res);
+    }
+    rest(req, res);
+  })
+  .listen(PORT);
 
 remotes.handler('socket-io', server);
+
+/**
+ * Runs each request of a batch against this server, one after the other
+ * so that each sees the effects of those before it, and returns all
+ * responses at once, in request order.
+ *
+ *   POST /batch
+ *   { "requests": [ { "verb": "GET", "path": "simple/getSecret",
+ *                     "query": { ... }, "body": { ... } } ] }
+ *
+ *   [ { "status": 200, "body": "{\"data\":\"shhh!\"}" } ]
+ */
+function batch(req, res) {
+  var data = '';
+  req.setEncoding('utf8');
+  req.on('data', function(chunk) {
+    data += chunk;
+  });
+  req.on('end', function() {
+    var requests;
+    try {
+      requests = JSON.parse(data).requests;
+    } catch (e) {
+      requests = null;
+    }
+    if (!Array.isArray(requests)) {
+      res.statusCode = 400;
+      return res.end();
+    }
+
+    var responses = [];
+    next();
+
+    function next() {
+      if (responses.length === requests.length) return send();
+      forward(req, requests[responses.length], function(status, body) {
+        responses.push({ status: status, body: body });
+        next();
+      });
+    }
+
+    function send() {
+      res.setHeader('Content-Type', 'application/json');
+      res.end(JSON.stringify(responses));
+    }
+  });
+}
+
+/**
+ * Decompresses a gzip request body and runs the request against this
+ * server.
+ */
+function inflate(req, res) {
+  var data = '';
+  var gunzip = zlib.createGunzip();
+  gunzip.setEncoding('utf8');
+  gunzip.on('data', function(chunk) {
+    data += chunk;
+  });
+  gunzip.on('error', function() {
+    res.statusCode = 400;
+    res.end();
+  });
+  gunzip.on('end', function() {
+    var body;
+    try {
+      body = JSON.parse(data);
+    } catch (e) {
+      res.statusCode = 400;
+      return res.end();
+    }
+    forward(req, { verb: req.method, path: req.url, body: body },
+      function(status, text) {
+        res.statusCode = status;
+        res.setHeader('Content-Type', 'application/json');
+        res.end(text);
+      });
+  });
+  req.pipe(gunzip);
+}
+
+/**
+ * Sends DOWNLOAD_LENGTH bytes with values 0, 1, ... 255, 0, 1, ...,
+ * honoring "Range: bytes=first-" headers.
+ */
+var DOWNLOAD_LENGTH = 100000;
+
+function download(req, res) {
+  var first = 0;
+  var range = /^bytes=(\d+)-$/.exec(req.headers.range || '');
+  if (range) {
+    first = parseInt(range[1], 10);
+    if (first >= DOWNLOAD_LENGTH) {
+      res.statusCode = 416;
+      res.setHeader('Content-Range', 'bytes */' + DOWNLOAD_LENGTH);
+      return res.end();
+    }
+    res.statusCode = 206;
+    res.setHeader('Content-Range', 'bytes ' + first + '-' +
+      (DOWNLOAD_LENGTH - 1) + '/' + DOWNLOAD_LENGTH);
+  }
+
+  var body = new Buffer(DOWNLOAD_LENGTH - first);
+  for (var i = 0; i < body.length; i++) {
+    body[i] = (first + i) % 256;
+  }
+  res.setHeader('Content-Type', 'application/octet-stream');
+  res.setHeader('Content-Length', body.length);
+  res.end(body);
+}
+
+/**
+ * Sends two server-sent events numbered after the "Last-Event-ID" header,
+ * then ends the stream, so that the client reconnects to get the next two.
+ *
+ *   id: 1
+ *   event: count
+ *   data: {"count":1}
+ */
+function events(req, res) {
+  var last = parseInt(req.headers['last-event-id'], 10) || 0;
+  res.setHeader('Content-Type', 'text/event-stream');
+  res.setHeader('Cache-Control', 'no-cache');
+  res.write('retry: 100\n\n');
+  for (var id = last + 1; id <= last + 2; id++) {
+    res.write('id: ' + id + '\nevent: count\n' +
+      'data: ' + JSON.stringify({ count: id }) + '\n\n');
+  }
+  res.end();
+}
+
+/**
+ * Describes the route of each shared method, with a version that changes
+ * whenever the routes do, honoring "If-None-Match" headers.
+ *
+ *   { "version": "...",
+ *     "routes": [ { "method": "contract.getSecret",
+ *                   "path": "/contract/customizedGetSecret", "verb": "GET",
+ *                   "accepts": [ ... ], "returns": [ ... ] } ] }
+ */
+function routes(req, res) {
+  var list = [];
+  Object.keys(remotes.exports).forEach(function(name) {
+    var exported = remotes.exports[name];
+    Object.keys(exported).forEach(function(key) {
+      if (key !== 'sharedCtor') {
+        addRoute(name + '.' + key, '/' + name, key, exported[key]);
+      }
+    });
+    if (typeof exported === 'function' && exported.sharedCtor) {
+      var ctorHttp = exported.sharedCtor.http || {};
+      Object.keys(exported.prototype).forEach(function(key) {
+        addRoute(name + '.prototype.' + key,
+          '/' + name + (ctorHttp.path || '/prototype'), key,
+          exported.prototype[key]);
+      });
+    }
+  });
+
+  function addRoute(method, base, key, fn) {
+    if (typeof fn !== 'function' || !fn.shared) return;
+    var http = fn.http || {};
+    list.push({
+      method: method,
+      path: base + (http.path || '/' + key),
+      verb: (http.verb || 'POST').toUpperCase(),
+      accepts: fn.accepts || [],
+      returns: fn.returns || []
+    });
+  }
+
+  var version = crypto.createHash('sha1')
+    .update(JSON.stringify(list)).digest('hex');
+  var etag = '"' + version + '"';
+  res.setHeader('ETag', etag);
+  if (req.headers['if-none-match'] === etag) {
+    res.statusCode = 304;
+    return res.end();
+  }
+  res.setHeader('Content-Type', 'application/json');
+  res.end(JSON.stringify({ version: version, routes: list }));
+}
+
+/**
+ * Records the values posted under a key, in the order they arrive, to
+ * check how an offline queue replays its calls, and how requests are
+ * retried. A call can ask to be answered with an error status, either
+ * always or only the first "failures" times it is sent, and so can a GET,
+ * with the same query parameters. Every response counts the calls that
+ * were answered with an error under the key.
+ *
+ *   POST /outbox/:key
+ *   { "value": "a", "status": 503, "failures": 2 }
+ *
+ *   GET /outbox/:key?status=503&failures=2
+ *   { "data": [ "a" ], "failed": 2 }
+ */
+var outboxes = {};
+var outboxFailures = {};
+var outboxFailed = {};
+
+function outbox(req, res) {
+  var parsed = url.parse(req.url, true);
+  var key = decodeURIComponent(parsed.pathname.slice('/outbox/'.length));
+  var data = '';
+  req.setEncoding('utf8');
+  req.on('data', function(chunk) {
+    data += chunk;
+  });
+  req.on('end', function() {
+    var values = outboxes[key] = outboxes[key] || [];
+    var call = parsed.query;
+    if (req.method === 'POST') {
+      try {
+        call = JSON.parse(data);
+      } catch (e) {
+        res.statusCode = 400;
+        return res.end();
+      }
+    }
+    if (call.status) {
+      var id = key + '/' + req.method + '/' + call.value;
+      var failed = outboxFailures[id] = (outboxFailures[id] || 0) + 1;
+      if (call.failures === undefined || failed <= Number(call.failures)) {
+        outboxFailed[key] = (outboxFailed[key] || 0) + 1;
+        res.statusCode = Number(call.status);
+        return res.end();
+      }
+    }
+    if (req.method === 'POST') {
+      values.push(call.value);
+    }
+    res.setHeader('Content-Type', 'application/json');
+    res.end(JSON.stringify({ data: values, failed: outboxFailed[key] || 0 }));
+  });
+}
+
+/**
+ * Records the media type of each request body posted under a key, and
+ * answers with those recorded so far, in MessagePack if the request
+ * accepts it. Like a server that responds in MessagePack without reading
+ * it, request bodies in MessagePack are rejected with 415 Unsupported
+ * Media Type, but still recorded.
+ *
+ *   POST /msgpack/:key
+ *   Accept: application/x-msgpack, application/json;q=0.5
+ *   { "value": "a" }
+ *
+ *   { "types": [ "application/json" ] }
+ */
+var msgpackTypes = {};
+
+function msgpack(req, res) {
+  var key = decodeURIComponent(req.url.slice('/msgpack/'.length));
+  var types = msgpackTypes[key] = msgpackTypes[key] || [];
+  var type = (req.headers['content-type'] || '').split(';')[0].trim();
+  types.push(type);
+  req.resume();
+  req.on('end', function() {
+    if (type === 'application/x-msgpack') {
+      res.statusCode = 415;
+      return res.end();
+    }
+    var accept = req.headers['accept'] || '';
+    if (accept.indexOf('application/x-msgpack') < 0) {
+      res.setHeader('Content-Type', 'application/json');
+      return res.end(JSON.stringify({ types: types }));
+    }
+    res.setHeader('Content-Type', 'application/x-msgpack');
+    res.end(encodeMsgpack({ types: types }));
+  });
+}
+
+/**
+ * Encodes strings, and arrays and objects of them, in MessagePack.
+ */
+function encodeMsgpack(value) {
+  if (typeof value === 'string') {
+    var bytes = new Buffer(value, 'utf8');
+    if (bytes.length < 32) {
+      return Buffer.concat([new Buffer([0xa0 | bytes.length]), bytes]);
+    }
+    return Buffer.concat([new Buffer([0xd9, bytes.length]), bytes]);
+  }
+  var parts;
+  if (Array.isArray(value)) {
+    parts = [new Buffer([0x90 | value.length])];
+    value.forEach(function(item) {
+      parts.push(encodeMsgpack(item));
+    });
+  } else {
+    var keys = Object.keys(value);
+    parts = [new Buffer([0x80 | keys.length])];
+    keys.forEach(function(key) {
+      parts.push(encodeMsgpack(key), encodeMsgpack(value[key]));
+    });
+  }
+  return Buffer.concat(parts);
+}
+
+/**
+ * Keeps the file of a multipart upload of a single part under a key. The
+ * bytes received before an upload is interrupted are kept, and a request
+ * with an "Upload-Offset" header appends to them, if the offset is the
+ * number of bytes kept. Otherwise it is answered with 409 Conflict.
+ *
+ *   POST /upload/:key
+ *   Upload-Offset: 65536
+ *   Content-Type: multipart/form-data; boundary=...
+ *
+ *   GET /upload/:key
+ *   { "offset": 100000, "name": "file", "filename": "file.bin",
+ *     "sha1": "..." }
+ */
+var uploads = {};
+
+function upload(req, res) {
+  var key = decodeURIComponent(req.url.slice('/upload/'.length));
+  var kept = uploads[key] = uploads[key] || { chunks: [], length: 0 };
+  if (req.method !== 'POST') {
+    return send(200);
+  }
+
+  var offset = parseInt(req.headers['upload-offset'], 10) || 0;
+  var boundary = /boundary=([^;]+)/.exec(req.headers['content-type'] || '');
+  if (!boundary || (offset && offset !== kept.length)) {
+    req.resume();
+    return req.on('end', function() {
+      send(boundary ? 409 : 400);
+    });
+  }
+  if (!offset) {
+    kept = uploads[key] = { chunks: [], length: 0 };
+  }
+
+  // The end of the part is held back until it is known not to be the
+  // start of the closing delimiter.
+  var delimiter = '\r\n--' + boundary[1];
+  var head = new Buffer(0);
+  var tail = new Buffer(0);
+  var parsed = false;
+  var done = false;
+  req.on('data', function(chunk) {
+    if (!parsed) {
+      head = Buffer.concat([head, chunk]);
+      var i = head.toString('binary').indexOf('\r\n\r\n');
+      if (i < 0) return;
+      var headers = head.slice(0, i).toString('utf8');
+      kept.name = parameter(headers, 'name');
+      kept.filename = parameter(headers, 'filename');
+      chunk = head.slice(i + 4);
+      parsed = true;
+    }
+    if (done) return;
+    tail = Buffer.concat([tail, chunk]);
+    var j = tail.toString('binary').indexOf(delimiter);
+    if (j >= 0) {
+      keep(tail.slice(0, j));
+      done = true;
+    } else if (tail.length > delimiter.length) {
+      keep(tail.slice(0, tail.length - delimiter.length));
+      tail = tail.slice(tail.length - delimiter.length);
+    }
+  });
+  req.on('end', function() {
+    send(done ? 200 : 400);
+  });
+
+  function keep(bytes) {
+    kept.chunks.push(bytes);
+    kept.length += bytes.length;
+  }
+
+  function send(status) {
+    res.statusCode = status;
+    res.setHeader('Content-Type', 'application/json');
+    res.end(JSON.stringify({
+      offset: kept.length,
+      name: kept.name,
+      filename: kept.filename,
+      sha1: crypto.createHash('sha1')
+        .update(Buffer.concat(kept.chunks)).digest('hex')
+    }));
+  }
+}
+
+/**
+ * Gets a parameter of the Content-Disposition header of a part, preferring
+ * its RFC 5987 form.
+ */
+function parameter(headers, name) {
+  var extended = new RegExp(';\\s*' + name + "\\*=UTF-8''([^;\\s]+)", 'i')
+    .exec(headers);
+  if (extended) return decodeURIComponent(extended[1]);
+  var quoted = new RegExp(';\\s*' + name + '="([^"]*)"', 'i').exec(headers);
+  return quoted ? quoted[1] : null;
+}
+
+function forward(req, item, callback) {
+  var path = '/' + String(item.path).replace(/^\//, '');
+  if (item.query) {
+    path += '?' + querystring.stringify(item.query);
+  }
+
+  var body = item.body !== undefined ? JSON.stringify(item.body) : null;
+  var headers = { 'Accept': 'application/json' };
+  if (req.headers.authorization) {
+    headers['Authorization'] = req.headers.authorization;
+  }
+  if (body !== null) {
+    headers['Content-Type'] = 'application/json';
+    headers['Content-Length'] = Buffer.byteLength(body);
+  }
+
+  var sub = http.request({
+    host: 'localhost',
+    port: PORT,
+    method: item.verb,
+    path: path,
+    headers: headers
+  }, function(subRes) {
+    var text = '';
+    subRes.setEncoding('utf8');
+    subRes.on('data', function(chunk) {
+      text += chunk;
+    });
+    subRes.on('end', function() {
+      callback(subRes.statusCode, text);
+    });
+  });
+  sub.on('error', function(err) {
+    callback(502, err.message);
+  });
+  sub.end(body);
+}